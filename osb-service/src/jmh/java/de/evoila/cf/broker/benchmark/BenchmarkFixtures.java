@@ -0,0 +1,112 @@
+package de.evoila.cf.broker.benchmark;
+
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.Catalog;
+import de.evoila.cf.broker.model.catalog.ServiceDefinition;
+import de.evoila.cf.broker.model.catalog.plan.CustomInstanceGroupConfig;
+import de.evoila.cf.broker.model.catalog.plan.Metadata;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.util.MapUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans, catalogs and service instances shaped like the ones of a real broker configuration.
+ */
+public final class BenchmarkFixtures {
+
+    public static final String SERVICE_DEFINITION_ID = "elasticsearch-benchmark";
+
+    public static final String[] INSTANCE_GROUPS = {
+            "master_eligible_nodes", "data_nodes", "ingest_nodes", "coordinating_nodes",
+            "machine_learning_nodes", "general_nodes", "elasticsearch"
+    };
+
+    private static final String DEDICATED_NODES = "{\"value\":\"dedicate_nodes\",\"selected_option\":{" +
+            "\"master_eligible_nodes\":3,\"master_eligible_vmtype\":\"small\",\"master_eligible_persistentdisktype\":\"10GB\"," +
+            "\"data_nodes\":5,\"data_vmtype\":\"large\",\"data_persistentdisktype\":\"500GB\"," +
+            "\"ingest_nodes\":2,\"ingest_vmtype\":\"medium\",\"ingest_persistentdisktype\":\"10GB\"," +
+            "\"coordinating_nodes\":2,\"coordinating_vmtype\":\"medium\",\"coordinating_persistentdisktype\":\"10GB\"}}";
+
+    private static final String PLUGINS = "[{\"guid\":\"1\",\"name\":\"repository-s3\",\"source\":\"\"}," +
+            "{\"guid\":\"2\",\"name\":\"analysis-icu\",\"source\":\"https://example.com/analysis-icu.zip\"}]";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Creates a plan with x-pack and TLS enabled, configuring the first <code>instanceGroups</code>
+     * instance groups of {@link #INSTANCE_GROUPS}.
+     */
+    public static Plan plan(String id, int instanceGroups) {
+        final Map<String, Object> properties = new HashMap<>();
+        MapUtils.deepInsert(properties, "elasticsearch.xpack.security.enabled", true);
+        MapUtils.deepInsert(properties, "elasticsearch.xpack.security.http.ssl.enabled", "true");
+        MapUtils.deepInsert(properties, "elasticsearch.discovery.minimum_master_nodes", 2);
+
+        final List<CustomInstanceGroupConfig> configs = new ArrayList<>();
+        for (int i = 0; i < instanceGroups; i++) {
+            final CustomInstanceGroupConfig config = new CustomInstanceGroupConfig();
+            config.setName(INSTANCE_GROUPS[i]);
+            config.setNodes(i == 0 ? 3 : 2);
+            config.setVmType("medium");
+            config.setPersistentDiskType("50GB");
+            configs.add(config);
+        }
+
+        final Metadata metadata = new Metadata();
+        metadata.setProperties(properties);
+        metadata.setCustomParameters(new HashMap<>());
+        metadata.setInstanceGroupConfig(configs);
+        metadata.setEgressInstanceGroup(configs.isEmpty() ? null : configs.get(configs.size() - 1).getName());
+        metadata.setIngressInstanceGroup(metadata.getEgressInstanceGroup());
+
+        final Plan plan = new Plan();
+        plan.setId(id);
+        plan.setName(id);
+        plan.setMetadata(metadata);
+        return plan;
+    }
+
+    /**
+     * Creates a plan as configured by the tile, i.e. with the node topology and plugins as JSON
+     * strings in the custom parameters.
+     */
+    public static Plan tilePlan(String id) {
+        final Plan plan = plan(id, 0);
+        plan.getMetadata().getCustomParameters().put("nodes", DEDICATED_NODES);
+        plan.getMetadata().getCustomParameters().put("plugins", PLUGINS);
+        plan.getMetadata().getCustomParameters().put("capath", "/services/elasticsearch/ca");
+        return plan;
+    }
+
+    public static Catalog tileCatalog(int plans) {
+        final List<Plan> planList = new ArrayList<>();
+        for (int i = 0; i < plans; i++) {
+            planList.add(tilePlan("plan-" + i));
+        }
+
+        final ServiceDefinition serviceDefinition = new ServiceDefinition();
+        serviceDefinition.setId(SERVICE_DEFINITION_ID);
+        serviceDefinition.setPlans(planList);
+
+        final List<ServiceDefinition> services = new ArrayList<>();
+        services.add(serviceDefinition);
+
+        final Catalog catalog = new Catalog();
+        catalog.setServices(services);
+        return catalog;
+    }
+
+    public static ServiceInstance serviceInstance(String id, Plan plan) {
+        final ServiceInstance serviceInstance = new ServiceInstance();
+        serviceInstance.setId(id);
+        serviceInstance.setServiceDefinitionId(SERVICE_DEFINITION_ID);
+        serviceInstance.setPlanId(plan.getId());
+        serviceInstance.setHosts(new ArrayList<>());
+        return serviceInstance;
+    }
+}
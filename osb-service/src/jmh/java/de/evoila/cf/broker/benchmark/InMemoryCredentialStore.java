@@ -0,0 +1,77 @@
+package de.evoila.cf.broker.benchmark;
+
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.credential.UsernamePasswordCredential;
+import de.evoila.cf.security.credentials.CredentialStore;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link CredentialStore} keeping all credentials in memory, so benchmarks and load tests
+ * measure the broker and not CredHub or MongoDB.
+ * <p>
+ * The store is a dynamic proxy which dispatches on method name and arguments, so it keeps working
+ * when the credential store interface gains methods the broker does not use.
+ */
+public final class InMemoryCredentialStore {
+
+    private InMemoryCredentialStore() {
+    }
+
+    public static CredentialStore create() {
+        final Map<String, UsernamePasswordCredential> credentials = new ConcurrentHashMap<>();
+
+        return (CredentialStore) Proxy.newProxyInstance(CredentialStore.class.getClassLoader(),
+                new Class<?>[] { CredentialStore.class }, (proxy, method, args) -> {
+                    final String key = args != null && args.length >= 2 ? key(args[0], args[1]) : null;
+
+                    switch (method.getName()) {
+                        case "createUser":
+                            final String username = args.length > 2 ? String.valueOf(args[2]) : String.valueOf(args[1]);
+                            final String password = args.length > 3 ? String.valueOf(args[3]) : UUID.randomUUID().toString();
+                            credentials.put(key, new UsernamePasswordCredential(username, password));
+                            return defaultValue(method.getReturnType(), credentials.get(key));
+                        case "getUser":
+                            return defaultValue(method.getReturnType(), credentials.get(key));
+                        case "getPassword":
+                            final UsernamePasswordCredential credential = credentials.get(key);
+                            return credential != null ? credential.getPassword() : null;
+                        case "deleteCredentials":
+                            credentials.remove(key);
+                            return defaultValue(method.getReturnType(), null);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "InMemoryCredentialStore";
+                        default:
+                            return defaultValue(method.getReturnType(), null);
+                    }
+                });
+    }
+
+    private static String key(Object serviceInstance, Object name) {
+        final String id = serviceInstance instanceof ServiceInstance ? ((ServiceInstance) serviceInstance).getId() : String.valueOf(serviceInstance);
+        return id + "/" + name;
+    }
+
+    private static Object defaultValue(Class<?> type, Object value) {
+        if (type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type.isPrimitive()) {
+            return 0;
+        }
+        return type.isInstance(value) ? value : null;
+    }
+}
@@ -0,0 +1,94 @@
+package de.evoila.cf.broker.benchmark;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects operation latencies per worker thread without contention and reports throughput
+ * and percentiles per operation.
+ */
+public class LatencyRecorder {
+
+    private final ConcurrentLinkedQueue<Samples> allSamples = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<Samples> samples = ThreadLocal.withInitial(() -> {
+        Samples s = new Samples();
+        allSamples.add(s);
+        return s;
+    });
+
+    public void record(String operation, long nanos, boolean success) {
+        samples.get().add(operation, nanos, success);
+    }
+
+    /**
+     * Formats throughput, error count and p50/p99/p999 latency of every operation.
+     *
+     * @param elapsedNanos the duration of the run
+     * @return the report, one line per operation
+     */
+    public String report(long elapsedNanos) {
+        final Map<String, long[]> latencies = new TreeMap<>();
+        final Map<String, Long> errors = new ConcurrentHashMap<>();
+
+        for (Samples s : allSamples) {
+            s.latencies.forEach((operation, values) -> latencies.merge(operation,
+                    Arrays.copyOf(values.values, values.size),
+                    (a, b) -> {
+                        long[] merged = Arrays.copyOf(a, a.length + b.length);
+                        System.arraycopy(b, 0, merged, a.length, b.length);
+                        return merged;
+                    }));
+            s.errors.forEach((operation, count) -> errors.merge(operation, count[0], Long::sum));
+        }
+
+        final double seconds = elapsedNanos / 1e9;
+        final StringBuilder report = new StringBuilder(String.format("%-16s %10s %10s %8s %10s %10s %10s%n",
+                "operation", "count", "ops/s", "errors", "p50 ms", "p99 ms", "p999 ms"));
+
+        latencies.forEach((operation, values) -> {
+            Arrays.sort(values);
+            report.append(String.format("%-16s %10d %10.1f %8d %10.2f %10.2f %10.2f%n",
+                    operation, values.length, values.length / seconds, errors.getOrDefault(operation, 0L),
+                    percentile(values, 0.5), percentile(values, 0.99), percentile(values, 0.999)));
+        });
+
+        return report.toString();
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static class Samples {
+        private final Map<String, LongList> latencies = new ConcurrentHashMap<>();
+        private final Map<String, long[]> errors = new ConcurrentHashMap<>();
+
+        void add(String operation, long nanos, boolean success) {
+            latencies.computeIfAbsent(operation, o -> new LongList()).add(nanos);
+            if (!success) {
+                errors.computeIfAbsent(operation, o -> new long[1])[0]++;
+            }
+        }
+    }
+
+    private static class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package de.evoila.cf.broker.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single Elasticsearch node emulated on a local port. Answers the requests the broker sends
+ * for bindings and backups (<code>_security/user</code>, <code>_security/api_key</code>,
+ * <code>_cluster/health</code>, ping, index listing) after a configurable latency, and fails a
+ * configurable share of them with 503.
+ * <p>
+ * Native users and API keys are counted, as a stand-in for the documents the broker leaves in
+ * the security index. Native users are deleted on unbind, invalidated API keys stay until
+ * Elasticsearch removes them after their retention period.
+ */
+public class StubElasticsearch implements AutoCloseable {
+
+    private static final String INDEX_TEMPLATE = "\"%s\":{\"aliases\":{},\"mappings\":{},\"settings\":{\"index\":" +
+            "{\"number_of_shards\":\"1\",\"number_of_replicas\":\"1\",\"uuid\":\"%s\",\"provided_name\":\"%s\"," +
+            "\"creation_date\":\"1577836800000\",\"version\":{\"created\":\"7060299\"}}}}";
+
+    private final HttpServer server;
+
+    private final ExecutorService executorService;
+
+    private final long latencyMillis;
+
+    private final double failureRate;
+
+    private final int indices;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong liveUsers = new AtomicLong();
+
+    private final AtomicLong apiKeys = new AtomicLong();
+
+    private final AtomicLong invalidatedApiKeys = new AtomicLong();
+
+    public StubElasticsearch(int threads, long latencyMillis, double failureRate, int indices) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.indices = indices;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executorService = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "stub-elasticsearch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executorService);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getIp() {
+        return server.getAddress().getAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getLiveUsers() {
+        return liveUsers.get();
+    }
+
+    public long getApiKeys() {
+        return apiKeys.get();
+    }
+
+    public long getInvalidatedApiKeys() {
+        return invalidatedApiKeys.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            body.readAllBytes();
+        }
+        requests.incrementAndGet();
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failures.incrementAndGet();
+            respond(exchange, 503, "{\"error\":\"injected failure\",\"status\":503}");
+            return;
+        }
+
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath();
+
+        if (method.equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        } else if (path.startsWith("/_security/user/")) {
+            if (method.equals("DELETE")) {
+                liveUsers.decrementAndGet();
+                respond(exchange, 200, "{\"found\":true}");
+            } else {
+                liveUsers.incrementAndGet();
+                respond(exchange, 200, "{\"created\":true}");
+            }
+        } else if (path.equals("/_security/api_key")) {
+            if (method.equals("DELETE")) {
+                invalidatedApiKeys.incrementAndGet();
+                respond(exchange, 200, "{\"invalidated_api_keys\":[\"stub\"],\"previously_invalidated_api_keys\":[],\"error_count\":0}");
+            } else {
+                final long id = apiKeys.incrementAndGet();
+                respond(exchange, 200, "{\"id\":\"key-" + id + "\",\"name\":\"binding\",\"api_key\":\"secret-" + id + "\"}");
+            }
+        } else if (path.equals("/_cluster/health")) {
+            respond(exchange, 200, "{\"cluster_name\":\"stub\",\"status\":\"green\",\"timed_out\":false,\"number_of_nodes\":1," +
+                    "\"number_of_data_nodes\":1,\"active_primary_shards\":" + indices + ",\"active_shards\":" + indices +
+                    ",\"relocating_shards\":0,\"initializing_shards\":0,\"unassigned_shards\":0,\"delayed_unassigned_shards\":0," +
+                    "\"number_of_pending_tasks\":0,\"number_of_in_flight_fetch\":0,\"task_max_waiting_in_queue_millis\":0," +
+                    "\"active_shards_percent_as_number\":100.0}");
+        } else if (path.startsWith("/_cat/indices")) {
+            final StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < indices; i++) {
+                json.append(i > 0 ? "," : "").append("{\"health\":\"green\",\"status\":\"open\",\"index\":\"index-").append(i)
+                        .append("\",\"uuid\":\"uuid-").append(i).append("\",\"pri\":\"1\",\"rep\":\"1\",\"docs.count\":\"0\"," +
+                        "\"docs.deleted\":\"0\",\"store.size\":\"208b\",\"pri.store.size\":\"208b\"}");
+            }
+            respond(exchange, 200, json.append(']').toString());
+        } else if (method.equals("GET") && !path.startsWith("/_")) {
+            // Get index API, e.g. GET /*
+            final StringBuilder json = new StringBuilder("{");
+            for (int i = 0; i < indices; i++) {
+                final String name = "index-" + i;
+                json.append(i > 0 ? "," : "").append(String.format(INDEX_TEMPLATE, name, "uuid-" + i, name));
+            }
+            respond(exchange, 200, json.append('}').toString());
+        } else {
+            respond(exchange, 404, "{\"error\":\"not emulated\",\"status\":404}");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,50 @@
+package de.evoila.cf.broker.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Creates stubs of broker interfaces which answer the given methods by name and return null,
+ * false or 0 for all others.
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    public static <T> T of(Class<T> type) {
+        return of(type, Collections.emptyMap());
+    }
+
+    public static <T> T of(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            final Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Stub of " + type.getSimpleName();
+                default:
+                    final Class<?> returnType = method.getReturnType();
+                    if (returnType == boolean.class) {
+                        return false;
+                    }
+                    if (returnType == long.class) {
+                        return 0L;
+                    }
+                    if (returnType.isPrimitive() && returnType != void.class) {
+                        return 0;
+                    }
+                    return null;
+            }
+        }));
+    }
+}
@@ -0,0 +1,243 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.backup.BackupCustomServiceImpl;
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.benchmark.BenchmarkFixtures;
+import de.evoila.cf.broker.benchmark.InMemoryCredentialStore;
+import de.evoila.cf.broker.benchmark.LatencyRecorder;
+import de.evoila.cf.broker.benchmark.StubElasticsearch;
+import de.evoila.cf.broker.benchmark.Stubs;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.ServiceInstanceBinding;
+import de.evoila.cf.broker.model.ServiceInstanceBindingRequest;
+import de.evoila.cf.broker.model.catalog.ServerAddress;
+import de.evoila.cf.broker.model.catalog.ServiceDefinition;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.repository.BindingRepository;
+import de.evoila.cf.broker.repository.JobRepository;
+import de.evoila.cf.broker.repository.PlatformRepository;
+import de.evoila.cf.broker.repository.RouteBindingRepository;
+import de.evoila.cf.broker.repository.ServiceDefinitionRepository;
+import de.evoila.cf.broker.repository.ServiceInstanceRepository;
+import de.evoila.cf.broker.service.AsyncBindingService;
+import de.evoila.cf.broker.service.CatalogService;
+import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.broker.util.MapUtils;
+import de.evoila.cf.security.credentials.CredentialStore;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Offline load generator for the broker. Drives concurrent bind/unbind and backup listing
+ * workloads through the real {@link ElasticsearchBindingService} and {@link BackupCustomServiceImpl}
+ * against local stub Elasticsearch nodes and an in-memory credential store, and reports
+ * throughput and p50/p99/p999 latency per operation.
+ * <p>
+ * Options are passed as <code>key=value</code>:
+ * <ul>
+ *     <li><code>threads</code> concurrent workers (32)</li>
+ *     <li><code>duration</code> run time in seconds (30)</li>
+ *     <li><code>instances</code> service instances per workload (100)</li>
+ *     <li><code>nodes</code> stub nodes per service instance (3)</li>
+ *     <li><code>latency</code> stub latency in milliseconds (5)</li>
+ *     <li><code>failure-rate</code> share of stub requests failed with 503 (0.0)</li>
+ *     <li><code>indices</code> indices returned by the stub nodes (50)</li>
+ *     <li><code>bind-ratio</code> share of bind/unbind cycles, the rest lists backup items (0.8)</li>
+ *     <li><code>credential-type</code> credentials issued on bind, <code>user</code> or <code>api_key</code> (user)</li>
+ * </ul>
+ * Bindings use a plan with x-pack security over HTTP, backup listing a plan without x-pack, as
+ * the stub nodes do not serve TLS.
+ */
+public class BrokerLoadTest {
+
+    private static final String BIND = "bind";
+    private static final String UNBIND = "unbind";
+    private static final String BACKUP_ITEMS = "backup_items";
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        Arrays.stream(args)
+                .flatMap(a -> Arrays.stream(a.trim().split("\\s+")))
+                .filter(a -> a.contains("="))
+                .forEach(a -> options.put(a.substring(0, a.indexOf('=')), a.substring(a.indexOf('=') + 1)));
+
+        final int threads = Integer.parseInt(options.getOrDefault("threads", "32"));
+        final int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        final int instances = Integer.parseInt(options.getOrDefault("instances", "100"));
+        final int nodes = Integer.parseInt(options.getOrDefault("nodes", "3"));
+        final long latency = Long.parseLong(options.getOrDefault("latency", "5"));
+        final double failureRate = Double.parseDouble(options.getOrDefault("failure-rate", "0.0"));
+        final int indices = Integer.parseInt(options.getOrDefault("indices", "50"));
+        final double bindRatio = Double.parseDouble(options.getOrDefault("bind-ratio", "0.8"));
+        final String credentialType = options.getOrDefault("credential-type", "user");
+
+        final List<StubElasticsearch> stubs = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            stubs.add(new StubElasticsearch(threads, latency, failureRate, indices));
+        }
+
+        try {
+            new BrokerLoadTest(stubs, instances, credentialType).run(threads, duration, bindRatio);
+        } finally {
+            stubs.forEach(StubElasticsearch::close);
+        }
+    }
+
+    private final Plan xpackPlan;
+
+    private final Plan plainPlan;
+
+    private final List<ServiceInstance> xpackInstances = new ArrayList<>();
+
+    private final List<ServiceInstance> plainInstances = new ArrayList<>();
+
+    private final List<StubElasticsearch> stubs;
+
+    private final ElasticsearchBindingService bindingService;
+
+    private final BackupCustomServiceImpl backupService;
+
+    private final Map<String, Object> bindParameters = new HashMap<>();
+
+    private BrokerLoadTest(List<StubElasticsearch> stubs, int instances, String credentialType) {
+        this.stubs = stubs;
+        bindParameters.put("clientMode", "egress");
+        bindParameters.put(ElasticsearchApiKey.CREDENTIAL_TYPE, credentialType);
+
+        xpackPlan = BenchmarkFixtures.plan("xpack", 1);
+        MapUtils.deepInsert(xpackPlan.getMetadata().getProperties(), "elasticsearch.xpack.security.http.ssl.enabled", false);
+        plainPlan = BenchmarkFixtures.plan("plain", 1);
+        MapUtils.deepInsert(plainPlan.getMetadata().getProperties(), "elasticsearch.xpack.security.enabled", false);
+
+        final CredentialStore credentialStore = InMemoryCredentialStore.create();
+        final Map<String, ServiceInstance> serviceInstances = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < instances; i++) {
+            final ServiceInstance xpackInstance = serviceInstance("xpack-" + i, xpackPlan);
+            credentialStore.createUser(xpackInstance, CredentialConstants.SUPER_ADMIN, CredentialConstants.SUPER_ADMIN, UUID.randomUUID().toString());
+            xpackInstances.add(xpackInstance);
+            serviceInstances.put(xpackInstance.getId(), xpackInstance);
+
+            final ServiceInstance plainInstance = serviceInstance("plain-" + i, plainPlan);
+            plainInstances.add(plainInstance);
+            serviceInstances.put(plainInstance.getId(), plainInstance);
+        }
+
+        final ServiceDefinition serviceDefinition = new ServiceDefinition();
+        serviceDefinition.setId(BenchmarkFixtures.SERVICE_DEFINITION_ID);
+        serviceDefinition.setPlans(Arrays.asList(xpackPlan, plainPlan));
+
+        final Map<String, Function<Object[], Object>> repositoryAnswers = new HashMap<>();
+        repositoryAnswers.put("getServiceInstance", a -> serviceInstances.get((String) a[0]));
+        final ServiceInstanceRepository serviceInstanceRepository = Stubs.of(ServiceInstanceRepository.class, repositoryAnswers);
+
+        final CatalogService catalogService = Stubs.of(CatalogService.class,
+                Collections.singletonMap("getServiceDefinition", a -> serviceDefinition));
+
+        final ElasticsearchTracing tracing = new ElasticsearchTracing();
+        final ElasticsearchMetrics metrics = new ElasticsearchMetrics(Optional.empty(), tracing);
+        final ServiceInstanceCache serviceInstanceCache = new ServiceInstanceCache(serviceInstanceRepository,
+                new ElasticsearchProperties(), Optional.empty());
+        final ElasticsearchHostRegistry hostRegistry = new ElasticsearchHostRegistry();
+        final ElasticsearchConnector connector = new ElasticsearchConnector(serviceInstanceCache, catalogService, credentialStore, metrics, tracing);
+
+        bindingService = new ElasticsearchBindingService(Stubs.of(BindingRepository.class), Stubs.of(ServiceDefinitionRepository.class),
+                serviceInstanceRepository, Stubs.of(RouteBindingRepository.class), Stubs.of(JobRepository.class),
+                Stubs.of(AsyncBindingService.class), Stubs.of(PlatformRepository.class), credentialStore, new RestTemplate(),
+                hostRegistry, metrics, tracing, new ElasticsearchIndexTemplateService(connector, hostRegistry),
+                new ElasticsearchIngestAdvisor(connector),
+                new SharedClusterService(connector, hostRegistry, credentialStore, new ElasticsearchProperties()),
+                new ClientCertificateAuthority(credentialStore, new ElasticsearchProperties()));
+        backupService = new BackupCustomServiceImpl(serviceInstanceCache, catalogService, connector, metrics);
+    }
+
+    private ServiceInstance serviceInstance(String id, Plan plan) {
+        final ServiceInstance serviceInstance = BenchmarkFixtures.serviceInstance(id, plan);
+        stubs.forEach(stub -> serviceInstance.getHosts().add(
+                new ServerAddress(plan.getMetadata().getEgressInstanceGroup(), stub.getIp(), stub.getPort())));
+        return serviceInstance;
+    }
+
+    private void run(int threads, int duration, double bindRatio) throws InterruptedException {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final long start = System.nanoTime();
+        final long end = start + duration * 1_000_000_000L;
+
+        final List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    if (random.nextDouble() < bindRatio) {
+                        bindAndUnbind(xpackInstances.get(random.nextInt(xpackInstances.size())), recorder);
+                    } else {
+                        listBackupItems(plainInstances.get(random.nextInt(plainInstances.size())), recorder);
+                    }
+                }
+            }, "load-test-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        System.out.println(recorder.report(elapsed));
+        System.out.println("Stub requests: " + stubs.stream().mapToLong(StubElasticsearch::getRequests).sum()
+                + ", injected failures: " + stubs.stream().mapToLong(StubElasticsearch::getFailures).sum());
+        System.out.println("Security index: native users left " + stubs.stream().mapToLong(StubElasticsearch::getLiveUsers).sum()
+                + ", API keys created " + stubs.stream().mapToLong(StubElasticsearch::getApiKeys).sum()
+                + ", API keys invalidated " + stubs.stream().mapToLong(StubElasticsearch::getInvalidatedApiKeys).sum());
+    }
+
+    private void bindAndUnbind(ServiceInstance serviceInstance, LatencyRecorder recorder) {
+        final String bindingId = UUID.randomUUID().toString();
+
+        final ServiceInstanceBindingRequest request = new ServiceInstanceBindingRequest();
+        request.setServiceDefinitionId(serviceInstance.getServiceDefinitionId());
+        request.setPlanId(xpackPlan.getId());
+        request.setParameters(bindParameters);
+
+        Map<String, Object> credentials = null;
+        long operationStart = System.nanoTime();
+        try {
+            credentials = bindingService.createCredentials(bindingId, request, serviceInstance, xpackPlan, null);
+            recorder.record(BIND, System.nanoTime() - operationStart, true);
+        } catch (Exception e) {
+            recorder.record(BIND, System.nanoTime() - operationStart, false);
+            return;
+        }
+
+        operationStart = System.nanoTime();
+        try {
+            bindingService.unbindService(new ServiceInstanceBinding(bindingId, serviceInstance.getId(), credentials), serviceInstance, xpackPlan);
+            recorder.record(UNBIND, System.nanoTime() - operationStart, true);
+        } catch (Exception e) {
+            recorder.record(UNBIND, System.nanoTime() - operationStart, false);
+        }
+    }
+
+    private void listBackupItems(ServiceInstance serviceInstance, LatencyRecorder recorder) {
+        final long operationStart = System.nanoTime();
+        try {
+            final boolean success = !backupService.getItems(serviceInstance.getId()).isEmpty();
+            recorder.record(BACKUP_ITEMS, System.nanoTime() - operationStart, success);
+        } catch (Exception e) {
+            recorder.record(BACKUP_ITEMS, System.nanoTime() - operationStart, false);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.benchmark.BenchmarkFixtures;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plan property lookups done on every bind, unbind and admin call. The missing property case
+ * covers the exception path of extractProperty.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ElasticsearchUtilitiesBenchmark {
+
+    private Plan plan;
+
+    private Plan planWithoutProperties;
+
+    @Setup
+    public void setup() {
+        plan = BenchmarkFixtures.plan("xpack", 1);
+        planWithoutProperties = BenchmarkFixtures.plan("plain", 1);
+        planWithoutProperties.getMetadata().setProperties(new HashMap<>());
+    }
+
+    @Benchmark
+    public boolean planContainsXPack() {
+        return ElasticsearchUtilities.planContainsXPack(plan);
+    }
+
+    @Benchmark
+    public boolean isHttpsEnabled() {
+        return ElasticsearchUtilities.isHttpsEnabled(plan);
+    }
+
+    @Benchmark
+    public boolean isHttpsEnabledMissingProperty() {
+        return ElasticsearchUtilities.isHttpsEnabled(planWithoutProperties);
+    }
+}
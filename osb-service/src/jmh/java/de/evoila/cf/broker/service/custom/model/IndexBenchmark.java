@@ -0,0 +1,60 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of a <code>_cat/indices?format=json</code> response into {@link Index}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    @Param({"10", "1000"})
+    private int indices;
+
+    private final ObjectReader reader = new ObjectMapper().readerFor(new TypeReference<List<Index>>() {});
+
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < indices; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"health\":\"green\",\"status\":\"open\",\"index\":\"logs-").append(i)
+                    .append("\",\"uuid\":\"").append(Integer.toHexString(i * 7919))
+                    .append("\",\"pri\":\"1\",\"rep\":\"1\",\"docs.count\":\"").append(i * 1000L)
+                    .append("\",\"docs.deleted\":\"0\",\"store.size\":\"1.2mb\",\"pri.store.size\":\"600kb\"}");
+        }
+        response = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Index> deserialize() throws IOException {
+        return reader.readValue(response);
+    }
+}
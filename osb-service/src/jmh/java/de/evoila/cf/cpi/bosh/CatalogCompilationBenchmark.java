@@ -0,0 +1,122 @@
+package de.evoila.cf.cpi.bosh;
+
+import de.evoila.cf.broker.bean.BoshProperties;
+import de.evoila.cf.broker.benchmark.BenchmarkFixtures;
+import de.evoila.cf.broker.benchmark.InMemoryCredentialStore;
+import de.evoila.cf.broker.model.catalog.Catalog;
+import de.evoila.cf.broker.model.catalog.plan.Metadata;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
+import de.evoila.cf.broker.service.custom.ElasticsearchTracing;
+import de.evoila.cf.broker.util.MapUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compilation of tile plans into topologies, once from scratch and once as a refresh of an
+ * unchanged catalog, which only compares fingerprints. The setup verifies that a refresh
+ * recompiles rebound and changed plans and leaves the source metadata untouched, so the
+ * benchmark never measures a refresh that skips work it has to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogCompilationBenchmark {
+
+    @Param({"10", "500"})
+    private int plans;
+
+    private final PlanTopologyCompiler compiler = new PlanTopologyCompiler();
+
+    private List<Plan> tilePlans;
+
+    private PcfElasticsearchDeploymentManager deploymentManager;
+
+    @Setup
+    public void setup() {
+        verifyRefresh();
+
+        tilePlans = BenchmarkFixtures.tileCatalog(plans).getServices().get(0).getPlans();
+
+        final Catalog catalog = BenchmarkFixtures.tileCatalog(plans);
+        deploymentManager = new PcfElasticsearchDeploymentManager(catalog, new BoshProperties(), new StandardEnvironment(),
+                InMemoryCredentialStore.create(), new ElasticsearchMetrics(Optional.empty(), new ElasticsearchTracing()));
+    }
+
+    private static void verifyRefresh() {
+        final Catalog catalog = BenchmarkFixtures.tileCatalog(1);
+        final Plan plan = catalog.getServices().get(0).getPlans().get(0);
+        final Metadata source = plan.getMetadata();
+        final PcfElasticsearchDeploymentManager manager = new PcfElasticsearchDeploymentManager(catalog, new BoshProperties(),
+                new StandardEnvironment(), InMemoryCredentialStore.create(), new ElasticsearchMetrics(Optional.empty(), new ElasticsearchTracing()));
+
+        check(plan.getMetadata() != source && !source.getInstanceGroupConfig().iterator().hasNext()
+                && property(source, "elasticsearch", "plugins") == null, "apply must not modify the source metadata");
+        check(property(plan.getMetadata(), "elasticsearch", "plugins", "analysis-icu") != null, "the topology must be applied");
+
+        final Metadata applied = plan.getMetadata();
+        manager.onRefresh();
+        check(plan.getMetadata() == applied, "an unchanged plan must keep its applied metadata");
+
+        final Plan rebound = BenchmarkFixtures.tilePlan(plan.getId());
+        MapUtils.deepInsert(rebound.getMetadata().getProperties(), "elasticsearch.indices.memory.index_buffer_size", "20%");
+        plan.setMetadata(rebound.getMetadata());
+        manager.onRefresh();
+        check(property(plan.getMetadata(), "elasticsearch", "indices", "memory", "index_buffer_size") != null
+                && property(plan.getMetadata(), "elasticsearch", "plugins", "analysis-icu") != null, "a rebound plan with changed properties must be applied again");
+
+        MapUtils.deepInsert(plan.getMetadata().getProperties(), "elasticsearch.thread_pool.write.queue_size", 1000);
+        final Metadata changedInPlace = plan.getMetadata();
+        manager.onRefresh();
+        check(plan.getMetadata() != changedInPlace
+                && property(plan.getMetadata(), "elasticsearch", "thread_pool", "write", "queue_size") != null, "a plan changed in place must be applied again");
+    }
+
+    private static Object property(Metadata metadata, String... path) {
+        Object value = metadata.getProperties();
+        for (String key : path) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(key);
+        }
+        return value;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("Catalog refresh is broken: " + message);
+        }
+    }
+
+    @Benchmark
+    public void compile(Blackhole blackhole) {
+        for (Plan plan : tilePlans) {
+            blackhole.consume(compiler.compile(plan));
+        }
+    }
+
+    @Benchmark
+    public void refreshUnchanged() {
+        deploymentManager.onRefresh();
+    }
+}
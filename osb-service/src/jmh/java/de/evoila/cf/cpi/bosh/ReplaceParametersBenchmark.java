@@ -0,0 +1,124 @@
+package de.evoila.cf.cpi.bosh;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import de.evoila.cf.broker.bean.BoshProperties;
+import de.evoila.cf.broker.benchmark.BenchmarkFixtures;
+import de.evoila.cf.broker.benchmark.InMemoryCredentialStore;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
+import de.evoila.cf.broker.service.custom.ElasticsearchTracing;
+import de.evoila.cf.cpi.bosh.deployment.manifest.Manifest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manifest rendering for provisioning and updates, for a plan with a single instance group and
+ * for a plan using all seven instance groups. Rendering only overwrites manifest properties, so
+ * the same manifest is rendered again in every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplaceParametersBenchmark {
+
+    private static final String MANIFEST = "bosh/manifest.yml";
+
+    @Param({"1", "7"})
+    private int instanceGroups;
+
+    private ElasticsearchDeploymentManager deploymentManager;
+
+    private Manifest manifest;
+
+    private Plan plan;
+
+    private ServiceInstance serviceInstance;
+
+    private Map<String, Object> updateParameters;
+
+    @Setup
+    public void setup() throws IOException {
+        deploymentManager = new ElasticsearchDeploymentManager(new BoshProperties(), new StandardEnvironment(),
+                InMemoryCredentialStore.create(), new ElasticsearchMetrics(Optional.empty(), new ElasticsearchTracing()));
+
+        plan = BenchmarkFixtures.plan("benchmark", instanceGroups);
+        serviceInstance = BenchmarkFixtures.serviceInstance("benchmark-instance", plan);
+        manifest = manifest(instanceGroups);
+
+        final Map<String, Object> backup = new HashMap<>();
+        backup.put("access_key", "access");
+        backup.put("secret_key", "secret");
+        backup.put("bucket_name", "bucket");
+        backup.put("repository_name", "repository");
+        final Map<String, Object> elasticsearch = new HashMap<>();
+        elasticsearch.put("backup", backup);
+        updateParameters = new HashMap<>();
+        updateParameters.put("elasticsearch", elasticsearch);
+
+        // Creates the built-in users, so the update benchmark finds them in the credential store
+        deploymentManager.replaceParameters(serviceInstance, manifest, plan, new HashMap<>(), false);
+    }
+
+    @Benchmark
+    public Manifest create() {
+        deploymentManager.replaceParameters(serviceInstance, manifest, plan, new HashMap<>(), false);
+        return manifest;
+    }
+
+    @Benchmark
+    public Manifest update() {
+        deploymentManager.replaceParameters(serviceInstance, manifest, plan, updateParameters, true);
+        return manifest;
+    }
+
+    /**
+     * Reads the manifest template and duplicates its instance group for each configured instance group of the plan.
+     */
+    @SuppressWarnings("unchecked")
+    private static Manifest manifest(int instanceGroups) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper(new YAMLFactory())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        final Map<String, Object> template;
+        try (InputStream in = ReplaceParametersBenchmark.class.getClassLoader().getResourceAsStream(MANIFEST)) {
+            template = mapper.readValue(in, LinkedHashMap.class);
+        }
+
+        final List<Map<String, Object>> groups = (List<Map<String, Object>>) template.get("instance_groups");
+        final List<Map<String, Object>> expanded = new ArrayList<>();
+        for (int i = 0; i < instanceGroups; i++) {
+            final Map<String, Object> group = mapper.convertValue(groups.get(0), LinkedHashMap.class);
+            group.put("name", BenchmarkFixtures.INSTANCE_GROUPS[i]);
+            expanded.add(group);
+        }
+        template.put("instance_groups", expanded);
+
+        return mapper.convertValue(template, Manifest.class);
+    }
+}
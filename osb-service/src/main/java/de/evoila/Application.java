@@ -3,6 +3,7 @@
  */
 package de.evoila;
 
+import de.evoila.cf.broker.service.custom.ElasticsearchTracing;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -41,8 +42,10 @@ public class Application {
     }
 
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(ElasticsearchTracing tracing) {
+        RestTemplate restTemplate = new RestTemplate();
+        restTemplate.getInterceptors().add(tracing.clientHttpRequestInterceptor());
+        return restTemplate;
     }
 
 }
\ No newline at end of file
@@ -4,15 +4,10 @@ import de.evoila.cf.broker.bean.BackupConfiguration;
 import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
 import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
 import de.evoila.cf.broker.model.ServiceInstance;
-import de.evoila.cf.broker.repository.ServiceInstanceRepository;
 import de.evoila.cf.broker.service.BackupCustomService;
 import de.evoila.cf.broker.service.CatalogService;
-import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
-import de.evoila.cf.security.credentials.CredentialStore;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.impl.client.BasicCredentialsProvider;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
+import de.evoila.cf.broker.service.custom.ServiceInstanceCache;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.GetIndexRequest;
@@ -34,36 +29,34 @@ import java.util.Map;
 public class BackupCustomServiceImpl implements BackupCustomService {
     private static final Logger log = LoggerFactory.getLogger(BackupCustomServiceImpl.class);
 
-    private ServiceInstanceRepository serviceInstanceRepository;
+    private ServiceInstanceCache serviceInstanceCache;
 
     private CatalogService catalogService;
 
-    private CredentialStore credentialStore;
-
     private ElasticsearchConnector elasticsearchConnector;
 
-    public BackupCustomServiceImpl(ServiceInstanceRepository serviceInstanceRepository, CatalogService catalogService,
-                                   CredentialStore credentialStore, ElasticsearchConnector elasticsearchConnector) {
-        this.serviceInstanceRepository = serviceInstanceRepository;
+    private ElasticsearchMetrics metrics;
+
+    public BackupCustomServiceImpl(ServiceInstanceCache serviceInstanceCache, CatalogService catalogService,
+                                   ElasticsearchConnector elasticsearchConnector, ElasticsearchMetrics metrics) {
+        this.serviceInstanceCache = serviceInstanceCache;
         this.catalogService = catalogService;
-        this.credentialStore = credentialStore;
         this.elasticsearchConnector = elasticsearchConnector;
+        this.metrics = metrics;
     }
 
     @Override
     public Map<String, String> getItems(String serviceInstanceId) throws ServiceInstanceDoesNotExistException {
-        validateServiceInstanceId(serviceInstanceId);
-        final HashMap<String, String> map = new HashMap<>();
+        ServiceInstance serviceInstance = validateServiceInstanceId(serviceInstanceId);
 
-        ServiceInstance serviceInstance = serviceInstanceRepository.getServiceInstance(serviceInstanceId);
-
-        String username = CredentialConstants.SUPER_ADMIN;
-        String password = credentialStore.getUser(serviceInstanceId, CredentialConstants.SUPER_ADMIN).getPassword();
+        return metrics.record(ElasticsearchMetrics.BACKUP_ITEMS, ElasticsearchMetrics.TOTAL, serviceInstance.getPlanId(),
+                ElasticsearchMetrics.NONE, () -> getItems(serviceInstance));
+    }
 
-        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+    private Map<String, String> getItems(ServiceInstance serviceInstance) {
+        final HashMap<String, String> map = new HashMap<>();
 
-        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance.getHosts(), serviceInstanceId, credentialsProvider);
+        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
 
         if (client != null) {
             String[] indices;
@@ -71,7 +64,8 @@ public class BackupCustomServiceImpl implements BackupCustomService {
             try {
                 GetIndexRequest request = new GetIndexRequest("*");
 
-                indices = client.indices().get(request, RequestOptions.DEFAULT).getIndices();
+                indices = metrics.record(ElasticsearchMetrics.BACKUP_ITEMS, ElasticsearchMetrics.NODE_REQUEST, serviceInstance.getPlanId(),
+                        ElasticsearchMetrics.NONE, () -> client.indices().get(request, RequestOptions.DEFAULT).getIndices());
 
                 for(String index : indices)
                     map.put(index, index);
@@ -88,7 +82,7 @@ public class BackupCustomServiceImpl implements BackupCustomService {
     }
 
     private ServiceInstance validateServiceInstanceId(String serviceInstanceId) throws ServiceInstanceDoesNotExistException {
-        ServiceInstance instance = serviceInstanceRepository.getServiceInstance(serviceInstanceId);
+        ServiceInstance instance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
 
         if(instance == null || instance.getHosts().size() <= 0) {
             log.error("Service instance " + serviceInstanceId + " does not exist!");
@@ -0,0 +1,421 @@
+package de.evoila.cf.broker.bean;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Broker side tuning of the Elasticsearch service broker.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch")
+public class ElasticsearchProperties {
+
+    private Deployment deployment = new Deployment();
+
+    private Cache cache = new Cache();
+
+    private Health health = new Health();
+
+    private Clone clone = new Clone();
+
+    private Migration migration = new Migration();
+
+    private Maintenance maintenance = new Maintenance();
+
+    private Pki pki = new Pki();
+
+    /**
+     * Pooled clusters, keyed by the name shared cluster plans refer to in their <code>shared_cluster</code> custom parameter.
+     */
+    private Map<String, SharedCluster> sharedClusters = new HashMap<>();
+
+    public Deployment getDeployment() {
+        return deployment;
+    }
+
+    public void setDeployment(Deployment deployment) {
+        this.deployment = deployment;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Health getHealth() {
+        return health;
+    }
+
+    public void setHealth(Health health) {
+        this.health = health;
+    }
+
+    public Clone getClone() {
+        return clone;
+    }
+
+    public void setClone(Clone clone) {
+        this.clone = clone;
+    }
+
+    public Migration getMigration() {
+        return migration;
+    }
+
+    public void setMigration(Migration migration) {
+        this.migration = migration;
+    }
+
+    public Maintenance getMaintenance() {
+        return maintenance;
+    }
+
+    public void setMaintenance(Maintenance maintenance) {
+        this.maintenance = maintenance;
+    }
+
+    public Pki getPki() {
+        return pki;
+    }
+
+    public void setPki(Pki pki) {
+        this.pki = pki;
+    }
+
+    public Map<String, SharedCluster> getSharedClusters() {
+        return sharedClusters;
+    }
+
+    public void setSharedClusters(Map<String, SharedCluster> sharedClusters) {
+        this.sharedClusters = sharedClusters;
+    }
+
+    public static class Deployment {
+
+        /**
+         * Maximum number of BOSH deployments (create, update, delete) running in parallel against the director.
+         */
+        private int maxParallel = 5;
+
+        public int getMaxParallel() {
+            return maxParallel;
+        }
+
+        public void setMaxParallel(int maxParallel) {
+            this.maxParallel = maxParallel;
+        }
+    }
+
+    public static class Cache {
+
+        /**
+         * Maximum number of service instances kept in the read-through cache.
+         */
+        private int maxSize = 1000;
+
+        /**
+         * Time after which a cached service instance is read again, bounds staleness for writes outside the broker.
+         */
+        private Duration timeToLive = Duration.ofSeconds(30);
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    public static class Health {
+
+        /**
+         * Whether the broker polls the health of all known service instances in the background.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Delay between the end of one health poll over all service instances and the start of the next.
+         */
+        private Duration interval = Duration.ofSeconds(60);
+
+        /**
+         * Maximum number of service instances polled in parallel.
+         */
+        private int parallelism = 8;
+
+        /**
+         * Time after which a service instance which did not answer is reported as unreachable.
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Clone {
+
+        /**
+         * Concurrent shard recoveries per node while a clone restores its snapshot, raised from the Elasticsearch default of 2.
+         */
+        private int concurrentRecoveries = 6;
+
+        /**
+         * Recovery bandwidth per node while a clone restores its snapshot.
+         */
+        private String maxBytesPerSec = "500mb";
+
+        /**
+         * Time after which a restore which has not brought up all primary shards fails the provisioning.
+         */
+        private Duration timeout = Duration.ofHours(12);
+
+        /**
+         * Delay between two checks of the restore progress.
+         */
+        private Duration pollInterval = Duration.ofSeconds(30);
+
+        public int getConcurrentRecoveries() {
+            return concurrentRecoveries;
+        }
+
+        public void setConcurrentRecoveries(int concurrentRecoveries) {
+            this.concurrentRecoveries = concurrentRecoveries;
+        }
+
+        public String getMaxBytesPerSec() {
+            return maxBytesPerSec;
+        }
+
+        public void setMaxBytesPerSec(String maxBytesPerSec) {
+            this.maxBytesPerSec = maxBytesPerSec;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public Duration getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(Duration pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+    }
+
+    public static class Migration {
+
+        /**
+         * Maximum number of slices copied in parallel over all running migrations.
+         */
+        private int parallelism = 4;
+
+        /**
+         * Default number of documents per scroll page and bulk request.
+         */
+        private int batchSize = 1000;
+
+        /**
+         * Target number of documents per slice. Indices are split into more slices than primary shards to keep checkpoints this close.
+         */
+        private long sliceDocs = 1000000;
+
+        /**
+         * Time a scroll context is kept open between two pages.
+         */
+        private Duration scrollKeepAlive = Duration.ofMinutes(5);
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getSliceDocs() {
+            return sliceDocs;
+        }
+
+        public void setSliceDocs(long sliceDocs) {
+            this.sliceDocs = sliceDocs;
+        }
+
+        public Duration getScrollKeepAlive() {
+            return scrollKeepAlive;
+        }
+
+        public void setScrollKeepAlive(Duration scrollKeepAlive) {
+            this.scrollKeepAlive = scrollKeepAlive;
+        }
+    }
+
+    public static class Maintenance {
+
+        /**
+         * Whether the broker runs the maintenance policies of service instances. Instances without a policy are never touched.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Delay between two maintenance runs over all known service instances. Bounds the precision of the idle time.
+         */
+        private Duration interval = Duration.ofMinutes(10);
+
+        /**
+         * Maximum number of service instances checked in parallel.
+         */
+        private int parallelism = 4;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    public static class Pki {
+
+        /**
+         * Validity of client certificates issued for bindings without a <code>validity</code> parameter.
+         */
+        private Duration validity = Duration.ofDays(30);
+
+        /**
+         * Longest validity a binding may request for its client certificate.
+         */
+        private Duration maxValidity = Duration.ofDays(365);
+
+        public Duration getValidity() {
+            return validity;
+        }
+
+        public void setValidity(Duration validity) {
+            this.validity = validity;
+        }
+
+        public Duration getMaxValidity() {
+            return maxValidity;
+        }
+
+        public void setMaxValidity(Duration maxValidity) {
+            this.maxValidity = maxValidity;
+        }
+    }
+
+    public static class SharedCluster {
+
+        /**
+         * Endpoints of the cluster as <code>ip:port</code>.
+         */
+        private List<String> hosts = new ArrayList<>();
+
+        /**
+         * User with the superuser role, used to create and remove tenants.
+         */
+        private String username;
+
+        private String password;
+
+        public List<String> getHosts() {
+            return hosts;
+        }
+
+        public void setHosts(List<String> hosts) {
+            this.hosts = hosts;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+}
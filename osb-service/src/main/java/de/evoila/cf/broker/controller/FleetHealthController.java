@@ -0,0 +1,63 @@
+package de.evoila.cf.broker.controller;
+
+import de.evoila.cf.broker.service.custom.FleetHealthService;
+import de.evoila.cf.broker.service.custom.model.FleetHealthPage;
+import de.evoila.cf.broker.service.custom.model.InstanceHealth;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.function.Predicate;
+
+/**
+ * Serves the health of all service instances from the snapshot of the {@link FleetHealthService}.
+ */
+@RestController
+@RequestMapping(value = "/custom/v2/manage/fleet")
+public class FleetHealthController {
+
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private final FleetHealthService fleetHealthService;
+
+    public FleetHealthController(FleetHealthService fleetHealthService) {
+        this.fleetHealthService = fleetHealthService;
+    }
+
+    @GetMapping(value = "/health")
+    public ResponseEntity<FleetHealthPage> health(@RequestParam(value = "page", defaultValue = "0") int page,
+                                                  @RequestParam(value = "size", defaultValue = "50") int size,
+                                                  @RequestParam(value = "status", required = false) String status,
+                                                  @RequestParam(value = "plan_id", required = false) String planId,
+                                                  @RequestParam(value = "rejecting_writes", required = false) Boolean rejectingWrites,
+                                                  @RequestParam(value = "min_disk_used_percent", required = false) Double minDiskUsedPercent) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        Predicate<InstanceHealth> filter = h -> true;
+        if (status != null) {
+            final InstanceHealth.Status expected;
+            try {
+                expected = InstanceHealth.Status.of(status);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            filter = filter.and(h -> h.getStatus() == expected);
+        }
+        if (planId != null) {
+            filter = filter.and(h -> planId.equals(h.getPlanId()));
+        }
+        if (rejectingWrites != null) {
+            filter = filter.and(h -> h.isRejectingWrites() == rejectingWrites);
+        }
+        if (minDiskUsedPercent != null) {
+            filter = filter.and(h -> h.getMaxDiskUsedPercent() >= minDiskUsedPercent);
+        }
+
+        return new ResponseEntity<>(fleetHealthService.getHealth(filter, page, size), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,126 @@
+package de.evoila.cf.broker.controller;
+
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.service.custom.MigrationService;
+import de.evoila.cf.broker.service.custom.ServiceInstanceCache;
+import de.evoila.cf.broker.service.custom.model.Migration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts, resumes and reports migrations of indices into a service instance, see {@link MigrationService}.
+ */
+@RestController
+@RequestMapping(value = "/custom/v2/manage/service_instances")
+public class MigrationController {
+
+    private static final Logger log = LoggerFactory.getLogger(MigrationController.class);
+
+    private static final int MAX_BATCH_SIZE = 10000;
+
+    private final MigrationService migrationService;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    public MigrationController(MigrationService migrationService, ServiceInstanceCache serviceInstanceCache) {
+        this.migrationService = migrationService;
+        this.serviceInstanceCache = serviceInstanceCache;
+    }
+
+    @PostMapping(value = "/{serviceInstanceId}/migrations")
+    public ResponseEntity<Migration> start(@PathVariable("serviceInstanceId") String serviceInstanceId,
+                                           @RequestBody Map<String, Object> request) {
+        final Object sourceInstanceId = request.get("source_instance_id");
+        final Object indices = request.getOrDefault("indices", Collections.singletonList("*"));
+        final Object requestsPerSecond = request.getOrDefault("requests_per_second", 0);
+        final Object batchSize = request.getOrDefault("batch_size", 0);
+
+        if (!(sourceInstanceId instanceof String) || sourceInstanceId.equals(serviceInstanceId)
+                || !(indices instanceof List) || ((List<?>) indices).isEmpty()
+                || !((List<?>) indices).stream().allMatch(i -> i instanceof String && !((String) i).isEmpty())
+                || !(requestsPerSecond instanceof Number) || ((Number) requestsPerSecond).doubleValue() < 0
+                || !(batchSize instanceof Number) || ((Number) batchSize).intValue() < 0 || ((Number) batchSize).intValue() > MAX_BATCH_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        final ServiceInstance target = serviceInstance(serviceInstanceId);
+        final ServiceInstance source = serviceInstance(sourceInstanceId.toString());
+        if (target == null || source == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        // The GUID of the source is no secret, a migration must not give access to data of another organization or space
+        if (!MigrationService.isSameSpace(source, target)) {
+            return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+        }
+
+        try {
+            return new ResponseEntity<>(migrationService.start(source, target, (List<String>) indices,
+                    ((Number) requestsPerSecond).doubleValue(), ((Number) batchSize).intValue()), HttpStatus.ACCEPTED);
+        } catch (ServiceBrokerException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_GATEWAY);
+        }
+    }
+
+    @GetMapping(value = "/{serviceInstanceId}/migrations/{migrationId}")
+    public ResponseEntity<Migration> get(@PathVariable("serviceInstanceId") String serviceInstanceId,
+                                         @PathVariable("migrationId") String migrationId) {
+        final ServiceInstance target = serviceInstance(serviceInstanceId);
+        if (target == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        try {
+            final Migration migration = migrationService.get(target, migrationId);
+            return migration != null ? new ResponseEntity<>(migration, HttpStatus.OK) : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (ServiceBrokerException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_GATEWAY);
+        }
+    }
+
+    @PostMapping(value = "/{serviceInstanceId}/migrations/{migrationId}/resume")
+    public ResponseEntity<Migration> resume(@PathVariable("serviceInstanceId") String serviceInstanceId,
+                                            @PathVariable("migrationId") String migrationId) {
+        final ServiceInstance target = serviceInstance(serviceInstanceId);
+        if (target == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        try {
+            final Migration migration = migrationService.resume(target, migrationId);
+            return migration != null ? new ResponseEntity<>(migration, HttpStatus.ACCEPTED) : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+        } catch (ServiceBrokerException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_GATEWAY);
+        }
+    }
+
+    private ServiceInstance serviceInstance(String serviceInstanceId) {
+        try {
+            return serviceInstanceCache.getServiceInstance(serviceInstanceId);
+        } catch (ServiceInstanceDoesNotExistException e) {
+            return null;
+        }
+    }
+}
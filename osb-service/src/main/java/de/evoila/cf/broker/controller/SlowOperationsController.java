@@ -0,0 +1,69 @@
+package de.evoila.cf.broker.controller;
+
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.service.custom.ServiceInstanceCache;
+import de.evoila.cf.broker.service.custom.SlowOperationsService;
+import de.evoila.cf.broker.service.custom.model.SlowOperationsReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+
+/**
+ * Serves the slowest search and indexing operations of a service instance, see {@link SlowOperationsService}.
+ */
+@RestController
+@RequestMapping(value = "/custom/v2/manage/service_instances")
+public class SlowOperationsController {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowOperationsController.class);
+
+    private static final int MAX_TOP = 100;
+    private static final int MAX_SAMPLES = 10;
+
+    private final SlowOperationsService slowOperationsService;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    public SlowOperationsController(SlowOperationsService slowOperationsService, ServiceInstanceCache serviceInstanceCache) {
+        this.slowOperationsService = slowOperationsService;
+        this.serviceInstanceCache = serviceInstanceCache;
+    }
+
+    @GetMapping(value = "/{serviceInstanceId}/slow_operations")
+    public ResponseEntity<SlowOperationsReport> slowOperations(@PathVariable("serviceInstanceId") String serviceInstanceId,
+                                                               @RequestParam(value = "top", defaultValue = "10") int top,
+                                                               @RequestParam(value = "samples", defaultValue = "3") int samples,
+                                                               @RequestParam(value = "min_running_time_ms", defaultValue = "100") long minRunningTimeMs) {
+        if (top < 1 || top > MAX_TOP || samples < 1 || samples > MAX_SAMPLES || minRunningTimeMs < 0) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        final ServiceInstance serviceInstance;
+        try {
+            serviceInstance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
+        } catch (ServiceInstanceDoesNotExistException e) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (serviceInstance == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        try {
+            return new ResponseEntity<>(slowOperationsService.report(serviceInstance, top, samples,
+                    Duration.ofMillis(minRunningTimeMs)), HttpStatus.OK);
+        } catch (ServiceBrokerException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_GATEWAY);
+        }
+    }
+}
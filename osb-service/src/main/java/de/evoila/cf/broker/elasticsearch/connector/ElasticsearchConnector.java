@@ -5,11 +5,19 @@ import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
 import de.evoila.cf.broker.model.ServiceInstance;
 import de.evoila.cf.broker.model.catalog.ServerAddress;
 import de.evoila.cf.broker.model.catalog.plan.Plan;
-import de.evoila.cf.broker.repository.ServiceInstanceRepository;
+import de.evoila.cf.broker.model.credential.UsernamePasswordCredential;
 import de.evoila.cf.broker.service.CatalogService;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
+import de.evoila.cf.broker.service.custom.ElasticsearchTracing;
 import de.evoila.cf.broker.service.custom.ElasticsearchUtilities;
+import de.evoila.cf.broker.service.custom.ServiceInstanceCache;
+import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.security.credentials.CredentialStore;
 import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
@@ -26,45 +34,113 @@ public class ElasticsearchConnector {
     public static final String HTTPS = "https";
     private static final Logger log = LoggerFactory.getLogger(ElasticsearchConnector.class);
 
-    private ServiceInstanceRepository serviceInstanceRepository;
+    private ServiceInstanceCache serviceInstanceCache;
 
     private CatalogService catalogService;
 
-    public ElasticsearchConnector(ServiceInstanceRepository serviceInstanceRepository, CatalogService catalogService) {
-        this.serviceInstanceRepository = serviceInstanceRepository;
+    private CredentialStore credentialStore;
+
+    private ElasticsearchMetrics metrics;
+
+    private ElasticsearchTracing tracing;
+
+    public ElasticsearchConnector(ServiceInstanceCache serviceInstanceCache, CatalogService catalogService,
+                                  CredentialStore credentialStore, ElasticsearchMetrics metrics, ElasticsearchTracing tracing) {
+        this.serviceInstanceCache = serviceInstanceCache;
         this.catalogService = catalogService;
+        this.credentialStore = credentialStore;
+        this.metrics = metrics;
+        this.tracing = tracing;
+    }
+
+    /**
+     * Creates a client for the given service instance, authenticated as the built-in superuser,
+     * or as the tenant admin for service instances on a shared cluster.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @return a client connected to the first reachable host, or null if no host is reachable
+     */
+    public RestHighLevelClient createElasticClient(ServiceInstance serviceInstance) {
+        final UsernamePasswordCredential admin = metrics.record(ElasticsearchMetrics.CLIENT, ElasticsearchMetrics.CREDENTIAL_STORE, serviceInstance.getPlanId(),
+                ElasticsearchMetrics.NONE, () -> credentialStore.getUser(serviceInstance, CredentialConstants.SUPER_ADMIN));
+
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(admin.getUsername(), admin.getPassword()));
+
+        return createElasticClient(serviceInstance.getHosts(), serviceInstance.getId(), credentialsProvider);
     }
 
     public RestHighLevelClient createElasticClient(List<ServerAddress> hosts, String serviceInstanceId, CredentialsProvider credentialsProvider) {
-        boolean success = false;
+        final ServiceInstance serviceInstance;
+        final String scheme;
+        try {
+            serviceInstance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
+            if (serviceInstance == null) {
+                throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
+            }
+            scheme = isXpackEnabled(serviceInstance) ? HTTPS : HTTP;
+        } catch (ServiceInstanceDoesNotExistException | ServiceDefinitionDoesNotExistException e) {
+            log.error(String.format("Failed to create client for service instance %s: %s", serviceInstanceId, e.getMessage()));
+            return null;
+        }
 
+        final String planId = serviceInstance.getPlanId();
+        return metrics.record(ElasticsearchMetrics.CLIENT, ElasticsearchMetrics.TOTAL, planId, ElasticsearchMetrics.NONE,
+                () -> connect(hosts, planId, scheme, credentialsProvider));
+    }
+
+    /**
+     * Creates a client for hosts which do not belong to a single service instance, e.g. those of a
+     * shared cluster. The scheme is derived from the plan.
+     *
+     * @param hosts the hosts to try in order
+     * @param plan the plan the hosts are used for
+     * @param credentialsProvider the credentials to authenticate with
+     * @return a client connected to the first reachable host, or null if no host is reachable
+     */
+    public RestHighLevelClient createElasticClient(List<ServerAddress> hosts, Plan plan, CredentialsProvider credentialsProvider) {
+        final String scheme = ElasticsearchUtilities.planContainsXPack(plan) ? HTTPS : HTTP;
+        return metrics.record(ElasticsearchMetrics.CLIENT, ElasticsearchMetrics.TOTAL, plan.getId(), ElasticsearchMetrics.NONE,
+                () -> connect(hosts, plan.getId(), scheme, credentialsProvider));
+    }
+
+    private RestHighLevelClient connect(List<ServerAddress> hosts, String planId, String scheme, CredentialsProvider credentialsProvider) {
         for(ServerAddress serverAddress : hosts) {
             String ip = serverAddress.getIp();
 
-            RestHighLevelClient client = null;
+            RestHighLevelClient client = new RestHighLevelClient(
+                    RestClient.builder(new HttpHost(ip, serverAddress.getPort(), scheme))
+                            .setHttpClientConfigCallback(httpAsyncClientBuilder -> httpAsyncClientBuilder
+                                    .setDefaultCredentialsProvider(credentialsProvider)
+                                    .addInterceptorLast(tracing.httpRequestInterceptor()))
+            );
 
             try {
-                client = new RestHighLevelClient(
-                        RestClient.builder(new HttpHost(ip, 9200, ((isXpackEnabled(serviceInstanceId)) ? HTTPS : HTTP)))
-                                .setHttpClientConfigCallback(httpAsyncClientBuilder -> httpAsyncClientBuilder.setDefaultCredentialsProvider(credentialsProvider))
-                );
-
-                client.ping(RequestOptions.DEFAULT);
-                success = true;
-            } catch (IOException | ServiceInstanceDoesNotExistException | ServiceDefinitionDoesNotExistException e) {
+                if (metrics.record(ElasticsearchMetrics.CLIENT, ElasticsearchMetrics.NODE_REQUEST, planId, ElasticsearchMetrics.NONE,
+                        () -> client.ping(RequestOptions.DEFAULT))) {
+                    return client;
+                }
+                log.error(String.format("Failed to create client on host %s: ping failed", ip));
+            } catch (IOException e) {
                 log.error(String.format("Failed to create client on host %s: %s", ip, e.getMessage()));
             }
 
-            if(success) {
-                return client;
-            }
+            metrics.hostFailover(ElasticsearchMetrics.CLIENT, planId, ElasticsearchMetrics.NONE);
+            close(client);
         }
 
         return null;
     }
 
-    private boolean isXpackEnabled(String serviceInstanceId) throws ServiceInstanceDoesNotExistException, ServiceDefinitionDoesNotExistException {
-        ServiceInstance serviceInstance = serviceInstanceRepository.getServiceInstance(serviceInstanceId);
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    private boolean isXpackEnabled(ServiceInstance serviceInstance) throws ServiceDefinitionDoesNotExistException {
         String serviceDefinitionId = serviceInstance.getServiceDefinitionId();
         String planId = serviceInstance.getPlanId();
 
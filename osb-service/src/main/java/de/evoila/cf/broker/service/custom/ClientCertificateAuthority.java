@@ -0,0 +1,285 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.credential.UsernamePasswordCredential;
+import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.security.credentials.CredentialStore;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Issues the client certificates of PKI bindings. Each service instance gets its own certificate
+ * authority, kept in the credential store as {@link CredentialConstants#CLIENT_CA} and trusted by
+ * the PKI realm of its nodes. A binding gets a certificate with the binding id as common name,
+ * which a role mapping of the same name maps to its role, so unbinding revokes the certificate by
+ * deleting the mapping.
+ * <p>
+ * The private key of a client certificate is only returned in the credentials of its binding.
+ * Once the role mapping of the binding exists, the binding service keeps the subject and serial
+ * number of the certificate in the credential store.
+ */
+@Component
+public class ClientCertificateAuthority {
+
+    public static final String CERTIFICATE = "certificate";
+    public static final String PRIVATE_KEY = "private_key";
+    public static final String CA_CERTIFICATE = "ca_certificate";
+    public static final String EXPIRES_AT = "certificate_expires_at";
+    public static final String VALIDITY = "validity";
+
+    private static final String KEY_ALGORITHM = "EC";
+    private static final String CURVE = "secp256r1";
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    private static final Duration CA_VALIDITY = Duration.ofDays(3650);
+
+    /**
+     * Clocks of clients and nodes may be slightly behind the broker.
+     */
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(5);
+
+    private final CredentialStore credentialStore;
+
+    private final ElasticsearchProperties.Pki properties;
+
+    private final SecureRandom random = new SecureRandom();
+
+    public ClientCertificateAuthority(CredentialStore credentialStore, ElasticsearchProperties elasticsearchProperties) {
+        this.credentialStore = credentialStore;
+        this.properties = elasticsearchProperties.getPki();
+    }
+
+    /**
+     * Checks whether the parameters of a bind request ask for a client certificate.
+     *
+     * @param parameters the bind parameters, may be null
+     * @return true for <code>credential_type: certificate</code>
+     */
+    public static boolean isCertificateBinding(Map<String, Object> parameters) {
+        return parameters != null && CERTIFICATE.equals(parameters.get(ElasticsearchApiKey.CREDENTIAL_TYPE));
+    }
+
+    /**
+     * Creates the certificate authority of a service instance, unless it already has one.
+     * Called before each deployment, so service instances created before PKI bindings existed
+     * get their authority with the next update.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @throws ServiceBrokerException if the authority can not be created
+     */
+    public void ensureAuthority(ServiceInstance serviceInstance) throws ServiceBrokerException {
+        final UsernamePasswordCredential existing = credentialStore.getUser(serviceInstance, CredentialConstants.CLIENT_CA);
+        if (existing != null && existing.getUsername() != null) {
+            return;
+        }
+
+        try {
+            final KeyPair keyPair = generateKeyPair();
+            final X500Name name = new X500Name("CN=elasticsearch-client-ca-" + serviceInstance.getId());
+            final Instant now = Instant.now();
+
+            final X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, serial(),
+                    Date.from(now.minus(CLOCK_SKEW)), Date.from(now.plus(CA_VALIDITY)), name, keyPair.getPublic());
+            final JcaX509ExtensionUtils extensions = new JcaX509ExtensionUtils();
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(0));
+            builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+            builder.addExtension(Extension.subjectKeyIdentifier, false, extensions.createSubjectKeyIdentifier(keyPair.getPublic()));
+
+            final X509Certificate certificate = sign(builder, keyPair.getPrivate());
+            credentialStore.createUser(serviceInstance, CredentialConstants.CLIENT_CA, pem(certificate), pem(keyPair.getPrivate()));
+        } catch (GeneralSecurityException | OperatorCreationException | IOException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot create client certificate authority of service instance ''{0}''. {1}",
+                    serviceInstance.getId(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Issues the client certificate of a binding. Nothing is written to the credential store,
+     * the caller records the certificate once its role mapping exists.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param bindingId the id of the binding, used as common name
+     * @param parameters the bind parameters, may contain the <code>validity</code> as time value
+     * @return the certificate, its private key and the certificate authority
+     * @throws ServiceBrokerException if the validity is invalid or the certificate can not be issued
+     */
+    public ClientCertificate issue(ServiceInstance serviceInstance, String bindingId, Map<String, Object> parameters) throws ServiceBrokerException {
+        final Duration validity = validity(parameters);
+        final UsernamePasswordCredential authority = credentialStore.getUser(serviceInstance, CredentialConstants.CLIENT_CA);
+        if (authority == null || authority.getUsername() == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Service instance ''{0}'' has no client certificate authority yet, update it once to enable certificate bindings.",
+                    serviceInstance.getId()));
+        }
+
+        try {
+            final X509Certificate caCertificate = readCertificate(authority.getUsername());
+            final PrivateKey caKey = readPrivateKey(authority.getPassword());
+            final KeyPair keyPair = generateKeyPair();
+            final Instant now = Instant.now();
+            final Instant expiresAt = now.plus(validity);
+            final BigInteger serial = serial();
+
+            final X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(caCertificate, serial,
+                    Date.from(now.minus(CLOCK_SKEW)), Date.from(expiresAt), new X500Name("CN=" + bindingId), keyPair.getPublic());
+            final JcaX509ExtensionUtils extensions = new JcaX509ExtensionUtils();
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+            builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+            builder.addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_clientAuth));
+            builder.addExtension(Extension.authorityKeyIdentifier, false, extensions.createAuthorityKeyIdentifier(caCertificate));
+
+            final X509Certificate certificate = sign(builder, caKey);
+            return new ClientCertificate(pem(certificate), pem(keyPair.getPrivate()), authority.getUsername(),
+                    serial.toString(16), expiresAt);
+        } catch (GeneralSecurityException | OperatorCreationException | IOException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot issue client certificate for binding ''{0}''. {1}", bindingId, e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the distinguished name of the client certificate of a binding, as matched by its role mapping.
+     */
+    public static String dn(String bindingId) {
+        return "CN=" + bindingId;
+    }
+
+    private Duration validity(Map<String, Object> parameters) throws ServiceBrokerException {
+        final Object value = parameters != null ? parameters.get(VALIDITY) : null;
+        if (value == null) {
+            return properties.getValidity();
+        }
+
+        final Duration validity;
+        try {
+            validity = Duration.ofMillis(TimeValue.parseTimeValue(value.toString(), VALIDITY).millis());
+        } catch (RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be a time value like 30d.", VALIDITY));
+        }
+
+        if (validity.isNegative() || validity.isZero() || validity.compareTo(properties.getMaxValidity()) > 0) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be positive and at most {1} days.",
+                    VALIDITY, properties.getMaxValidity().toDays()));
+        }
+        return validity;
+    }
+
+    private KeyPair generateKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+        generator.initialize(new ECGenParameterSpec(CURVE), random);
+        return generator.generateKeyPair();
+    }
+
+    private BigInteger serial() {
+        return new BigInteger(127, random);
+    }
+
+    private static X509Certificate sign(X509v3CertificateBuilder builder, PrivateKey key) throws OperatorCreationException, GeneralSecurityException {
+        return new JcaX509CertificateConverter().getCertificate(builder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(key)));
+    }
+
+    private static X509Certificate readCertificate(String pem) throws IOException, GeneralSecurityException {
+        try (PEMParser parser = new PEMParser(new StringReader(pem))) {
+            return new JcaX509CertificateConverter().getCertificate((X509CertificateHolder) parser.readObject());
+        }
+    }
+
+    private static PrivateKey readPrivateKey(String pem) throws IOException {
+        try (PEMParser parser = new PEMParser(new StringReader(pem))) {
+            return new JcaPEMKeyConverter().getPrivateKey((PrivateKeyInfo) parser.readObject());
+        }
+    }
+
+    private static String pem(X509Certificate certificate) throws IOException {
+        final StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(certificate);
+        }
+        return pem.toString();
+    }
+
+    /**
+     * Writes the key as unencrypted PKCS#8, which Elasticsearch clients and the JDK read without
+     * BouncyCastle.
+     */
+    private static String pem(PrivateKey key) throws IOException {
+        final StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(new JcaPKCS8Generator(key, null));
+        }
+        return pem.toString();
+    }
+
+    public static class ClientCertificate {
+        private final String certificate;
+        private final String privateKey;
+        private final String caCertificate;
+        private final String serialNumber;
+        private final Instant expiresAt;
+
+        ClientCertificate(String certificate, String privateKey, String caCertificate, String serialNumber, Instant expiresAt) {
+            this.certificate = certificate;
+            this.privateKey = privateKey;
+            this.caCertificate = caCertificate;
+            this.serialNumber = serialNumber;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getCertificate() {
+            return certificate;
+        }
+
+        public String getPrivateKey() {
+            return privateKey;
+        }
+
+        public String getCaCertificate() {
+            return caCertificate;
+        }
+
+        /**
+         * Returns the serial number as hexadecimal string.
+         */
+        public String getSerialNumber() {
+            return serialNumber;
+        }
+
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
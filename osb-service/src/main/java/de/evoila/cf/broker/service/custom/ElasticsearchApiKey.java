@@ -0,0 +1,183 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request body of <code>_security/api_key</code> for a binding. The key is limited to a single
+ * role descriptor with the index patterns and privileges requested on bind.
+ */
+public class ElasticsearchApiKey implements Serializable {
+
+    public static final String CREDENTIAL_TYPE = "credential_type";
+    public static final String API_KEY = "api_key";
+    public static final String INDEX_PATTERNS = "index_patterns";
+    public static final String INDEX_PRIVILEGES = "index_privileges";
+
+    static final List<String> DEFAULT_INDEX_PATTERNS = Collections.singletonList("*");
+    static final List<String> DEFAULT_INDEX_PRIVILEGES = Arrays.asList("read", "write", "create_index", "view_index_metadata");
+    static final List<String> CLUSTER_PRIVILEGES = Collections.singletonList("monitor");
+
+    private static final String ROLE_NAME = "binding";
+
+    private String name;
+
+    @JsonProperty("role_descriptors")
+    private Map<String, RoleDescriptor> roleDescriptors;
+
+    public ElasticsearchApiKey() {
+    }
+
+    public ElasticsearchApiKey(String name, List<String> indexPatterns, List<String> indexPrivileges) {
+        this(name, CLUSTER_PRIVILEGES, indexPatterns, indexPrivileges);
+    }
+
+    public ElasticsearchApiKey(String name, List<String> clusterPrivileges, List<String> indexPatterns, List<String> indexPrivileges) {
+        this.name = name;
+        this.roleDescriptors = Collections.singletonMap(ROLE_NAME,
+                new RoleDescriptor(clusterPrivileges, Collections.singletonList(new IndexPrivileges(indexPatterns, indexPrivileges))));
+    }
+
+    /**
+     * Reads an API key request from the parameters of a bind request.
+     *
+     * @param parameters the bind parameters, may be null
+     * @param bindingId the id of the binding, used as name of the key
+     * @return the API key request, or null if the binding does not ask for an API key
+     * @throws ServiceBrokerException if a parameter has an invalid value
+     */
+    public static ElasticsearchApiKey of(Map<String, Object> parameters, String bindingId) throws ServiceBrokerException {
+        if (parameters == null || !API_KEY.equals(parameters.get(CREDENTIAL_TYPE))) {
+            return null;
+        }
+
+        return new ElasticsearchApiKey(bindingId,
+                stringList(parameters, INDEX_PATTERNS, DEFAULT_INDEX_PATTERNS),
+                stringList(parameters, INDEX_PRIVILEGES, DEFAULT_INDEX_PRIVILEGES));
+    }
+
+    /**
+     * Reads the API key request of a binding on a shared cluster. These bindings are always API
+     * keys without cluster privileges, and all index patterns must start with the index prefix of
+     * the service instance.
+     *
+     * @param parameters the bind parameters, may be null
+     * @param bindingId the id of the binding, used as name of the key
+     * @param indexPrefix the index prefix of the service instance
+     * @return the API key request
+     * @throws ServiceBrokerException if a parameter has an invalid value or a pattern leaves the prefix
+     */
+    public static ElasticsearchApiKey forSharedCluster(Map<String, Object> parameters, String bindingId, String indexPrefix) throws ServiceBrokerException {
+        if (parameters != null && parameters.get(CREDENTIAL_TYPE) != null && !API_KEY.equals(parameters.get(CREDENTIAL_TYPE))) {
+            throw new ServiceBrokerException(MessageFormat.format("Bindings on a shared cluster only support credential type ''{0}''.", API_KEY));
+        }
+
+        final Map<String, Object> values = parameters != null ? parameters : Collections.emptyMap();
+        final List<String> indexPatterns = stringList(values, INDEX_PATTERNS, Collections.singletonList(indexPrefix + "*"));
+        for (String pattern : indexPatterns) {
+            if (!pattern.startsWith(indexPrefix)) {
+                throw new ServiceBrokerException(MessageFormat.format("Index pattern ''{0}'' must start with ''{1}''.", pattern, indexPrefix));
+            }
+        }
+
+        return new ElasticsearchApiKey(bindingId, Collections.emptyList(), indexPatterns,
+                stringList(values, INDEX_PRIVILEGES, DEFAULT_INDEX_PRIVILEGES));
+    }
+
+    private static List<String> stringList(Map<String, Object> parameters, String key, List<String> defaultValue) throws ServiceBrokerException {
+        final Object value = parameters.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        if (!(value instanceof List) || ((List<?>) value).isEmpty()
+                || !((List<?>) value).stream().allMatch(v -> v instanceof String && !((String) v).isEmpty())) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be a non-empty list of strings.", key));
+        }
+
+        @SuppressWarnings("unchecked")
+        final List<String> list = (List<String>) value;
+        return list;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Map<String, RoleDescriptor> getRoleDescriptors() {
+        return roleDescriptors;
+    }
+
+    public void setRoleDescriptors(Map<String, RoleDescriptor> roleDescriptors) {
+        this.roleDescriptors = roleDescriptors;
+    }
+
+    public static class RoleDescriptor implements Serializable {
+        private List<String> cluster;
+        private List<IndexPrivileges> index;
+
+        public RoleDescriptor() {
+        }
+
+        public RoleDescriptor(List<String> cluster, List<IndexPrivileges> index) {
+            this.cluster = cluster;
+            this.index = index;
+        }
+
+        public List<String> getCluster() {
+            return cluster;
+        }
+
+        public void setCluster(List<String> cluster) {
+            this.cluster = cluster;
+        }
+
+        public List<IndexPrivileges> getIndex() {
+            return index;
+        }
+
+        public void setIndex(List<IndexPrivileges> index) {
+            this.index = index;
+        }
+    }
+
+    public static class IndexPrivileges implements Serializable {
+        private List<String> names;
+        private List<String> privileges;
+
+        public IndexPrivileges() {
+        }
+
+        public IndexPrivileges(List<String> names, List<String> privileges) {
+            this.names = names;
+            this.privileges = privileges;
+        }
+
+        public List<String> getNames() {
+            return names;
+        }
+
+        public void setNames(List<String> names) {
+            this.names = names;
+        }
+
+        public List<String> getPrivileges() {
+            return privileges;
+        }
+
+        public void setPrivileges(List<String> privileges) {
+            this.privileges = privileges;
+        }
+    }
+}
@@ -9,6 +9,8 @@ import de.evoila.cf.broker.model.credential.UsernamePasswordCredential;
 import de.evoila.cf.broker.repository.*;
 import de.evoila.cf.broker.service.AsyncBindingService;
 import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.broker.service.custom.model.ElasticsearchHost;
+import de.evoila.cf.broker.service.custom.model.NodeRole;
 import de.evoila.cf.broker.service.impl.BindingServiceImpl;
 import de.evoila.cf.broker.util.ServiceInstanceUtils;
 import de.evoila.cf.security.credentials.CredentialStore;
@@ -21,6 +23,8 @@ import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
@@ -31,13 +35,17 @@ import org.springframework.web.client.RestTemplate;
 
 import javax.net.ssl.SSLContext;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -54,6 +62,10 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
     private static final String HTTP = "http";
     private static final String HTTPS = "https";
     private static final String X_PACK_USERS_URI_PATTERN = "%s/_security/user";
+    private static final String X_PACK_API_KEY_URI_PATTERN = "%s/_security/api_key";
+    private static final String X_PACK_ROLE_MAPPING_URI_PATTERN = "%s/_security/role_mapping";
+    private static final String API_KEY_ID = "api_key_id";
+    private static final String ZONES = "zones";
     private static final String HEALTH_ENDPOINT_URI_PATTERN = "%s/_cluster/health";
     private static final String DEFAULT_ROLE = "superuser";
     private static final Logger log = LoggerFactory.getLogger(ElasticsearchBindingService.class);
@@ -61,16 +73,33 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
 
     private final CredentialStore credentialStore;
     private final RestTemplate restTemplate;
+    private final ElasticsearchHostRegistry hostRegistry;
+    private final ElasticsearchMetrics metrics;
+    private final ElasticsearchTracing tracing;
+    private final ElasticsearchIndexTemplateService indexTemplateService;
+    private final ElasticsearchIngestAdvisor ingestAdvisor;
+    private final SharedClusterService sharedClusterService;
+    private final ClientCertificateAuthority certificateAuthority;
 
     ElasticsearchBindingService(BindingRepository bindingRepository, ServiceDefinitionRepository serviceDefinitionRepository,
                                 ServiceInstanceRepository serviceInstanceRepository, RouteBindingRepository routeBindingRepository,
                                 JobRepository jobRepository, AsyncBindingService asyncBindingService, PlatformRepository platformRepository,
-                                CredentialStore credentialStore, RestTemplate restTemplate) {
+                                CredentialStore credentialStore, RestTemplate restTemplate, ElasticsearchHostRegistry hostRegistry,
+                                ElasticsearchMetrics metrics, ElasticsearchTracing tracing,
+                                ElasticsearchIndexTemplateService indexTemplateService, ElasticsearchIngestAdvisor ingestAdvisor,
+                                SharedClusterService sharedClusterService, ClientCertificateAuthority certificateAuthority) {
         super(bindingRepository, serviceDefinitionRepository, serviceInstanceRepository,
                 routeBindingRepository, jobRepository, asyncBindingService, platformRepository);
 
         this.credentialStore = credentialStore;
         this.restTemplate = restTemplate;
+        this.hostRegistry = hostRegistry;
+        this.metrics = metrics;
+        this.tracing = tracing;
+        this.indexTemplateService = indexTemplateService;
+        this.ingestAdvisor = ingestAdvisor;
+        this.sharedClusterService = sharedClusterService;
+        this.certificateAuthority = certificateAuthority;
     }
 
     private static ClientMode getClientModeOrDefault(final Map<String, Object> map) {
@@ -112,15 +141,86 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
     @Override
     protected Map<String, Object> createCredentials(String bindingId, ServiceInstanceBindingRequest serviceInstanceBindingRequest,
                                                     ServiceInstance serviceInstance, Plan plan, ServerAddress host) throws ServiceBrokerException {
+        final ClientMode clientMode = getClientModeOrDefault(serviceInstanceBindingRequest.getParameters());
 
-        log.info(MessageFormat.format("Creating credentials for bind request {0}.", prettifyForLog(serviceInstanceBindingRequest)));
+        return metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.TOTAL, plan.getId(), clientMode.identifier, () -> {
+            // Install the index template first, a failed bind leaves at most a template, which binding again reuses
+            final IndexSizingParameters sizing = IndexSizingParameters.of(serviceInstanceBindingRequest.getParameters(), bindingId);
+            if (SharedClusterService.isSharedCluster(plan)) {
+                checkSharedClusterBinding(serviceInstance, plan, clientMode, sizing);
+            }
+
+            final Map<String, Object> indexCredentials = sizing == null ? null : metrics.record(ElasticsearchMetrics.BIND,
+                    ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                    () -> indexTemplateService.install(serviceInstance, plan, sizing));
+
+            final Map<String, Object> credentials = createCredentials(bindingId, serviceInstanceBindingRequest, serviceInstance, plan, host, clientMode);
+            if (indexCredentials != null) {
+                credentials.putAll(indexCredentials);
+            }
+            if (ClientMode.isIngest(clientMode)) {
+                addIngestHints(credentials, serviceInstance, plan, clientMode);
+            }
+            return credentials;
+        });
+    }
+
+    /**
+     * Bindings on a shared cluster are API keys of the tenant admin, which can neither hand out
+     * built-in users nor manage lifecycle policies. New bindings are rejected once the indices of
+     * the service instance use up the shard quota of the plan.
+     */
+    private void checkSharedClusterBinding(ServiceInstance serviceInstance, Plan plan, ClientMode clientMode,
+                                           IndexSizingParameters sizing) throws ServiceBrokerException {
+        if (ClientMode.isBuiltInUser(clientMode)) {
+            throw new ServiceBrokerException(MessageFormat.format("Client mode ''{0}'' is not available on a shared cluster.", clientMode.identifier));
+        }
+        if (sizing != null) {
+            throw new ServiceBrokerException("Index sizing parameters are not available on a shared cluster.");
+        }
+
+        metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                () -> sharedClusterService.checkShardQuota(serviceInstance, plan));
+    }
+
+    /**
+     * Adds bulk indexing hints for the current nodes of the service instance. Bindings are created
+     * without them if the nodes can not be read.
+     */
+    private void addIngestHints(Map<String, Object> credentials, ServiceInstance serviceInstance, Plan plan, ClientMode clientMode) {
+        try {
+            credentials.put(ElasticsearchIngestAdvisor.INGEST, metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.NODE_REQUEST,
+                    plan.getId(), clientMode.identifier, () -> ingestAdvisor.hints(serviceInstance)));
+        } catch (ServiceBrokerException e) {
+            log.warn(MessageFormat.format("Creating binding without ingest hints. {0}", e.getMessage()));
+        }
+    }
+
+    private Map<String, Object> createCredentials(String bindingId, ServiceInstanceBindingRequest serviceInstanceBindingRequest,
+                                                  ServiceInstance serviceInstance, Plan plan, ServerAddress host,
+                                                  ClientMode clientMode) throws ServiceBrokerException {
+        if (log.isInfoEnabled()) {
+            log.info(MessageFormat.format("Creating credentials for bind request {0}.", prettifyForLog(serviceInstanceBindingRequest)));
+        }
 
-        final List<ServerAddress> hosts = serviceInstance.getHosts();
-        final ClientMode clientMode = getClientModeOrDefault(serviceInstanceBindingRequest.getParameters());
         final String serverAddressFilter = clientModeToServerAddressFilter(clientMode, plan);
+        final boolean sharedCluster = SharedClusterService.isSharedCluster(plan);
+        final String indexPrefix = SharedClusterService.indexPrefix(serviceInstance.getId());
+        final ElasticsearchApiKey apiKey = sharedCluster
+                ? ElasticsearchApiKey.forSharedCluster(serviceInstanceBindingRequest.getParameters(), bindingId, indexPrefix)
+                : ElasticsearchApiKey.of(serviceInstanceBindingRequest.getParameters(), bindingId);
+        if (apiKey != null && !ElasticsearchUtilities.planContainsXPack(plan)) {
+            throw new ServiceBrokerException("API key bindings require a plan with X-Pack security.");
+        }
+        final boolean certificateBinding = !sharedCluster && ClientCertificateAuthority.isCertificateBinding(serviceInstanceBindingRequest.getParameters());
+        if (certificateBinding && (!ElasticsearchUtilities.planContainsXPack(plan) || !ElasticsearchUtilities.isHttpsEnabled(plan))) {
+            throw new ServiceBrokerException("Certificate bindings require a plan with X-Pack security and HTTPS.");
+        }
 
         final Map<String, Object> credentials = new HashMap<>();
-
+        if (sharedCluster) {
+            credentials.put(SharedClusterService.INDEX_PREFIX, indexPrefix);
+        }
 
         List<ServerAddress> filteredHosts;
         if (host != null) {
@@ -132,7 +232,15 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
             credentials.put("host", endpoint);
             credentials.put(CLIENT_MODE_IDENTIFIER, clientMode.identifier);
         } else {
-            filteredHosts = ServiceInstanceUtils.filteredServerAddress(hosts, serverAddressFilter);
+            if (sharedCluster) {
+                // Shared clusters have no instance groups of their own, every node accepts all requests
+                filteredHosts = serviceInstance.getHosts();
+            } else {
+                filteredHosts = hostRegistry.getHosts(serviceInstance, serverAddressFilter);
+                if (ClientMode.isIngest(clientMode) && !hostRegistry.getHostsByRole(serviceInstance, NodeRole.INGEST).isEmpty()) {
+                    filteredHosts = hostRegistry.getHostsByRole(serviceInstance, NodeRole.INGEST);
+                }
+            }
 
             final List<String> hostsAsString = filteredHosts.stream()
                     .map(h -> h.getIp() + ":" + h.getPort())
@@ -141,6 +249,20 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
             credentials.put(CLIENT_MODE_IDENTIFIER, clientMode.identifier);
         }
 
+        // Availability zone per host, so clients can prefer nodes in their own zone
+        if (!sharedCluster) {
+            final Map<String, String> zones = new LinkedHashMap<>();
+            filteredHosts.forEach(h -> {
+                final ElasticsearchHost registered = hostRegistry.getHost(serviceInstance, h);
+                if (registered != null && registered.getAz() != null) {
+                    zones.put(h.getIp() + ":" + h.getPort(), registered.getAz());
+                }
+            });
+            if (!zones.isEmpty()) {
+                credentials.put(ZONES, zones);
+            }
+        }
+
         final String protocolMode;
         String userCredentials = "";
 
@@ -149,11 +271,14 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
             // Built-In User case
             if (ClientMode.isBuiltInUser(clientMode)) {
                 log.info("Built-In user binding requested.");
-                UsernamePasswordCredential builtInUserCredential = getCredentialForClientMode(clientMode, serviceInstance);
+                UsernamePasswordCredential builtInUserCredential = metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.CREDENTIAL_STORE,
+                        plan.getId(), clientMode.identifier, () -> getCredentialForClientMode(clientMode, serviceInstance));
                 credentials.put("username", builtInUserCredential.getUsername());
                 credentials.put("password", builtInUserCredential.getPassword());
 
-                log.info(MessageFormat.format("Return binding for built-in user ''{0}''.", builtInUserCredential.getUsername()));
+                if (log.isInfoEnabled()) {
+                    log.info(MessageFormat.format("Return binding for built-in user ''{0}''.", builtInUserCredential.getUsername()));
+                }
                 return credentials;
             }
 
@@ -166,30 +291,69 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
                 restTemplate = this.restTemplate;
             } else {
                 protocolMode = HTTP;
-                restTemplate = new RestTemplate();
+                restTemplate = newRestTemplate();
             }
 
             // Prepare REST Template
-            final BasicAuthorizationInterceptor basicAuthorizationInterceptor = getInterceptorWithCredentials(CredentialConstants.SUPER_ADMIN, serviceInstance);
+            final BasicAuthorizationInterceptor basicAuthorizationInterceptor = metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.CREDENTIAL_STORE,
+                    plan.getId(), clientMode.identifier, () -> getInterceptorWithCredentials(CredentialConstants.SUPER_ADMIN, serviceInstance));
             restTemplate.getInterceptors().add(basicAuthorizationInterceptor);
 
+            // Issue the certificate once, every host gets the role mapping for the same subject
+            final ClientCertificateAuthority.ClientCertificate certificate = !certificateBinding ? null
+                    : metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), clientMode.identifier,
+                            () -> certificateAuthority.issue(serviceInstance, bindingId, serviceInstanceBindingRequest.getParameters()));
+
             boolean success = false;
             for (ServerAddress nodeAddress : filteredHosts) {
-                final String userCreationUri = generateUsersUri(nodeAddress.getIp() + ":" + nodeAddress.getPort(), protocolMode);
                 final String endpoint = String.format("%s:%s", nodeAddress.getIp(), nodeAddress.getPort());
+                final String userCreationUri = apiKey != null ? generateApiKeyUri(endpoint, protocolMode)
+                        : certificate != null ? generateRoleMappingUri(endpoint, protocolMode) : generateUsersUri(endpoint, protocolMode);
 
                 try {
-                    log.info(MessageFormat.format("Try binding on host {0}:{1,number,#} with URI \"{2}\" ", nodeAddress.getIp(), nodeAddress.getPort(), userCreationUri));
-                    addUserToElasticsearch(username, userCreationUri, password, restTemplate);
-                    credentials.put("username", username);
-                    credentials.put("password", password);
-                    userCredentials = String.format("%s:%s@", username, password);
-
-                    credentialStore.createUser(serviceInstance, bindingId, username, password); // Add user to credential store
+                    if (log.isInfoEnabled()) {
+                        log.info(MessageFormat.format("Try binding on host {0}:{1,number,#} with URI \"{2}\" ", nodeAddress.getIp(), nodeAddress.getPort(), userCreationUri));
+                    }
+                    if (apiKey != null) {
+                        final Map<String, Object> key = metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                                () -> createApiKey(apiKey, userCreationUri, restTemplate));
+                        final String keyId = key.get("id").toString();
+                        final String keySecret = key.get(ElasticsearchApiKey.API_KEY).toString();
+                        credentials.put(API_KEY_ID, keyId);
+                        credentials.put(ElasticsearchApiKey.API_KEY, Base64.getEncoder().encodeToString((keyId + ":" + keySecret).getBytes(StandardCharsets.UTF_8)));
+
+                        // Add API key to credential store
+                        metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), clientMode.identifier,
+                                () -> credentialStore.createUser(serviceInstance, bindingId, keyId, keySecret));
+                    } else if (certificate != null) {
+                        metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                                () -> addRoleMapping(bindingId, userCreationUri, restTemplate));
+                        credentials.put(ClientCertificateAuthority.CERTIFICATE, certificate.getCertificate());
+                        credentials.put(ClientCertificateAuthority.PRIVATE_KEY, certificate.getPrivateKey());
+                        credentials.put(ClientCertificateAuthority.CA_CERTIFICATE, certificate.getCaCertificate());
+                        credentials.put(ClientCertificateAuthority.EXPIRES_AT, certificate.getExpiresAt().toString());
+
+                        // Add certificate subject and serial number to credential store
+                        metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), clientMode.identifier,
+                                () -> credentialStore.createUser(serviceInstance, bindingId, ClientCertificateAuthority.dn(bindingId), certificate.getSerialNumber()));
+                    } else {
+                        metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                                () -> addUserToElasticsearch(username, userCreationUri, password, restTemplate));
+                        credentials.put("username", username);
+                        credentials.put("password", password);
+                        userCredentials = String.format("%s:%s@", username, password);
+
+                        // Add user to credential store
+                        metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), clientMode.identifier,
+                                () -> credentialStore.createUser(serviceInstance, bindingId, username, password));
+                    }
 
                     success = true;
                 } catch (ServiceBrokerException e) {
-                    log.info(MessageFormat.format("Binding failed on host {0}:{1,number,#}. {2}", nodeAddress.getIp(), nodeAddress.getPort(), e.getMessage()));
+                    metrics.hostFailover(ElasticsearchMetrics.BIND, plan.getId(), clientMode.identifier);
+                    if (log.isInfoEnabled()) {
+                        log.info(MessageFormat.format("Binding failed on host {0}:{1,number,#}. {2}", nodeAddress.getIp(), nodeAddress.getPort(), e.getMessage()));
+                    }
                 }
 
                 if (success) {
@@ -209,16 +373,18 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
             protocolMode = HTTP;
 
             String endpoint = "";
-            final RestTemplate restTemplate = new RestTemplate();
+            final RestTemplate restTemplate = newRestTemplate();
 
             for(ServerAddress address : filteredHosts) {
                 String hostAsString = address.getIp() + ":" + address.getPort();
-                ResponseEntity<String> response = restTemplate.getForEntity(generateHealthEndpointUri(hostAsString, protocolMode), String.class);
+                ResponseEntity<String> response = metrics.record(ElasticsearchMetrics.BIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                        () -> restTemplate.getForEntity(generateHealthEndpointUri(hostAsString, protocolMode), String.class));
 
                 if (response.getStatusCode().equals(HttpStatus.OK)) {
                     endpoint = hostAsString;
                     break;
                 }
+                metrics.hostFailover(ElasticsearchMetrics.BIND, plan.getId(), clientMode.identifier);
             }
 
             if (endpoint.equals("")) {
@@ -230,28 +396,40 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
             credentials.put(URI, dbURL);
         }
 
-        log.info(MessageFormat.format("Finished creating credentials for bind request {0}.", prettifyForLog(serviceInstanceBindingRequest)));
+        if (log.isInfoEnabled()) {
+            log.info(MessageFormat.format("Finished creating credentials for bind request {0}.", prettifyForLog(serviceInstanceBindingRequest)));
+        }
         return credentials;
     }
 
     /**
-     * Returns a BasicAuthorizationInterceptor with username and password. The password
-     * gets extracted automatically.
+     * Returns a BasicAuthorizationInterceptor with the username and password stored under the
+     * given credential name. On shared clusters the name of the built-in superuser refers to the
+     * tenant admin, whose username differs from the credential name.
      *
-     * @param username the username, must not be null
+     * @param credentialName the name of the credential, must not be null
      * @param serviceInstance the service instance, must not be null
      * @return a BasicAuthorizationInterceptor with username and password
      */
-    private BasicAuthorizationInterceptor getInterceptorWithCredentials(String username, ServiceInstance serviceInstance) {
-        if (username == null || username.isEmpty()) {
-            throw new IllegalArgumentException("Username must not be null or empty!");
+    private BasicAuthorizationInterceptor getInterceptorWithCredentials(String credentialName, ServiceInstance serviceInstance) {
+        if (credentialName == null || credentialName.isEmpty()) {
+            throw new IllegalArgumentException("Credential name must not be null or empty!");
         }
         if (serviceInstance == null) {
             throw new IllegalArgumentException("ServiceInstance must not be null!");
         }
-        final String adminPassword = credentialStore.getUser(serviceInstance, username).getPassword();
+        final UsernamePasswordCredential admin = credentialStore.getUser(serviceInstance, credentialName);
 
-        return new BasicAuthorizationInterceptor(username, adminPassword);
+        return new BasicAuthorizationInterceptor(admin.getUsername(), admin.getPassword());
+    }
+
+    /**
+     * Returns a RestTemplate for plain HTTP connections, which propagates the trace context.
+     */
+    private RestTemplate newRestTemplate() {
+        final RestTemplate restTemplate = new RestTemplate();
+        restTemplate.getInterceptors().add(tracing.clientHttpRequestInterceptor());
+        return restTemplate;
     }
 
     private void addUserToElasticsearch(String bindingId, String userCreationUri, String password, RestTemplate restTemplate) throws ServiceBrokerException {
@@ -271,6 +449,43 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
         }
     }
 
+    /**
+     * Maps the subject of the client certificate of a binding to the binding role. The PKI realm
+     * authenticates the certificate without hashing a password, the mapping authorizes it.
+     */
+    private void addRoleMapping(String bindingId, String roleMappingUri, RestTemplate restTemplate) throws ServiceBrokerException {
+        final Map<String, Object> mapping = new HashMap<>();
+        mapping.put("enabled", true);
+        mapping.put("roles", Collections.singletonList(DEFAULT_ROLE));
+        mapping.put("rules", Collections.singletonMap("field", Collections.singletonMap("dn", ClientCertificateAuthority.dn(bindingId))));
+        mapping.put("metadata", Collections.singletonMap("binding_id", bindingId));
+
+        try {
+            restTemplate.put(roleMappingUri + "/" + bindingId, mapping);
+        } catch (RestClientException e) {
+            throw new ServiceBrokerException("Cannot create role mapping for binding. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates an API key for a binding. Elasticsearch returns the id and the secret of the key,
+     * the secret can not be read again later.
+     */
+    private Map<String, Object> createApiKey(ElasticsearchApiKey apiKey, String apiKeyUri, RestTemplate restTemplate) throws ServiceBrokerException {
+        try {
+            ResponseEntity<Map> entity = restTemplate.postForEntity(apiKeyUri, apiKey, Map.class);
+
+            final HttpStatus statusCode = entity.getStatusCode();
+            if (!statusCode.is2xxSuccessful() || entity.getBody() == null) {
+                throw new ServiceBrokerException(
+                        new ServiceInstanceBindingException(apiKey.getName(), statusCode, "Cannot create API key for binding."));
+            }
+            return entity.getBody();
+        } catch (RestClientException e) {
+            throw new ServiceBrokerException("Cannot create API key for binding. " + e.getMessage());
+        }
+    }
+
     private String generatePassword() {
         final SecureRandom random = new SecureRandom();
         return new BigInteger(130, random).toString(32);
@@ -281,6 +496,16 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
         return String.format(X_PACK_USERS_URI_PATTERN, adminUri);
     }
 
+    private String generateApiKeyUri(String endpoint, String protocolMode) {
+        final String adminUri = String.format("%s://%s", protocolMode, endpoint);
+        return String.format(X_PACK_API_KEY_URI_PATTERN, adminUri);
+    }
+
+    private String generateRoleMappingUri(String endpoint, String protocolMode) {
+        final String adminUri = String.format("%s://%s", protocolMode, endpoint);
+        return String.format(X_PACK_ROLE_MAPPING_URI_PATTERN, adminUri);
+    }
+
     private String generateHealthEndpointUri(String endpoint, String protocolMode) {
         final String clusterUri = String.format("%s://%s", protocolMode, endpoint);
         return String.format(HEALTH_ENDPOINT_URI_PATTERN, clusterUri);
@@ -289,6 +514,7 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
     private String clientModeToServerAddressFilter(ClientMode m, Plan p) {
         switch (m) {
             case INGRESS:
+            case LOGSTASH:
                 return p.getMetadata().getIngressInstanceGroup();
             case EGRESS:
             default:
@@ -303,18 +529,42 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
 
     @Override
     protected void unbindService(ServiceInstanceBinding binding, ServiceInstance serviceInstance, Plan plan) throws ServiceBrokerException {
-        final List<ServerAddress> hosts = serviceInstance.getHosts();
         final ClientMode clientMode = getClientModeOrDefault(binding.getCredentials());
+
+        metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.TOTAL, plan.getId(), clientMode.identifier, () -> {
+            unbindService(binding, serviceInstance, plan, clientMode);
+
+            final Object alias = binding.getCredentials() != null ? binding.getCredentials().get(ElasticsearchIndexTemplateService.INDEX_ALIAS) : null;
+            if (alias != null) {
+                try {
+                    metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                            () -> indexTemplateService.remove(serviceInstance, alias.toString()));
+                } catch (ServiceBrokerException e) {
+                    log.warn(MessageFormat.format("Binding ''{0}'' deleted, but its index template was kept. {1}", binding.getId(), e.getMessage()));
+                }
+            }
+        });
+    }
+
+    private void unbindService(ServiceInstanceBinding binding, ServiceInstance serviceInstance, Plan plan,
+                               ClientMode clientMode) throws ServiceBrokerException {
+        final List<ServerAddress> hosts = serviceInstance.getHosts();
         final String serverAddressFilter = clientModeToServerAddressFilter(clientMode, plan);
         final String bindingId = binding.getId();
+        final Object apiKeyId = binding.getCredentials() != null ? binding.getCredentials().get(API_KEY_ID) : null;
+        final boolean certificateBinding = binding.getCredentials() != null && binding.getCredentials().get(ClientCertificateAuthority.CERTIFICATE) != null;
         final String protocolMode;
         final RestTemplate restTemplate;
 
-        log.info(MessageFormat.format("Deleting binding ''{0}''.", bindingId));
+        if (log.isInfoEnabled()) {
+            log.info(MessageFormat.format("Deleting binding ''{0}''.", bindingId));
+        }
 
         // Built-In User case
         if (ClientMode.isBuiltInUser(clientMode)) {
-            log.info(MessageFormat.format("Binding ''{0}'' deleted.", bindingId));
+            if (log.isInfoEnabled()) {
+                log.info(MessageFormat.format("Binding ''{0}'' deleted.", bindingId));
+            }
             return;
         }
 
@@ -324,11 +574,12 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
                 restTemplate = this.restTemplate;
             } else {
                 protocolMode = HTTP;
-                restTemplate = new RestTemplate();
+                restTemplate = newRestTemplate();
             }
 
             // Prepare REST Template
-            final BasicAuthorizationInterceptor basicAuthorizationInterceptor = getInterceptorWithCredentials(CredentialConstants.SUPER_ADMIN, serviceInstance);
+            final BasicAuthorizationInterceptor basicAuthorizationInterceptor = metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.CREDENTIAL_STORE,
+                    plan.getId(), clientMode.identifier, () -> getInterceptorWithCredentials(CredentialConstants.SUPER_ADMIN, serviceInstance));
             restTemplate.getInterceptors().add(basicAuthorizationInterceptor);
 
             boolean success = false;
@@ -344,22 +595,42 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
                     endpoint = ServiceInstanceUtils.connectionUrl(ServiceInstanceUtils.filteredServerAddress(hosts, serverAddressFilter));
                 }
 
-                final String userCreationUri = generateUsersUri(endpoint, protocolMode);
+                final String userCreationUri = apiKeyId != null ? generateApiKeyUri(endpoint, protocolMode)
+                        : certificateBinding ? generateRoleMappingUri(endpoint, protocolMode) : generateUsersUri(endpoint, protocolMode);
 
                 try {
-                    log.info(MessageFormat.format("Try binding on host {0}:{1,number,#} with URI \"{2}\" ", a.getIp(), a.getPort(), userCreationUri));
-                    deleteUserFromElasticsearch(bindingId, userCreationUri, restTemplate);
-
-                    credentialStore.deleteCredentials(serviceInstance, bindingId);  // Delete user from credential store
+                    if (log.isInfoEnabled()) {
+                        log.info(MessageFormat.format("Try binding on host {0}:{1,number,#} with URI \"{2}\" ", a.getIp(), a.getPort(), userCreationUri));
+                    }
+                    if (apiKeyId != null) {
+                        metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                                () -> invalidateApiKey(apiKeyId.toString(), SharedClusterService.isSharedCluster(plan), userCreationUri, restTemplate));
+                    } else if (certificateBinding) {
+                        // The certificate stays valid until it expires, without its mapping it grants no privileges
+                        metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                                () -> deleteRoleMapping(bindingId, userCreationUri, restTemplate));
+                    } else {
+                        metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.NODE_REQUEST, plan.getId(), clientMode.identifier,
+                                () -> deleteUserFromElasticsearch(bindingId, userCreationUri, restTemplate));
+                    }
+
+                    // Delete user from credential store
+                    metrics.record(ElasticsearchMetrics.UNBIND, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), clientMode.identifier,
+                            () -> credentialStore.deleteCredentials(serviceInstance, bindingId));
 
                     success = true;
                 } catch (ServiceBrokerException e) {
-                    log.info(MessageFormat.format("Failed deleting binding ''{0}'' on endpoint ''{1}''. {2}", bindingId, endpoint, e.getMessage()));
+                    metrics.hostFailover(ElasticsearchMetrics.UNBIND, plan.getId(), clientMode.identifier);
+                    if (log.isInfoEnabled()) {
+                        log.info(MessageFormat.format("Failed deleting binding ''{0}'' on endpoint ''{1}''. {2}", bindingId, endpoint, e.getMessage()));
+                    }
                 }
 
                 if (success) {
                     restTemplate.getInterceptors().remove(basicAuthorizationInterceptor);
-                    log.info(MessageFormat.format("Finished deleting binding ''{0}''.", bindingId));
+                    if (log.isInfoEnabled()) {
+                        log.info(MessageFormat.format("Finished deleting binding ''{0}''.", bindingId));
+                    }
                     break;
                 }
             }
@@ -368,7 +639,9 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
                 throw new ServiceBrokerException(MessageFormat.format("Can not delete binding ''{0}''. Problem with host!", bindingId));
             }
         } else {
-            log.info(MessageFormat.format("Binding ''{0}'' deleted.", bindingId));
+            if (log.isInfoEnabled()) {
+                log.info(MessageFormat.format("Binding ''{0}'' deleted.", bindingId));
+            }
         }
     }
 
@@ -383,6 +656,34 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
         }
     }
 
+    private void deleteRoleMapping(String bindingId, String roleMappingUri, RestTemplate restTemplate) throws ServiceBrokerException {
+        try {
+            restTemplate.delete(roleMappingUri + "/" + bindingId);
+        } catch (RestClientException e) {
+            log.error("Cannot delete role mapping for binding. " + e.getMessage());
+            throw new ServiceBrokerException("Cannot delete role mapping for binding. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Invalidates the API key of a binding. Tenant admins of shared clusters may only invalidate
+     * their own keys, which Elasticsearch requires them to state with <code>owner</code>.
+     */
+    private void invalidateApiKey(String apiKeyId, boolean ownKey, String apiKeyUri, RestTemplate restTemplate) throws ServiceBrokerException {
+        final Map<String, Object> body = new HashMap<>();
+        body.put("id", apiKeyId);
+        if (ownKey) {
+            body.put("owner", true);
+        }
+
+        try {
+            restTemplate.exchange(apiKeyUri, HttpMethod.DELETE, new HttpEntity<>(body), Map.class);
+        } catch (RestClientException e) {
+            log.error("Cannot invalidate API key for binding. " + e.getMessage());
+            throw new ServiceBrokerException("Cannot invalidate API key for binding. " + e.getMessage());
+        }
+    }
+
     /**
      * Returns a UsernamePasswordCredential associated with an client mode.
      * @param clientMode the client mode
@@ -423,6 +724,15 @@ public class ElasticsearchBindingService extends BindingServiceImpl {
             return clientMode == SUPERUSER || clientMode == KIBANA || clientMode == LOGSTASH;
         }
 
+        /**
+         * This method returns whether the ClientMode is used to write data through the ingest nodes.
+         * @param clientMode the client mode to check
+         * @return true if the client mode is ingest oriented, false otherwise
+         */
+        public static boolean isIngest(ClientMode clientMode) {
+            return clientMode == INGRESS || clientMode == LOGSTASH;
+        }
+
         public static ClientMode byIdentifier(String identifier) {
             switch (identifier) {
                 case "egress":
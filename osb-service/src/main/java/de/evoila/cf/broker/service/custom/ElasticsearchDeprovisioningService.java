@@ -0,0 +1,127 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.security.credentials.CredentialStore;
+import de.evoila.cf.security.credentials.DefaultCredentialConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cleans up everything the broker keeps for a service instance once its deployment was deleted:
+ * the credential store entries of the built-in users and the backup, and all per-instance caches.
+ */
+@Service
+public class ElasticsearchDeprovisioningService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticsearchDeprovisioningService.class);
+
+    private static final int PARALLELISM = 4;
+
+    /**
+     * All credential store entries created for a service instance in replaceParameters.
+     */
+    private static final List<String> INSTANCE_CREDENTIALS = Arrays.asList(
+            CredentialConstants.SUPER_ADMIN,
+            CredentialConstants.KIBANA_USER,
+            CredentialConstants.LOGSTASH_USER,
+            CredentialConstants.DRAIN_MONITOR_USER,
+            CredentialConstants.S3_BACKUP_CREDENTIALS,
+            CredentialConstants.S3_BACKUP_READ_ONLY_CREDENTIALS,
+            CredentialConstants.S3_CLONE_CREDENTIALS,
+            CredentialConstants.CLIENT_CA,
+            DefaultCredentialConstants.BACKUP_AGENT_CREDENTIALS,
+            DefaultCredentialConstants.BACKUP_CREDENTIALS
+    );
+
+    /**
+     * Credential store entries which only exist if the service instance used the feature: read-only
+     * backup access, a snapshot clone or PKI bindings. They are only deleted if they exist.
+     */
+    private static final List<String> OPTIONAL_CREDENTIALS = Arrays.asList(
+            CredentialConstants.S3_BACKUP_READ_ONLY_CREDENTIALS,
+            CredentialConstants.S3_CLONE_CREDENTIALS,
+            CredentialConstants.CLIENT_CA
+    );
+
+    private final CredentialStore credentialStore;
+
+    private final ElasticsearchHostRegistry hostRegistry;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(PARALLELISM, r -> {
+        Thread thread = new Thread(r, "elasticsearch-deprovisioning");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ElasticsearchDeprovisioningService(CredentialStore credentialStore, ElasticsearchHostRegistry hostRegistry,
+                                              ServiceInstanceCache serviceInstanceCache) {
+        this.credentialStore = credentialStore;
+        this.hostRegistry = hostRegistry;
+        this.serviceInstanceCache = serviceInstanceCache;
+    }
+
+    /**
+     * Removes all credential store entries of the service instance in parallel and evicts the
+     * service instance from all caches. Optional entries which do not exist are skipped. Failures
+     * are logged and do not fail the deprovisioning, as the deployment is already gone at this point.
+     *
+     * @param serviceInstance the deleted service instance
+     */
+    public void cleanup(ServiceInstance serviceInstance) {
+        final long start = System.nanoTime();
+
+        hostRegistry.remove(serviceInstance.getId());
+        serviceInstanceCache.invalidate(serviceInstance.getId());
+        final long evicted = System.nanoTime();
+
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger absent = new AtomicInteger();
+        final CompletableFuture<?>[] deletions = INSTANCE_CREDENTIALS.stream()
+                .map(key -> CompletableFuture.runAsync(() -> deleteCredentials(serviceInstance, key, failures, absent), executorService))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(deletions).join();
+        final long deleted = System.nanoTime();
+
+        log.info(MessageFormat.format("Cleaned up service instance ''{0}'': evicted caches in {1} ms, deleted {2} of {3} credentials in {4} ms, {5} did not exist.",
+                serviceInstance.getId(),
+                TimeUnit.NANOSECONDS.toMillis(evicted - start),
+                INSTANCE_CREDENTIALS.size() - absent.get() - failures.get(),
+                INSTANCE_CREDENTIALS.size() - absent.get(),
+                TimeUnit.NANOSECONDS.toMillis(deleted - evicted),
+                absent.get()));
+    }
+
+    private void deleteCredentials(ServiceInstance serviceInstance, String key, AtomicInteger failures, AtomicInteger absent) {
+        try {
+            if (OPTIONAL_CREDENTIALS.contains(key) && credentialStore.getUser(serviceInstance, key) == null) {
+                absent.incrementAndGet();
+                return;
+            }
+
+            credentialStore.deleteCredentials(serviceInstance, key);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            log.warn(MessageFormat.format("Could not delete credentials ''{0}'' of service instance ''{1}''. {2}",
+                    key, serviceInstance.getId(), e.getMessage()));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,170 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.ServerAddress;
+import de.evoila.cf.broker.service.custom.model.ElasticsearchHost;
+import de.evoila.cf.broker.service.custom.model.NodeRole;
+import de.evoila.cf.broker.util.ServiceInstanceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the hosts of each service instance indexed by instance group and node role, so that
+ * bindings and admin calls can look up the relevant nodes without filtering all hosts.
+ * <p>
+ * The registry is updated whenever the hosts of a service instance are updated after a deployment.
+ * Instances which were not deployed since the broker started are indexed lazily from their
+ * persisted hosts.
+ */
+@Component
+public class ElasticsearchHostRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticsearchHostRegistry.class);
+
+    private final Map<String, InstanceHosts> instances = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces the hosts of a service instance. Hosts which did not change are kept, so only
+     * added and removed hosts touch the index.
+     *
+     * @param serviceInstanceId the id of the service instance
+     * @param hosts the current hosts of the service instance
+     */
+    public void update(String serviceInstanceId, List<ElasticsearchHost> hosts) {
+        instances.compute(serviceInstanceId, (id, previous) -> {
+            final Map<String, ElasticsearchHost> current = new LinkedHashMap<>();
+            int added = 0;
+
+            for (ElasticsearchHost host : hosts) {
+                final ElasticsearchHost known = previous != null ? previous.byKey.get(host.getKey()) : null;
+
+                if (known != null && (host.getAz() == null || host.getAz().equals(known.getAz()))) {
+                    current.put(known.getKey(), known);
+                } else {
+                    current.put(host.getKey(), host);
+                    added++;
+                }
+            }
+
+            final int removed = previous != null ? previous.byKey.size() - (current.size() - added) : 0;
+            if (added > 0 || removed > 0) {
+                log.info("Updated hosts of service instance " + id + ": " + added + " added, " + removed + " removed.");
+            }
+
+            return new InstanceHosts(current);
+        });
+    }
+
+    /**
+     * Returns all hosts of the service instance in the given instance group. If no host is
+     * registered with exactly that group, the persisted hosts are filtered by name as before the
+     * registry existed, so bind and unbind resolve the same hosts.
+     *
+     * @param serviceInstance the service instance
+     * @param instanceGroup the name of the instance group
+     * @return the server addresses, empty if there are none
+     */
+    public List<ServerAddress> getHosts(ServiceInstance serviceInstance, String instanceGroup) {
+        final List<ServerAddress> hosts = get(serviceInstance).byInstanceGroup.get(instanceGroup);
+        if (hosts != null && !hosts.isEmpty()) {
+            return hosts;
+        }
+        if (serviceInstance.getHosts() == null || instanceGroup == null) {
+            return Collections.emptyList();
+        }
+        return ServiceInstanceUtils.filteredServerAddress(serviceInstance.getHosts(), instanceGroup);
+    }
+
+    /**
+     * Returns all hosts of the service instance with the given node role.
+     *
+     * @param serviceInstance the service instance
+     * @param role the node role
+     * @return the server addresses, empty if there are none
+     */
+    public List<ServerAddress> getHostsByRole(ServiceInstance serviceInstance, NodeRole role) {
+        return get(serviceInstance).byRole.getOrDefault(role, Collections.emptyList());
+    }
+
+    /**
+     * Returns the registry entry of a single host of the service instance.
+     *
+     * @param serviceInstance the service instance
+     * @param address the server address of the host
+     * @return the host, or null if the address does not belong to the service instance
+     */
+    public ElasticsearchHost getHost(ServiceInstance serviceInstance, ServerAddress address) {
+        return get(serviceInstance).byKey.get(ElasticsearchHost.key(address));
+    }
+
+    /**
+     * Returns all registered hosts of the service instance.
+     *
+     * @param serviceInstance the service instance
+     * @return the hosts
+     */
+    public Collection<ElasticsearchHost> getAll(ServiceInstance serviceInstance) {
+        return get(serviceInstance).byKey.values();
+    }
+
+    /**
+     * Returns the ids of all service instances known to the registry, i.e. deployed or accessed
+     * since the broker started.
+     *
+     * @return a copy of the service instance ids
+     */
+    public Set<String> getServiceInstanceIds() {
+        return new HashSet<>(instances.keySet());
+    }
+
+    public void remove(String serviceInstanceId) {
+        instances.remove(serviceInstanceId);
+    }
+
+    private InstanceHosts get(ServiceInstance serviceInstance) {
+        final InstanceHosts instanceHosts = instances.get(serviceInstance.getId());
+        if (instanceHosts != null) {
+            return instanceHosts;
+        }
+
+        final List<ServerAddress> hosts = serviceInstance.getHosts() != null ? serviceInstance.getHosts() : Collections.emptyList();
+        final Map<String, ElasticsearchHost> byKey = new LinkedHashMap<>();
+        hosts.forEach(h -> byKey.put(ElasticsearchHost.key(h), ElasticsearchHost.of(h)));
+
+        return instances.computeIfAbsent(serviceInstance.getId(), id -> new InstanceHosts(byKey));
+    }
+
+    private static class InstanceHosts {
+        private final Map<String, ElasticsearchHost> byKey;
+        private final Map<String, List<ServerAddress>> byInstanceGroup;
+        private final Map<NodeRole, List<ServerAddress>> byRole;
+
+        InstanceHosts(Map<String, ElasticsearchHost> byKey) {
+            this.byKey = Collections.unmodifiableMap(byKey);
+
+            this.byInstanceGroup = Collections.unmodifiableMap(byKey.values().stream()
+                    .filter(h -> h.getInstanceGroup() != null)
+                    .collect(Collectors.groupingBy(ElasticsearchHost::getInstanceGroup, HashMap::new,
+                            Collectors.mapping(ElasticsearchHost::getAddress, Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList)))));
+
+            final Map<NodeRole, List<ServerAddress>> roles = new EnumMap<>(NodeRole.class);
+            byKey.values().forEach(h -> h.getRoles().forEach(r -> roles.computeIfAbsent(r, k -> new ArrayList<>()).add(h.getAddress())));
+            roles.replaceAll((r, addresses) -> Collections.unmodifiableList(addresses));
+            this.byRole = Collections.unmodifiableMap(roles);
+        }
+    }
+}
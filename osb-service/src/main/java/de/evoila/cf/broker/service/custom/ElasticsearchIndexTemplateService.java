@@ -0,0 +1,198 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.plan.CustomInstanceGroupConfig;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.service.custom.model.NodeRole;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indexlifecycle.DeleteAction;
+import org.elasticsearch.client.indexlifecycle.LifecycleAction;
+import org.elasticsearch.client.indexlifecycle.LifecyclePolicy;
+import org.elasticsearch.client.indexlifecycle.Phase;
+import org.elasticsearch.client.indexlifecycle.PutLifecyclePolicyRequest;
+import org.elasticsearch.client.indexlifecycle.RolloverAction;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.PutIndexTemplateRequest;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static de.evoila.cf.cpi.bosh.BaseElasticsearchDeploymentManager.DATA_NODES;
+import static de.evoila.cf.cpi.bosh.BaseElasticsearchDeploymentManager.GENERAL_NODES;
+
+/**
+ * Installs an index template and a rollover alias for a binding, sized by {@link IndexSizing}
+ * for the data nodes of the service instance.
+ * <p>
+ * On plans with X-Pack an index lifecycle policy rolls the alias over and deletes indices after
+ * the retention period. On other plans the rollover conditions are returned in the credentials
+ * and rollover is left to the application.
+ */
+@Service
+public class ElasticsearchIndexTemplateService {
+
+    public static final String INDEX_ALIAS = "index_alias";
+    public static final String INDEX_PATTERN = "index_pattern";
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticsearchIndexTemplateService.class);
+
+    private static final String FIRST_INDEX_SUFFIX = "-000001";
+
+    /**
+     * Matches the indices rolled over behind an alias, which end with a zero padded counter. A plain
+     * <code>-*</code> would also match the indices of an alias like <code>logs-app</code> for <code>logs</code>.
+     */
+    private static final String INDEX_PATTERN_SUFFIX = "-0*";
+    private static final String SSD = "ssd";
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ElasticsearchHostRegistry hostRegistry;
+
+    public ElasticsearchIndexTemplateService(ElasticsearchConnector elasticsearchConnector, ElasticsearchHostRegistry hostRegistry) {
+        this.elasticsearchConnector = elasticsearchConnector;
+        this.hostRegistry = hostRegistry;
+    }
+
+    /**
+     * Installs the index template, the lifecycle policy if supported by the plan, and the first
+     * index behind the write alias. An existing alias is kept, so binding again with the same
+     * alias only updates the template and the policy.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param plan the plan of the service instance, must not be null
+     * @param parameters the sizing parameters of the binding, must not be null
+     * @return the entries to add to the credentials of the binding
+     * @throws ServiceBrokerException if no host is reachable or Elasticsearch rejects a request
+     */
+    public Map<String, Object> install(ServiceInstance serviceInstance, Plan plan, IndexSizingParameters parameters) throws ServiceBrokerException {
+        final int dataNodes = hostRegistry.getHostsByRole(serviceInstance, NodeRole.DATA).size();
+        final IndexSizing sizing = IndexSizing.compute(parameters, dataNodes, isSsd(plan));
+        final boolean lifecycle = ElasticsearchUtilities.planContainsXPack(plan);
+        final String alias = parameters.getAlias();
+
+        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot install index template ''{0}''. No available hosts.", alias));
+        }
+
+        try {
+            final Map<String, Object> settings = sizing.toIndexSettings();
+            if (lifecycle) {
+                putLifecyclePolicy(client, alias, sizing, parameters.getRetentionDays());
+                settings.put("index.lifecycle.name", alias);
+                settings.put("index.lifecycle.rollover_alias", alias);
+            }
+
+            client.indices().putTemplate(new PutIndexTemplateRequest(alias)
+                    .patterns(Collections.singletonList(alias + INDEX_PATTERN_SUFFIX))
+                    .settings(settings), RequestOptions.DEFAULT);
+
+            if (!client.indices().existsAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT)) {
+                client.indices().create(new CreateIndexRequest(alias + FIRST_INDEX_SUFFIX)
+                        .alias(new Alias(alias).writeIndex(true)), RequestOptions.DEFAULT);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot install index template ''{0}''. {1}", alias, e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        log.info(MessageFormat.format("Installed index template ''{0}'' with {1} for {2} data nodes of service instance ''{3}''.",
+                alias, sizing, dataNodes, serviceInstance.getId()));
+
+        final Map<String, Object> credentials = new HashMap<>();
+        credentials.put(INDEX_ALIAS, alias);
+        credentials.put(INDEX_PATTERN, alias + INDEX_PATTERN_SUFFIX);
+        if (!lifecycle) {
+            final Map<String, Object> conditions = new HashMap<>();
+            conditions.put("max_size", sizing.getRolloverMaxSizeGb() + "gb");
+            conditions.put("max_age", sizing.getRolloverMaxAge());
+            credentials.put("rollover_conditions", conditions);
+        }
+        return credentials;
+    }
+
+    /**
+     * Deletes the index template of a binding. Indices and the lifecycle policy are kept, so data
+     * written through the binding is still removed after the retention period.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param alias the alias the template was installed for
+     * @throws ServiceBrokerException if no host is reachable or Elasticsearch rejects the request
+     */
+    public void remove(ServiceInstance serviceInstance, String alias) throws ServiceBrokerException {
+        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot delete index template ''{0}''. No available hosts.", alias));
+        }
+
+        try {
+            client.indices().deleteTemplate(new DeleteIndexTemplateRequest(alias), RequestOptions.DEFAULT);
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot delete index template ''{0}''. {1}", alias, e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        log.info(MessageFormat.format("Deleted index template ''{0}'' of service instance ''{1}''.", alias, serviceInstance.getId()));
+    }
+
+    private void putLifecyclePolicy(RestHighLevelClient client, String name, IndexSizing sizing, Integer retentionDays) throws IOException {
+        final Map<String, LifecycleAction> hotActions = new HashMap<>();
+        hotActions.put(RolloverAction.NAME, new RolloverAction(new ByteSizeValue(sizing.getRolloverMaxSizeGb(), ByteSizeUnit.GB),
+                TimeValue.parseTimeValue(sizing.getRolloverMaxAge(), "max_age"), null));
+
+        final Map<String, Phase> phases = new HashMap<>();
+        phases.put("hot", new Phase("hot", TimeValue.ZERO, hotActions));
+        if (retentionDays != null) {
+            phases.put("delete", new Phase("delete", TimeValue.timeValueHours(24L * retentionDays),
+                    Collections.singletonMap(DeleteAction.NAME, new DeleteAction())));
+        }
+
+        client.indexLifecycle().putLifecyclePolicy(new PutLifecyclePolicyRequest(new LifecyclePolicy(name, phases)), RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Returns whether the data nodes of the plan use SSD backed persistent disks, judged by the
+     * name of their persistent disk type.
+     */
+    private boolean isSsd(Plan plan) {
+        String dataGroup = null;
+        String generalGroup = null;
+        for (CustomInstanceGroupConfig config : plan.getMetadata().getInstanceGroupConfig()) {
+            if (DATA_NODES.equals(config.getName()) && config.getNodes() != null && config.getNodes() > 0) {
+                dataGroup = config.getPersistentDiskType();
+            } else if (GENERAL_NODES.equals(config.getName()) || "elasticsearch".equals(config.getName())) {
+                generalGroup = config.getPersistentDiskType();
+            }
+        }
+
+        final String diskType = dataGroup != null ? dataGroup : generalGroup;
+        return diskType != null && diskType.toLowerCase(Locale.ROOT).contains(SSD);
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives bulk indexing hints for ingest bindings from the live nodes of a service instance.
+ * <p>
+ * Every shard level bulk request occupies a thread of the <code>write</code> thread pool on the
+ * node of the primary and on each replica. The cluster therefore processes about
+ * <code>data nodes * write threads / (1 + replicas)</code> bulk requests at once, which is the
+ * recommended number of workers over all clients. Requests beyond that wait in the write queue
+ * and are rejected with 429 once it is full.
+ */
+@Service
+public class ElasticsearchIngestAdvisor {
+
+    public static final String INGEST = "ingest";
+
+    static final int DEFAULT_BULK_SIZE_MB = 10;
+    static final int SMALL_BULK_SIZE_MB = 5;
+    static final int SMALL_QUEUE_SIZE = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticsearchIngestAdvisor.class);
+
+    private static final String NODES_ENDPOINT = "/_nodes/thread_pool";
+    private static final String NODES_FILTER = "nodes.*.roles,nodes.*.thread_pool.write";
+    private static final String PIPELINES_ENDPOINT = "/_ingest/pipeline";
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ElasticsearchIngestAdvisor(ElasticsearchConnector elasticsearchConnector) {
+        this.elasticsearchConnector = elasticsearchConnector;
+    }
+
+    /**
+     * Returns the bulk indexing hints for a binding of the service instance.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @return the hints, to be added to the credentials below {@link #INGEST}
+     * @throws ServiceBrokerException if no host is reachable or the nodes can not be read
+     */
+    public Map<String, Object> hints(ServiceInstance serviceInstance) throws ServiceBrokerException {
+        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot read ingest hints of service instance ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+
+        try {
+            final Request nodesRequest = new Request("GET", NODES_ENDPOINT);
+            nodesRequest.addParameter("filter_path", NODES_FILTER);
+            final JsonNode nodes = read(client.getLowLevelClient().performRequest(nodesRequest)).path("nodes");
+
+            return compute(nodes, pipelines(client));
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot read ingest hints of service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+        } finally {
+            close(client);
+        }
+    }
+
+    private static Map<String, Object> compute(JsonNode nodes, JsonNode pipelines) {
+        int dataNodes = 0;
+        int ingestNodes = 0;
+        int writeThreads = Integer.MAX_VALUE;
+        int queueSize = Integer.MAX_VALUE;
+
+        for (JsonNode node : nodes) {
+            final List<String> roles = new ArrayList<>();
+            node.path("roles").forEach(r -> roles.add(r.asText()));
+
+            if (roles.contains("ingest")) {
+                ingestNodes++;
+            }
+            if (roles.contains("data")) {
+                dataNodes++;
+                final JsonNode write = node.path("thread_pool").path("write");
+                writeThreads = Math.min(writeThreads, write.path("size").asInt(1));
+                queueSize = Math.min(queueSize, write.path("queue_size").asInt(SMALL_QUEUE_SIZE));
+            }
+        }
+
+        if (dataNodes == 0) {
+            writeThreads = 1;
+            queueSize = SMALL_QUEUE_SIZE;
+        }
+
+        final int replicas = dataNodes > 1 ? 1 : 0;
+        final int concurrentBulkRequests = Math.max(1, dataNodes * writeThreads / (1 + replicas));
+
+        final List<String> pipelineNames = new ArrayList<>();
+        pipelines.fieldNames().forEachRemaining(pipelineNames::add);
+
+        final Map<String, Object> hints = new HashMap<>();
+        hints.put("data_nodes", dataNodes);
+        hints.put("ingest_nodes", ingestNodes);
+        hints.put("workers", concurrentBulkRequests);
+        hints.put("bulk_size_mb", queueSize < SMALL_QUEUE_SIZE ? SMALL_BULK_SIZE_MB : DEFAULT_BULK_SIZE_MB);
+        hints.put("write_queue_capacity", dataNodes * queueSize);
+        hints.put("pipelines", pipelineNames);
+        return hints;
+    }
+
+    private JsonNode pipelines(RestHighLevelClient client) throws IOException {
+        try {
+            return read(client.getLowLevelClient().performRequest(new Request("GET", PIPELINES_ENDPOINT)));
+        } catch (ResponseException e) {
+            // Elasticsearch answers 404 if there are no pipelines
+            if (e.getResponse().getStatusLine().getStatusCode() == 404) {
+                return objectMapper.createObjectNode();
+            }
+            throw e;
+        }
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        if (response.getEntity() == null) {
+            return objectMapper.createObjectNode();
+        }
+
+        try (InputStream content = response.getEntity().getContent()) {
+            final JsonNode node = objectMapper.readTree(content);
+            return node != null ? node : objectMapper.createObjectNode();
+        }
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.evoila.cf.broker.service.custom;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Timers and counters for the phases of broker operations (bind, unbind, client creation,
+ * backup, manifest rendering). All meters are tagged by operation, phase, plan and client mode,
+ * timers publish percentiles so slow phases show up in Prometheus without further aggregation.
+ * Every recorded phase is traced as a span as well, see {@link ElasticsearchTracing}.
+ */
+@Component
+public class ElasticsearchMetrics {
+
+    public static final String OPERATION_TIMER = "elasticsearch.broker.operation";
+
+    public static final String HOST_FAILOVER_COUNTER = "elasticsearch.broker.host_failovers";
+
+    public static final String BIND = "bind";
+    public static final String UNBIND = "unbind";
+    public static final String CLIENT = "client";
+    public static final String BACKUP_ITEMS = "backup_items";
+    public static final String MANIFEST = "manifest";
+
+    public static final String TOTAL = "total";
+    public static final String CREDENTIAL_STORE = "credential_store";
+    public static final String NODE_REQUEST = "node_request";
+    public static final String RENDER = "render";
+
+    /**
+     * Client mode tag of operations which are not triggered by a binding.
+     */
+    public static final String NONE = "none";
+
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    private final MeterRegistry registry;
+
+    private final ElasticsearchTracing tracing;
+
+    public ElasticsearchMetrics(Optional<MeterRegistry> meterRegistry, ElasticsearchTracing tracing) {
+        this.registry = meterRegistry.orElse(Metrics.globalRegistry);
+        this.tracing = tracing;
+    }
+
+    @FunctionalInterface
+    public interface TimedCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @FunctionalInterface
+    public interface TimedRun<E extends Exception> {
+        void run() throws E;
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Stops the sample and records it for the given phase.
+     *
+     * @param sample the sample returned by {@link #start()}
+     * @param success whether the phase succeeded
+     */
+    public void stop(Timer.Sample sample, String operation, String phase, String planId, String clientMode, boolean success) {
+        sample.stop(timer(operation, phase, planId, clientMode, success));
+    }
+
+    public <T, E extends Exception> T record(String operation, String phase, String planId, String clientMode,
+                                             TimedCall<T, E> call) throws E {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("osb.plan_id", planId);
+        attributes.put("osb.client_mode", clientMode);
+
+        return tracing.trace(operation + " " + phase, attributes, () -> {
+            final Timer.Sample sample = start();
+            boolean success = false;
+            try {
+                final T result = call.call();
+                success = true;
+                return result;
+            } finally {
+                stop(sample, operation, phase, planId, clientMode, success);
+            }
+        });
+    }
+
+    public <E extends Exception> void record(String operation, String phase, String planId, String clientMode,
+                                             TimedRun<E> run) throws E {
+        record(operation, phase, planId, clientMode, () -> {
+            run.run();
+            return null;
+        });
+    }
+
+    /**
+     * Counts a request which failed on one host and is retried on the next one.
+     */
+    public void hostFailover(String operation, String planId, String clientMode) {
+        Counter.builder(HOST_FAILOVER_COUNTER)
+                .description("Requests to an Elasticsearch node which failed and were retried on another node")
+                .tags(tags(operation, planId, clientMode))
+                .register(registry)
+                .increment();
+    }
+
+    private Timer timer(String operation, String phase, String planId, String clientMode, boolean success) {
+        return Timer.builder(OPERATION_TIMER)
+                .description("Duration of the phases of broker operations")
+                .tags(tags(operation, planId, clientMode))
+                .tag("phase", phase)
+                .tag("outcome", success ? SUCCESS : FAILURE)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static Tags tags(String operation, String planId, String clientMode) {
+        return Tags.of("operation", operation,
+                "plan", planId != null ? planId : NONE,
+                "client_mode", clientMode != null ? clientMode : NONE);
+    }
+}
@@ -0,0 +1,181 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.util.MapUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorts update parameters into settings Elasticsearch can apply at runtime via
+ * <code>_cluster/settings</code> and <code>_settings</code>, and static settings, which
+ * still have to be rendered into the deployment manifest.
+ */
+public class ElasticsearchSettings {
+
+    private static final String ELASTICSEARCH = "elasticsearch";
+    private static final String INDEX_PREFIX = "index.";
+    private static final String SLOWLOG = "slowlog";
+
+    private static final Map<String, String> SLOWLOG_THRESHOLDS = new HashMap<>();
+
+    private static final List<String> SLOWLOG_LEVELS = Arrays.asList("warn", "info", "debug", "trace");
+
+    static {
+        SLOWLOG_THRESHOLDS.put("search", "index.search.slowlog.threshold.query.");
+        SLOWLOG_THRESHOLDS.put("fetch", "index.search.slowlog.threshold.fetch.");
+        SLOWLOG_THRESHOLDS.put("indexing", "index.indexing.slowlog.threshold.index.");
+    }
+
+    private static final List<String> DYNAMIC_CLUSTER_SETTINGS = Arrays.asList(
+            "action.auto_create_index",
+            "action.destructive_requires_name",
+            "cluster.info.update.interval",
+            "cluster.max_shards_per_node",
+            "cluster.routing.allocation.",
+            "cluster.routing.rebalance.enable",
+            "indices.breaker.",
+            "indices.recovery.max_bytes_per_sec",
+            "indices.recovery.max_concurrent_file_chunks",
+            "logger.",
+            "script.max_compilations_rate",
+            "search.default_search_timeout",
+            "search.max_buckets",
+            "xpack.monitoring.collection.enabled"
+    );
+
+    private static final List<String> DYNAMIC_INDEX_SETTINGS = Arrays.asList(
+            "index.auto_expand_replicas",
+            "index.blocks.",
+            "index.indexing.slowlog.",
+            "index.max_result_window",
+            "index.merge.scheduler.max_thread_count",
+            "index.number_of_replicas",
+            "index.refresh_interval",
+            "index.requests.cache.enable",
+            "index.routing.allocation.",
+            "index.search.slowlog.",
+            "index.translog.durability",
+            "index.translog.flush_threshold_size",
+            "index.translog.sync_interval",
+            "index.unassigned.node_left.delayed_timeout"
+    );
+
+    private final Map<String, Object> clusterSettings = new HashMap<>();
+
+    private final Map<String, Object> indexSettings = new HashMap<>();
+
+    private final Map<String, Object> staticParameters = new HashMap<>();
+
+    private final Map<String, Object> slowlogSettings = new HashMap<>();
+
+    private ElasticsearchSettings() {
+    }
+
+    /**
+     * Splits the given parameters. Everything below the <code>elasticsearch</code> key is flattened
+     * to Elasticsearch setting names. Thresholds below the <code>slowlog</code> key, e.g.
+     * <code>slowlog.search.warn</code>, are translated to the slowlog index settings. All other
+     * keys are passed through as static parameters.
+     *
+     * @param parameters the parameters of an update request, may be null
+     * @return the classified settings
+     */
+    public static ElasticsearchSettings classify(Map<String, Object> parameters) {
+        final ElasticsearchSettings settings = new ElasticsearchSettings();
+
+        if (parameters == null) {
+            return settings;
+        }
+
+        parameters.forEach((key, value) -> {
+            if (key.equals(ELASTICSEARCH) && value instanceof Map) {
+                final Map<String, Object> flattened = new HashMap<>();
+                flatten("", (Map<String, Object>) value, flattened);
+                flattened.forEach(settings::add);
+            } else if (key.equals(SLOWLOG) && value instanceof Map) {
+                settings.addSlowlog((Map<String, Object>) value);
+            } else {
+                settings.staticParameters.put(key, value);
+            }
+        });
+
+        return settings;
+    }
+
+    private static void flatten(String prefix, Map<String, Object> source, Map<String, Object> target) {
+        source.forEach((key, value) -> {
+            if (value instanceof Map && !((Map) value).isEmpty()) {
+                flatten(prefix + key + ".", (Map<String, Object>) value, target);
+            } else {
+                target.put(prefix + key, value);
+            }
+        });
+    }
+
+    private static boolean matches(List<String> dynamicSettings, String key) {
+        return dynamicSettings.stream().anyMatch(s -> s.endsWith(".") ? key.startsWith(s) : key.equals(s));
+    }
+
+    private void addSlowlog(Map<String, Object> slowlog) {
+        slowlog.forEach((type, thresholds) -> {
+            final String prefix = SLOWLOG_THRESHOLDS.get(type);
+            if (prefix == null || !(thresholds instanceof Map)) {
+                MapUtils.deepInsert(staticParameters, SLOWLOG + "." + type, thresholds);
+                return;
+            }
+
+            ((Map<String, Object>) thresholds).forEach((level, threshold) -> {
+                if (SLOWLOG_LEVELS.contains(level)) {
+                    slowlogSettings.put(prefix + level, threshold);
+                    indexSettings.put(prefix + level, threshold);
+                } else {
+                    MapUtils.deepInsert(staticParameters, SLOWLOG + "." + type + "." + level, threshold);
+                }
+            });
+        });
+    }
+
+    private void add(String key, Object value) {
+        if (key.startsWith(INDEX_PREFIX) && matches(DYNAMIC_INDEX_SETTINGS, key)) {
+            indexSettings.put(key, value);
+            if (key.contains(".slowlog.")) {
+                slowlogSettings.put(key, value);
+            }
+        } else if (matches(DYNAMIC_CLUSTER_SETTINGS, key)) {
+            clusterSettings.put(key, value);
+        } else {
+            MapUtils.deepInsert(staticParameters, ELASTICSEARCH + "." + key, value);
+        }
+    }
+
+    public Map<String, Object> getClusterSettings() {
+        return clusterSettings;
+    }
+
+    public Map<String, Object> getIndexSettings() {
+        return indexSettings;
+    }
+
+    public Map<String, Object> getStaticParameters() {
+        return staticParameters;
+    }
+
+    /**
+     * Returns the slowlog thresholds, which are part of the index settings as well.
+     *
+     * @return the slowlog index settings, keyed by setting name
+     */
+    public Map<String, Object> getSlowlogSettings() {
+        return slowlogSettings;
+    }
+
+    public boolean hasDynamicSettings() {
+        return !clusterSettings.isEmpty() || !indexSettings.isEmpty();
+    }
+
+    public boolean hasStaticParameters() {
+        return !staticParameters.isEmpty();
+    }
+}
@@ -0,0 +1,132 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexTemplatesRequest;
+import org.elasticsearch.client.indices.IndexTemplatesExistRequest;
+import org.elasticsearch.client.indices.PutIndexTemplateRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Applies dynamic cluster and index settings to a running service instance without
+ * redeploying it.
+ */
+@Service
+public class ElasticsearchSettingsService {
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticsearchSettingsService.class);
+
+    static final String SLOWLOG_TEMPLATE = "broker-slowlog";
+
+    // Lowest order, so templates of bindings and applications override the thresholds
+    private static final int SLOWLOG_TEMPLATE_ORDER = -1;
+
+    // All indices except system indices like .security or .kibana, whose settings Elasticsearch manages
+    private static final String[] USER_INDICES = { "*", "-.*" };
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    public ElasticsearchSettingsService(ElasticsearchConnector elasticsearchConnector) {
+        this.elasticsearchConnector = elasticsearchConnector;
+    }
+
+    /**
+     * Applies the dynamic part of the given settings. Cluster settings are stored as persistent
+     * settings, index settings are applied to all open indices except system indices.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param settings the classified settings
+     * @throws ServiceBrokerException if no host is reachable or Elasticsearch rejects the settings
+     */
+    public void applyDynamicSettings(ServiceInstance serviceInstance, ElasticsearchSettings settings) throws ServiceBrokerException {
+        if (!settings.hasDynamicSettings()) {
+            return;
+        }
+
+        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot apply settings to service instance ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+
+        try {
+            applyClusterSettings(client, settings.getClusterSettings());
+            applyIndexSettings(client, settings.getIndexSettings());
+            applySlowlogTemplate(client, settings.getSlowlogSettings());
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot apply settings to service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        log.info(MessageFormat.format("Applied dynamic settings {0} and {1} to service instance ''{2}''.",
+                settings.getClusterSettings().keySet(), settings.getIndexSettings().keySet(), serviceInstance.getId()));
+    }
+
+    private void applyClusterSettings(RestHighLevelClient client, Map<String, Object> clusterSettings) throws IOException {
+        if (clusterSettings.isEmpty()) {
+            return;
+        }
+
+        ClusterUpdateSettingsRequest request = new ClusterUpdateSettingsRequest();
+        request.persistentSettings(clusterSettings);
+
+        client.cluster().putSettings(request, RequestOptions.DEFAULT);
+    }
+
+    private void applyIndexSettings(RestHighLevelClient client, Map<String, Object> indexSettings) throws IOException {
+        if (indexSettings.isEmpty()) {
+            return;
+        }
+
+        UpdateSettingsRequest request = new UpdateSettingsRequest(USER_INDICES);
+        request.settings(indexSettings);
+        request.indicesOptions(IndicesOptions.lenientExpandOpen());
+
+        client.indices().putSettings(request, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Keeps the slowlog thresholds in an index template matching all indices, so indices
+     * created later use them as well. Thresholds set before are kept unless overridden.
+     */
+    private void applySlowlogTemplate(RestHighLevelClient client, Map<String, Object> slowlogSettings) throws IOException {
+        if (slowlogSettings.isEmpty()) {
+            return;
+        }
+
+        final Settings.Builder settings = Settings.builder();
+        if (client.indices().existsTemplate(new IndexTemplatesExistRequest(SLOWLOG_TEMPLATE), RequestOptions.DEFAULT)) {
+            client.indices().getIndexTemplate(new GetIndexTemplatesRequest(SLOWLOG_TEMPLATE), RequestOptions.DEFAULT)
+                    .getIndexTemplates()
+                    .forEach(t -> settings.put(t.settings()));
+        }
+        slowlogSettings.forEach((key, value) -> settings.put(key, value.toString()));
+
+        client.indices().putTemplate(new PutIndexTemplateRequest(SLOWLOG_TEMPLATE)
+                .patterns(Collections.singletonList("*"))
+                .order(SLOWLOG_TEMPLATE_ORDER)
+                .settings(settings), RequestOptions.DEFAULT);
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.evoila.cf.broker.service.custom;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import org.apache.http.HttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * OpenTelemetry spans for broker operations and propagation of the trace context to Elasticsearch.
+ * Spans are recorded with the globally registered OpenTelemetry instance, e.g. the one installed
+ * by the OpenTelemetry Java agent, and are no-ops if none is registered.
+ */
+@Component
+public class ElasticsearchTracing {
+
+    private static final String INSTRUMENTATION_NAME = "osb-elasticsearch";
+
+    private static final TextMapSetter<org.apache.http.HttpRequest> APACHE_SETTER = (request, key, value) -> request.setHeader(key, value);
+
+    private static final TextMapSetter<org.springframework.http.HttpRequest> SPRING_SETTER = (request, key, value) -> request.getHeaders().set(key, value);
+
+    private final Tracer tracer = GlobalOpenTelemetry.getTracer(INSTRUMENTATION_NAME);
+
+    /**
+     * Starts a span as child of the current span.
+     *
+     * @param name the span name
+     * @param kind the span kind
+     * @param attributes string attributes of the span, null values are skipped
+     * @return the started span, must be ended by the caller
+     */
+    public Span start(String name, SpanKind kind, Map<String, String> attributes) {
+        return start(name, kind, Context.current(), attributes);
+    }
+
+    public Span start(String name, SpanKind kind, Context parent, Map<String, String> attributes) {
+        final SpanBuilder builder = tracer.spanBuilder(name)
+                .setSpanKind(kind)
+                .setParent(parent);
+        attributes.forEach((key, value) -> {
+            if (value != null) {
+                builder.setAttribute(key, value);
+            }
+        });
+        return builder.startSpan();
+    }
+
+    /**
+     * Runs the call in a span, which is marked as failed if the call throws.
+     */
+    public <T, E extends Exception> T trace(String name, Map<String, String> attributes,
+                                            ElasticsearchMetrics.TimedCall<T, E> call) throws E {
+        final Span span = start(name, SpanKind.INTERNAL, attributes);
+        try (Scope scope = span.makeCurrent()) {
+            return call.call();
+        } catch (Exception | Error e) {
+            failed(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    public void failed(Span span, Throwable throwable) {
+        span.recordException(throwable);
+        span.setStatus(StatusCode.ERROR);
+    }
+
+    public <C> Context extract(C carrier, TextMapGetter<C> getter) {
+        return propagator().extract(Context.current(), carrier, getter);
+    }
+
+    /**
+     * Interceptor for the Apache HTTP client of the Elasticsearch REST client, which adds the
+     * trace context of the calling thread as headers.
+     */
+    public HttpRequestInterceptor httpRequestInterceptor() {
+        return (request, context) -> propagator().inject(Context.current(), request, APACHE_SETTER);
+    }
+
+    /**
+     * Interceptor for RestTemplates, which adds the trace context of the calling thread as headers.
+     */
+    public ClientHttpRequestInterceptor clientHttpRequestInterceptor() {
+        return (request, body, execution) -> {
+            propagator().inject(Context.current(), request, SPRING_SETTER);
+            return execution.execute(request, body);
+        };
+    }
+
+    private static TextMapPropagator propagator() {
+        return GlobalOpenTelemetry.getPropagators().getTextMapPropagator();
+    }
+}
@@ -0,0 +1,253 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.service.custom.model.FleetHealthPage;
+import de.evoila.cf.broker.service.custom.model.InstanceHealth;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Polls cluster health and a few node statistics of all service instances known to the broker
+ * in the background and keeps the results as an in-memory snapshot, so the dashboard can page
+ * and filter the health of the whole fleet without touching a single cluster.
+ * <p>
+ * At most <code>elasticsearch.health.parallelism</code> instances are polled at the same time,
+ * instances which do not answer within <code>elasticsearch.health.timeout</code> are reported
+ * as unreachable.
+ */
+@Service
+public class FleetHealthService implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(FleetHealthService.class);
+
+    private static final String NODES_STATS_ENDPOINT = "/_nodes/stats/fs,thread_pool";
+
+    private static final String NODES_STATS_FILTER = "nodes.*.fs.total.total_in_bytes,nodes.*.fs.total.available_in_bytes,nodes.*.thread_pool.write.rejected";
+
+    private static final Comparator<InstanceHealth> ORDER = Comparator
+            .comparing(InstanceHealth::getStatus, Comparator.reverseOrder())
+            .thenComparing(InstanceHealth::getServiceInstanceId);
+
+    private final ElasticsearchHostRegistry hostRegistry;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ElasticsearchProperties.Health properties;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, InstanceHealth> health = new ConcurrentHashMap<>();
+
+    private volatile List<InstanceHealth> snapshot = Collections.emptyList();
+
+    private volatile long updatedAt;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "elasticsearch-fleet-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService executorService;
+
+    private final Semaphore permits;
+
+    public FleetHealthService(ElasticsearchHostRegistry hostRegistry, ServiceInstanceCache serviceInstanceCache,
+                              ElasticsearchConnector elasticsearchConnector, ElasticsearchProperties elasticsearchProperties) {
+        this.hostRegistry = hostRegistry;
+        this.serviceInstanceCache = serviceInstanceCache;
+        this.elasticsearchConnector = elasticsearchConnector;
+        this.properties = elasticsearchProperties.getHealth();
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, properties.getParallelism()), r -> {
+            Thread thread = new Thread(r, "elasticsearch-fleet-health-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.permits = new Semaphore(Math.max(1, properties.getParallelism()));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (properties.isEnabled()) {
+            final long interval = properties.getInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Polls all known service instances once and replaces the snapshot. Instances which are no
+     * longer known to the broker are dropped from the snapshot.
+     */
+    public void poll() {
+        try {
+            final long start = System.nanoTime();
+            final Set<String> serviceInstanceIds = hostRegistry.getServiceInstanceIds();
+            final long timeout = properties.getTimeout().toMillis();
+
+            final List<CompletableFuture<Void>> checks = new ArrayList<>();
+            for (String id : serviceInstanceIds) {
+                permits.acquire();
+
+                final CompletableFuture<InstanceHealth> check = CompletableFuture.supplyAsync(() -> check(id), executorService);
+                // The permit is only returned once the check really finished, a timed out check still occupies its slot
+                check.whenComplete((result, e) -> permits.release());
+
+                checks.add(check.copy()
+                        .orTimeout(timeout, TimeUnit.MILLISECONDS)
+                        .handle((result, e) -> e == null ? result
+                                : InstanceHealth.unreachable(id, planId(id), System.currentTimeMillis(), "Timed out."))
+                        .thenAccept(result -> {
+                            if (result != null) {
+                                health.put(id, result);
+                            } else {
+                                health.remove(id);
+                            }
+                        }));
+            }
+            CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).join();
+
+            health.keySet().retainAll(serviceInstanceIds);
+            final List<InstanceHealth> sorted = new ArrayList<>(health.values());
+            sorted.sort(ORDER);
+            snapshot = Collections.unmodifiableList(sorted);
+            updatedAt = System.currentTimeMillis();
+
+            if (log.isInfoEnabled()) {
+                log.info(MessageFormat.format("Polled health of {0} service instances in {1} ms, {2} not green.",
+                        sorted.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        sorted.stream().filter(h -> h.getStatus() != InstanceHealth.Status.GREEN).count()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Polling the fleet health failed. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns one page of the current snapshot, ordered by status (worst first) and service instance id.
+     *
+     * @param filter the filter, matching instances are counted in the total
+     * @param page the zero based page
+     * @param size the page size
+     * @return the page
+     */
+    public FleetHealthPage getHealth(Predicate<InstanceHealth> filter, int page, int size) {
+        final List<InstanceHealth> matching = snapshot.stream()
+                .filter(filter)
+                .collect(Collectors.toList());
+
+        final int from = (int) Math.min((long) page * size, matching.size());
+        final int to = Math.min(from + size, matching.size());
+
+        return new FleetHealthPage(new ArrayList<>(matching.subList(from, to)), page, size, matching.size(), updatedAt);
+    }
+
+    private InstanceHealth check(String serviceInstanceId) {
+        final ServiceInstance serviceInstance;
+        try {
+            serviceInstance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
+        } catch (ServiceInstanceDoesNotExistException e) {
+            return null;
+        }
+        if (serviceInstance == null) {
+            return null;
+        }
+
+        final long checkedAt = System.currentTimeMillis();
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            return InstanceHealth.unreachable(serviceInstanceId, serviceInstance.getPlanId(), checkedAt, "No available hosts.");
+        }
+
+        try {
+            final ClusterHealthResponse clusterHealth = client.cluster().health(new ClusterHealthRequest(), RequestOptions.DEFAULT);
+
+            final Request request = new Request("GET", NODES_STATS_ENDPOINT);
+            request.addParameter("filter_path", NODES_STATS_FILTER);
+            final Response response = client.getLowLevelClient().performRequest(request);
+
+            final JsonNode nodes;
+            try (InputStream content = response.getEntity().getContent()) {
+                nodes = objectMapper.readTree(content).path("nodes");
+            }
+
+            double maxDiskUsedPercent = 0;
+            long writeRejections = 0;
+            for (JsonNode node : nodes) {
+                final JsonNode fs = node.path("fs").path("total");
+                final long total = fs.path("total_in_bytes").asLong();
+                if (total > 0) {
+                    maxDiskUsedPercent = Math.max(maxDiskUsedPercent, 100.0 * (total - fs.path("available_in_bytes").asLong()) / total);
+                }
+                writeRejections += node.path("thread_pool").path("write").path("rejected").asLong();
+            }
+
+            final InstanceHealth previous = health.get(serviceInstanceId);
+            final boolean rejectingWrites = previous != null && previous.getStatus() != InstanceHealth.Status.UNREACHABLE
+                    && writeRejections > previous.getWriteRejections();
+
+            return new InstanceHealth(serviceInstanceId, serviceInstance.getPlanId(),
+                    InstanceHealth.Status.of(clusterHealth.getStatus().name()), clusterHealth.getNumberOfNodes(),
+                    clusterHealth.getUnassignedShards(), maxDiskUsedPercent, writeRejections, rejectingWrites, checkedAt);
+        } catch (IOException | RuntimeException e) {
+            return InstanceHealth.unreachable(serviceInstanceId, serviceInstance.getPlanId(), checkedAt, e.getMessage());
+        } finally {
+            close(client);
+        }
+    }
+
+    private String planId(String serviceInstanceId) {
+        final InstanceHealth previous = health.get(serviceInstanceId);
+        return previous != null ? previous.getPlanId() : null;
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        executorService.shutdownNow();
+    }
+}
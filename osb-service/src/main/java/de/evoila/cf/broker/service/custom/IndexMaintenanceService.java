@@ -0,0 +1,462 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.exception.ServiceDefinitionDoesNotExistException;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.service.CatalogService;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts indices which stopped receiving writes, following the {@link MaintenancePolicy} of
+ * each service instance known to the broker.
+ * <p>
+ * Elasticsearch keeps no time of the last write of an index, so every run compares the indexing
+ * and delete totals of each index with those of the previous run. An index counts as idle once
+ * they have not changed for the idle time of the policy, a restart of the broker or a relocated
+ * shard starts the clock again. Inside the window of the policy, idle indices with more than one
+ * segment per shard get a write block and are force merged to one segment. Running force merges
+ * are counted per node from the task list of the cluster, a merge is only started if all nodes
+ * holding a copy of the index are below <code>max_merges_per_node</code>.
+ */
+@Service
+public class IndexMaintenanceService implements InitializingBean, DisposableBean {
+
+    static final String POLICY_INDEX = ".broker-maintenance";
+
+    private static final Logger log = LoggerFactory.getLogger(IndexMaintenanceService.class);
+
+    private static final String POLICY_DOCUMENT = "/" + POLICY_INDEX + "/_doc/policy";
+    private static final String STATS_FILTER = "indices.*.primaries.indexing.index_total,indices.*.primaries.indexing.delete_total";
+    private static final String FORCE_MERGE_ACTIONS = "indices:admin/forcemerge*";
+
+    private final ElasticsearchHostRegistry hostRegistry;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    private final CatalogService catalogService;
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ElasticsearchProperties.Maintenance properties;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Write totals per service instance and index, as seen by the previous runs.
+     */
+    private final Map<String, Map<String, Activity>> activity = new ConcurrentHashMap<>();
+
+    /**
+     * Force merges sent by this broker which have not returned yet, as service instance id and index.
+     */
+    private final Set<String> merging = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "elasticsearch-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService executorService;
+
+    private final ExecutorService mergeExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "elasticsearch-maintenance-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IndexMaintenanceService(ElasticsearchHostRegistry hostRegistry, ServiceInstanceCache serviceInstanceCache,
+                                   CatalogService catalogService, ElasticsearchConnector elasticsearchConnector,
+                                   ElasticsearchProperties elasticsearchProperties) {
+        this.hostRegistry = hostRegistry;
+        this.serviceInstanceCache = serviceInstanceCache;
+        this.catalogService = catalogService;
+        this.elasticsearchConnector = elasticsearchConnector;
+        this.properties = elasticsearchProperties.getMaintenance();
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, properties.getParallelism()), r -> {
+            Thread thread = new Thread(r, "elasticsearch-maintenance-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (properties.isEnabled()) {
+            final long interval = properties.getInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stores the maintenance policy of a service instance in the instance itself, where it
+     * overrides the policy of the plan.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param policy the policy as given on create or update
+     * @throws ServiceBrokerException if the policy is invalid or can not be stored
+     */
+    public void storePolicy(ServiceInstance serviceInstance, Map<String, Object> policy) throws ServiceBrokerException {
+        MaintenancePolicy.validate(policy);
+
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot store maintenance policy of service instance ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+
+        try {
+            createPolicyIndex(client.getLowLevelClient());
+            final Request request = new Request("PUT", POLICY_DOCUMENT);
+            request.setJsonEntity(objectMapper.writeValueAsString(policy));
+            client.getLowLevelClient().performRequest(request);
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot store maintenance policy of service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+        } finally {
+            close(client);
+        }
+    }
+
+    /**
+     * Creates the policy index without replicas, expanding to one once there is a second node, so
+     * it does not turn single node clusters yellow.
+     */
+    private void createPolicyIndex(RestClient client) throws IOException {
+        final Request request = new Request("PUT", "/" + POLICY_INDEX);
+        request.setJsonEntity("{\"settings\":{\"index.number_of_shards\":1,\"index.number_of_replicas\":0,\"index.auto_expand_replicas\":\"0-1\"}}");
+        try {
+            client.performRequest(request);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() != 400
+                    || !EntityUtils.toString(e.getResponse().getEntity()).contains("resource_already_exists_exception")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the maintenance of all known service instances once.
+     */
+    public void run() {
+        try {
+            final Set<String> serviceInstanceIds = hostRegistry.getServiceInstanceIds();
+            activity.keySet().retainAll(serviceInstanceIds);
+
+            final List<CompletableFuture<Void>> runs = new ArrayList<>();
+            for (String id : serviceInstanceIds) {
+                runs.add(CompletableFuture.runAsync(() -> maintain(id), executorService));
+            }
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+        } catch (RuntimeException e) {
+            log.error("Index maintenance failed. " + e.getMessage());
+        }
+    }
+
+    private void maintain(String serviceInstanceId) {
+        final ServiceInstance serviceInstance;
+        final Plan plan;
+        try {
+            serviceInstance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
+            plan = serviceInstance == null ? null : catalogService.getServiceDefinition(serviceInstance.getServiceDefinitionId()).getPlans().stream()
+                    .filter(p -> p.getId().equals(serviceInstance.getPlanId()))
+                    .findFirst()
+                    .orElse(null);
+        } catch (ServiceInstanceDoesNotExistException | ServiceDefinitionDoesNotExistException e) {
+            activity.remove(serviceInstanceId);
+            return;
+        }
+
+        // Tenants of shared clusters must not block or merge the indices of the whole cluster
+        if (plan == null || SharedClusterService.isSharedCluster(plan)) {
+            activity.remove(serviceInstanceId);
+            return;
+        }
+
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            log.debug(MessageFormat.format("Skipping maintenance of service instance ''{0}''. No available hosts.", serviceInstanceId));
+            return;
+        }
+
+        try {
+            final Object planPolicy = plan.getMetadata() != null && plan.getMetadata().getCustomParameters() != null
+                    ? plan.getMetadata().getCustomParameters().get(MaintenancePolicy.MAINTENANCE) : null;
+            final MaintenancePolicy policy = MaintenancePolicy.of(planPolicy instanceof Map ? (Map<String, Object>) planPolicy : null,
+                    instancePolicy(client.getLowLevelClient()));
+            if (policy == null) {
+                activity.remove(serviceInstanceId);
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            final Map<String, Activity> indices = track(client.getLowLevelClient(), serviceInstanceId, policy, now);
+            if (policy.inWindow(Instant.ofEpochMilli(now))) {
+                compact(client.getLowLevelClient(), serviceInstanceId, policy, indices, now);
+            }
+        } catch (IOException | ServiceBrokerException | RuntimeException e) {
+            log.warn(MessageFormat.format("Maintenance of service instance ''{0}'' failed. {1}", serviceInstanceId, e.getMessage()));
+        } finally {
+            close(client);
+        }
+    }
+
+    private Map<String, Object> instancePolicy(RestClient client) throws IOException {
+        try {
+            final JsonNode source = read(client.performRequest(new Request("GET", POLICY_DOCUMENT))).path("_source");
+            return objectMapper.convertValue(source, Map.class);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Updates the write totals of all covered indices and returns them.
+     */
+    private Map<String, Activity> track(RestClient client, String serviceInstanceId, MaintenancePolicy policy, long now) throws IOException {
+        final Request statsRequest = new Request("GET", "/_stats/indexing");
+        statsRequest.addParameter("level", "indices");
+        statsRequest.addParameter("filter_path", STATS_FILTER);
+        final JsonNode stats = read(client.performRequest(statsRequest)).path("indices");
+
+        final Map<String, Activity> previous = activity.getOrDefault(serviceInstanceId, Collections.emptyMap());
+        final Map<String, Activity> current = new HashMap<>();
+        stats.fields().forEachRemaining(index -> {
+            if (!policy.matches(index.getKey())) {
+                return;
+            }
+
+            final JsonNode indexing = index.getValue().path("primaries").path("indexing");
+            final long writes = indexing.path("index_total").asLong() + indexing.path("delete_total").asLong();
+            final Activity seen = previous.get(index.getKey());
+            current.put(index.getKey(), seen != null && seen.writes == writes ? seen : new Activity(writes, now));
+        });
+
+        activity.put(serviceInstanceId, current);
+        return current;
+    }
+
+    private void compact(RestClient client, String serviceInstanceId, MaintenancePolicy policy, Map<String, Activity> indices,
+                         long now) throws IOException {
+        final long idleAfter = policy.getIdleAfter().toMillis();
+        final Set<String> writeIndices = writeIndices(client);
+        final Set<String> idle = new HashSet<>();
+        indices.forEach((index, seen) -> {
+            if (now - seen.since >= idleAfter && !merging.contains(serviceInstanceId + "/" + index) && !writeIndices.contains(index)) {
+                idle.add(index);
+            }
+        });
+        if (idle.isEmpty()) {
+            return;
+        }
+
+        // Shard copies, their nodes and segments of all idle indices
+        final Request shardsRequest = new Request("GET", "/_cat/shards");
+        shardsRequest.addParameter("format", "json");
+        shardsRequest.addParameter("h", "index,state,id,segments.count");
+        final Map<String, Shards> shards = new HashMap<>();
+        for (JsonNode shard : read(client.performRequest(shardsRequest))) {
+            final String index = shard.path("index").asText();
+            if (idle.contains(index)) {
+                shards.computeIfAbsent(index, i -> new Shards(i)).add(shard);
+            }
+        }
+
+        final Map<String, Integer> runningMerges = runningMerges(client);
+        final List<Shards> candidates = new ArrayList<>();
+        shards.values().forEach(s -> {
+            if (s.started && s.segments > s.copies) {
+                candidates.add(s);
+            }
+        });
+        candidates.sort(Comparator.comparingDouble((Shards s) -> (double) s.segments / s.copies).reversed());
+
+        for (Shards candidate : candidates) {
+            if (candidate.nodes.stream().anyMatch(n -> runningMerges.getOrDefault(n, 0) >= policy.getMaxMergesPerNode())) {
+                continue;
+            }
+            candidate.nodes.forEach(n -> runningMerges.merge(n, 1, Integer::sum));
+
+            final Request block = new Request("PUT", "/" + candidate.index + "/_settings");
+            block.setJsonEntity("{\"index.blocks.write\":true}");
+            client.performRequest(block);
+
+            merging.add(serviceInstanceId + "/" + candidate.index);
+            mergeExecutor.submit(() -> forceMerge(serviceInstanceId, candidate.index));
+
+            log.info(MessageFormat.format("Force merging idle index ''{0}'' of service instance ''{1}'' with {2} segments in {3} shard copies.",
+                    candidate.index, serviceInstanceId, candidate.segments, candidate.copies));
+        }
+    }
+
+    /**
+     * Returns the indices aliases write to, i.e. those marked as <code>is_write_index</code> and the
+     * single index of an alias without a marked write index. A quiet write index, e.g. of a rollover
+     * alias, must not get a write block, the next write through the alias would fail.
+     */
+    private Set<String> writeIndices(RestClient client) throws IOException {
+        final Map<String, List<String>> indicesByAlias = new HashMap<>();
+        final Set<String> writeIndices = new HashSet<>();
+        final Set<String> aliasesWithWriteIndex = new HashSet<>();
+
+        read(client.performRequest(new Request("GET", "/_alias"))).fields().forEachRemaining(index ->
+                index.getValue().path("aliases").fields().forEachRemaining(alias -> {
+                    indicesByAlias.computeIfAbsent(alias.getKey(), a -> new ArrayList<>()).add(index.getKey());
+                    if (alias.getValue().path("is_write_index").asBoolean(false)) {
+                        writeIndices.add(index.getKey());
+                        aliasesWithWriteIndex.add(alias.getKey());
+                    }
+                }));
+
+        indicesByAlias.forEach((alias, aliasIndices) -> {
+            if (aliasIndices.size() == 1 && !aliasesWithWriteIndex.contains(alias)) {
+                writeIndices.add(aliasIndices.get(0));
+            }
+        });
+        return writeIndices;
+    }
+
+    /**
+     * Counts the force merges running or queued per node id, including those not started by this broker.
+     */
+    private Map<String, Integer> runningMerges(RestClient client) throws IOException {
+        final Request tasksRequest = new Request("GET", "/_tasks");
+        tasksRequest.addParameter("actions", FORCE_MERGE_ACTIONS);
+        tasksRequest.addParameter("filter_path", "nodes.*.tasks.*.action");
+
+        final Map<String, Integer> running = new HashMap<>();
+        read(client.performRequest(tasksRequest)).path("nodes").fields().forEachRemaining(node -> {
+            final int[] count = {0};
+            // The shard level tasks run on the nodes holding the shards, the coordinating task does not merge
+            node.getValue().path("tasks").forEach(task -> {
+                if (task.path("action").asText().endsWith("[n]")) {
+                    count[0]++;
+                }
+            });
+            running.put(node.getKey(), count[0]);
+        });
+        return running;
+    }
+
+    /**
+     * Sends the force merge. It keeps running in the cluster if the request times out on the
+     * client side, the next runs see it in the task list.
+     */
+    private void forceMerge(String serviceInstanceId, String index) {
+        try {
+            final ServiceInstance serviceInstance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
+            final RestHighLevelClient client = serviceInstance == null ? null : elasticsearchConnector.createElasticClient(serviceInstance);
+            if (client == null) {
+                return;
+            }
+
+            try {
+                final Request request = new Request("POST", "/" + index + "/_forcemerge");
+                request.addParameter("max_num_segments", "1");
+                client.getLowLevelClient().performRequest(request);
+                log.info(MessageFormat.format("Force merged index ''{0}'' of service instance ''{1}''.", index, serviceInstanceId));
+            } catch (SocketTimeoutException e) {
+                log.debug(MessageFormat.format("Force merge of index ''{0}'' continues in the background.", index));
+            } catch (IOException e) {
+                log.warn(MessageFormat.format("Cannot force merge index ''{0}'' of service instance ''{1}''. {2}", index, serviceInstanceId, e.getMessage()));
+            } finally {
+                close(client);
+            }
+        } catch (ServiceInstanceDoesNotExistException e) {
+            log.debug(MessageFormat.format("Service instance ''{0}'' was deleted before its index ''{1}'' was merged.", serviceInstanceId, index));
+        } finally {
+            merging.remove(serviceInstanceId + "/" + index);
+        }
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content);
+        }
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        executorService.shutdownNow();
+        mergeExecutor.shutdownNow();
+    }
+
+    private static class Activity {
+        private final long writes;
+        private final long since;
+
+        Activity(long writes, long since) {
+            this.writes = writes;
+            this.since = since;
+        }
+    }
+
+    private static class Shards {
+        private final String index;
+        private final Set<String> nodes = new HashSet<>();
+        private int copies;
+        private long segments;
+        private boolean started = true;
+
+        Shards(String index) {
+            this.index = index;
+        }
+
+        void add(JsonNode shard) {
+            // Unassigned copies are not merged, the index is retried once all copies are started
+            if (!"STARTED".equals(shard.path("state").asText())) {
+                started = false;
+                return;
+            }
+            copies++;
+            segments += shard.path("segments.count").asLong();
+            nodes.add(shard.path("id").asText());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.evoila.cf.broker.service.custom;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shard count, replicas, refresh interval and rollover conditions of the indices of a binding,
+ * derived from its expected data volume and the data nodes of the service instance.
+ * <p>
+ * Indices roll over daily or when their primary shards reach the target shard size, whatever
+ * comes first, so the shard size stays bounded whatever the volume. Primaries of the write index
+ * are kept at or below the number of data nodes, write heavy bindings spread them over all data
+ * nodes to parallelize indexing.
+ */
+public class IndexSizing {
+
+    static final int SSD_TARGET_SHARD_GB = 40;
+    static final int HDD_TARGET_SHARD_GB = 25;
+    static final String ROLLOVER_MAX_AGE = "1d";
+
+    private final int shards;
+
+    private final int replicas;
+
+    private final String refreshInterval;
+
+    private final int rolloverMaxSizeGb;
+
+    private IndexSizing(int shards, int replicas, String refreshInterval, int rolloverMaxSizeGb) {
+        this.shards = shards;
+        this.replicas = replicas;
+        this.refreshInterval = refreshInterval;
+        this.rolloverMaxSizeGb = rolloverMaxSizeGb;
+    }
+
+    /**
+     * Computes the sizing of the indices of a binding.
+     *
+     * @param parameters the sizing parameters of the binding, must not be null
+     * @param dataNodes the number of data nodes of the service instance
+     * @param ssd whether the data nodes use SSD backed persistent disks
+     * @return the sizing
+     */
+    public static IndexSizing compute(IndexSizingParameters parameters, int dataNodes, boolean ssd) {
+        final int nodes = Math.max(1, dataNodes);
+        final int targetShardGb = ssd ? SSD_TARGET_SHARD_GB : HDD_TARGET_SHARD_GB;
+        final int needed = (int) Math.ceil(parameters.getExpectedDailyGb() / targetShardGb);
+
+        final int shards = parameters.isWriteHeavy() ? nodes : Math.max(1, Math.min(needed, nodes));
+
+        final int replicas = nodes > 1 ? 1 : 0;
+
+        final String refreshInterval;
+        if (parameters.isWriteHeavy()) {
+            refreshInterval = ssd ? "15s" : "30s";
+        } else {
+            refreshInterval = ssd ? "1s" : "5s";
+        }
+
+        return new IndexSizing(shards, replicas, refreshInterval, shards * targetShardGb);
+    }
+
+    /**
+     * Returns the settings for the index template of the binding.
+     *
+     * @return the index settings, keyed by setting name
+     */
+    public Map<String, Object> toIndexSettings() {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("index.number_of_shards", shards);
+        settings.put("index.number_of_replicas", replicas);
+        settings.put("index.refresh_interval", refreshInterval);
+        return settings;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public String getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public int getRolloverMaxSizeGb() {
+        return rolloverMaxSizeGb;
+    }
+
+    public String getRolloverMaxAge() {
+        return ROLLOVER_MAX_AGE;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexSizing{" +
+                "shards=" + shards +
+                ", replicas=" + replicas +
+                ", refreshInterval='" + refreshInterval + '\'' +
+                ", rolloverMaxSizeGb=" + rolloverMaxSizeGb +
+                '}';
+    }
+}
@@ -0,0 +1,90 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Bind parameters describing the expected data volume of a binding. If any of them is given,
+ * the broker installs an index template and a rollover alias sized for the service instance.
+ */
+public class IndexSizingParameters {
+
+    public static final String EXPECTED_DAILY_GB = "expected_daily_gb";
+    public static final String RETENTION_DAYS = "retention_days";
+    public static final String WRITE_HEAVY = "write_heavy";
+    public static final String INDEX_ALIAS = "index_alias";
+
+    private static final Pattern ALIAS_PATTERN = Pattern.compile("[a-z0-9][a-z0-9_\\-]{0,99}");
+
+    private final double expectedDailyGb;
+
+    private final Integer retentionDays;
+
+    private final boolean writeHeavy;
+
+    private final String alias;
+
+    private IndexSizingParameters(double expectedDailyGb, Integer retentionDays, boolean writeHeavy, String alias) {
+        this.expectedDailyGb = expectedDailyGb;
+        this.retentionDays = retentionDays;
+        this.writeHeavy = writeHeavy;
+        this.alias = alias;
+    }
+
+    /**
+     * Reads the sizing parameters from the parameters of a bind request.
+     *
+     * @param parameters the bind parameters, may be null
+     * @param bindingId the id of the binding, used as alias if none is given
+     * @return the sizing parameters, or null if the request does not contain any
+     * @throws ServiceBrokerException if a parameter has an invalid value
+     */
+    public static IndexSizingParameters of(Map<String, Object> parameters, String bindingId) throws ServiceBrokerException {
+        if (parameters == null || !(parameters.containsKey(EXPECTED_DAILY_GB) || parameters.containsKey(RETENTION_DAYS)
+                || parameters.containsKey(WRITE_HEAVY))) {
+            return null;
+        }
+
+        final Object expectedDailyGb = parameters.get(EXPECTED_DAILY_GB);
+        if (!(expectedDailyGb instanceof Number) || ((Number) expectedDailyGb).doubleValue() <= 0) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be a positive number.", EXPECTED_DAILY_GB));
+        }
+
+        final Object retentionDays = parameters.get(RETENTION_DAYS);
+        if (retentionDays != null && (!(retentionDays instanceof Integer) || (Integer) retentionDays <= 0)) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be a positive integer.", RETENTION_DAYS));
+        }
+
+        final Object writeHeavy = parameters.getOrDefault(WRITE_HEAVY, false);
+        if (!(writeHeavy instanceof Boolean)) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be a boolean.", WRITE_HEAVY));
+        }
+
+        final Object alias = parameters.getOrDefault(INDEX_ALIAS, bindingId);
+        if (!(alias instanceof String) || !ALIAS_PATTERN.matcher((String) alias).matches()) {
+            throw new ServiceBrokerException(MessageFormat.format("Parameter ''{0}'' must be a lowercase index name.", INDEX_ALIAS));
+        }
+
+        return new IndexSizingParameters(((Number) expectedDailyGb).doubleValue(), (Integer) retentionDays,
+                (Boolean) writeHeavy, (String) alias);
+    }
+
+    public double getExpectedDailyGb() {
+        return expectedDailyGb;
+    }
+
+    public Integer getRetentionDays() {
+        return retentionDays;
+    }
+
+    public boolean isWriteHeavy() {
+        return writeHeavy;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+}
@@ -0,0 +1,177 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.text.MessageFormat;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * When and which indices of a service instance the broker compacts, read from the
+ * <code>maintenance</code> custom parameter of the plan, overridden key by key by the one of the
+ * service instance.
+ * <p>
+ * Indices matching <code>index_patterns</code> without writes for <code>idle_after</code> are
+ * write blocked and force merged to a single segment per shard, inside the daily
+ * <code>window</code> only, with at most <code>max_merges_per_node</code> merges per node.
+ */
+public class MaintenancePolicy {
+
+    public static final String MAINTENANCE = "maintenance";
+
+    static final String ENABLED = "enabled";
+    static final String IDLE_AFTER = "idle_after";
+    static final String WINDOW = "window";
+    static final String ZONE = "zone";
+    static final String MAX_MERGES_PER_NODE = "max_merges_per_node";
+    static final String INDEX_PATTERNS = "index_patterns";
+
+    static final Duration DEFAULT_IDLE_AFTER = Duration.ofHours(24);
+    static final String DEFAULT_WINDOW = "01:00-05:00";
+    static final int DEFAULT_MAX_MERGES_PER_NODE = 1;
+
+    private final Duration idleAfter;
+
+    private final LocalTime windowStart;
+
+    private final LocalTime windowEnd;
+
+    private final ZoneId zone;
+
+    private final int maxMergesPerNode;
+
+    private final List<String> indexPatterns;
+
+    private MaintenancePolicy(Duration idleAfter, LocalTime windowStart, LocalTime windowEnd, ZoneId zone, int maxMergesPerNode,
+                              List<String> indexPatterns) {
+        this.idleAfter = idleAfter;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.zone = zone;
+        this.maxMergesPerNode = maxMergesPerNode;
+        this.indexPatterns = indexPatterns;
+    }
+
+    /**
+     * Combines the policy of the plan with the one of the service instance.
+     *
+     * @param planPolicy the <code>maintenance</code> custom parameter of the plan, may be null
+     * @param instancePolicy the stored policy of the service instance, may be null
+     * @return the policy, or null if neither defines one or it is disabled
+     * @throws ServiceBrokerException if a value is invalid
+     */
+    public static MaintenancePolicy of(Map<String, Object> planPolicy, Map<String, Object> instancePolicy) throws ServiceBrokerException {
+        if (planPolicy == null && instancePolicy == null) {
+            return null;
+        }
+
+        final Map<String, Object> values = new HashMap<>();
+        if (planPolicy != null) {
+            values.putAll(planPolicy);
+        }
+        if (instancePolicy != null) {
+            values.putAll(instancePolicy);
+        }
+
+        final MaintenancePolicy policy = parse(values);
+        return Boolean.FALSE.equals(values.get(ENABLED)) ? null : policy;
+    }
+
+    /**
+     * Checks the values of a policy given on create or update.
+     *
+     * @param values the policy
+     * @throws ServiceBrokerException if a value is invalid
+     */
+    public static void validate(Map<String, Object> values) throws ServiceBrokerException {
+        parse(values);
+    }
+
+    private static MaintenancePolicy parse(Map<String, Object> values) throws ServiceBrokerException {
+        if (values.get(ENABLED) != null && !(values.get(ENABLED) instanceof Boolean)) {
+            throw invalid(ENABLED, "true or false");
+        }
+
+        final Duration idleAfter;
+        try {
+            idleAfter = values.get(IDLE_AFTER) == null ? DEFAULT_IDLE_AFTER
+                    : Duration.ofMillis(TimeValue.parseTimeValue(values.get(IDLE_AFTER).toString(), IDLE_AFTER).millis());
+        } catch (RuntimeException e) {
+            throw invalid(IDLE_AFTER, "a time value like 24h");
+        }
+
+        final String window = values.getOrDefault(WINDOW, DEFAULT_WINDOW).toString();
+        final String[] bounds = window.split("-");
+        final LocalTime windowStart;
+        final LocalTime windowEnd;
+        try {
+            if (bounds.length != 2) {
+                throw new DateTimeException(window);
+            }
+            windowStart = LocalTime.parse(bounds[0].trim());
+            windowEnd = LocalTime.parse(bounds[1].trim());
+        } catch (DateTimeException e) {
+            throw invalid(WINDOW, "a daily window like 01:00-05:00");
+        }
+
+        final ZoneId zone;
+        try {
+            zone = values.get(ZONE) == null ? ZoneOffset.UTC : ZoneId.of(values.get(ZONE).toString());
+        } catch (DateTimeException e) {
+            throw invalid(ZONE, "a time zone like Europe/Berlin");
+        }
+
+        final Object maxMerges = values.getOrDefault(MAX_MERGES_PER_NODE, DEFAULT_MAX_MERGES_PER_NODE);
+        if (!(maxMerges instanceof Integer) || (Integer) maxMerges < 1) {
+            throw invalid(MAX_MERGES_PER_NODE, "a positive number");
+        }
+
+        final Object patterns = values.getOrDefault(INDEX_PATTERNS, Collections.singletonList("*"));
+        if (!(patterns instanceof List) || ((List<?>) patterns).isEmpty()
+                || !((List<?>) patterns).stream().allMatch(p -> p instanceof String && !((String) p).isEmpty())) {
+            throw invalid(INDEX_PATTERNS, "a non-empty list of strings");
+        }
+
+        return new MaintenancePolicy(idleAfter, windowStart, windowEnd, zone, (Integer) maxMerges, (List<String>) patterns);
+    }
+
+    private static ServiceBrokerException invalid(String key, String expected) {
+        return new ServiceBrokerException(MessageFormat.format("Maintenance parameter ''{0}'' must be {1}.", key, expected));
+    }
+
+    /**
+     * Checks whether the instant falls into the daily window, which may span midnight.
+     */
+    public boolean inWindow(Instant instant) {
+        final LocalTime time = instant.atZone(zone).toLocalTime();
+        if (windowStart.isBefore(windowEnd)) {
+            return !time.isBefore(windowStart) && time.isBefore(windowEnd);
+        }
+        return !time.isBefore(windowStart) || time.isBefore(windowEnd);
+    }
+
+    /**
+     * Checks whether the policy covers the index. System indices are never covered.
+     */
+    public boolean matches(String index) {
+        return !index.startsWith(".") && Regex.simpleMatch(indexPatterns, index);
+    }
+
+    public Duration getIdleAfter() {
+        return idleAfter;
+    }
+
+    public int getMaxMergesPerNode() {
+        return maxMergesPerNode;
+    }
+}
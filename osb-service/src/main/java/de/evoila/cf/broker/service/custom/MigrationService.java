@@ -0,0 +1,698 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.service.custom.model.Migration;
+import de.evoila.cf.broker.service.custom.model.MigrationIndex;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies indices from one service instance to another, e.g. when moving from a plan with
+ * <code>general_nodes</code> to a plan with dedicated node roles.
+ * <p>
+ * Every index is split into slices, at least one per primary shard and more for large shards,
+ * which are read with sliced scrolls and written with bulk requests in parallel. Documents keep
+ * their id and routing, so copying a slice again after a failure overwrites instead of
+ * duplicating. Completed slices are checkpoints, the state of a migration is stored in the
+ * {@link #STATE_INDEX} of the target instance after each one, a resumed migration skips them.
+ * <p>
+ * Target indices are created with the mappings, analysis settings and aliases of the source,
+ * without replicas and refresh until all slices are copied. The hosts and super admin
+ * credentials the broker keeps for both instances are used, so no remote reindex whitelist has
+ * to be deployed to the target.
+ */
+@Service
+public class MigrationService implements DisposableBean {
+
+    static final String STATE_INDEX = ".broker-migrations";
+
+    private static final Logger log = LoggerFactory.getLogger(MigrationService.class);
+
+    private static final int MAX_SLICES = 1024;
+    private static final int BULK_RETRIES = 3;
+    private static final long BULK_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Settings the source cluster keeps for its own copy of an index. All others are copied.
+     */
+    private static final List<String> INTERNAL_SETTINGS = Arrays.asList(
+            "index.uuid", "index.creation_date", "index.provided_name", "index.version.", "index.routing.",
+            "index.resize.", "index.blocks.", "index.lifecycle.", "index.shrink.", "index.history.");
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    private final ElasticsearchTracing tracing;
+
+    private final ElasticsearchProperties.Migration properties;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Migration> running = new ConcurrentHashMap<>();
+
+    private final ExecutorService migrationExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "elasticsearch-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService sliceExecutor;
+
+    public MigrationService(ElasticsearchConnector elasticsearchConnector, ServiceInstanceCache serviceInstanceCache,
+                            ElasticsearchTracing tracing, ElasticsearchProperties properties) {
+        this.elasticsearchConnector = elasticsearchConnector;
+        this.serviceInstanceCache = serviceInstanceCache;
+        this.tracing = tracing;
+        this.properties = properties.getMigration();
+        this.sliceExecutor = Executors.newFixedThreadPool(Math.max(1, this.properties.getParallelism()), r -> {
+            Thread thread = new Thread(r, "elasticsearch-migration-slice");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks whether the source of a migration may be read on behalf of the target. The broker
+     * reads the source with its admin credentials, so it has to belong to the same organization
+     * and space as the target.
+     *
+     * @param source the service instance to copy from, must not be null
+     * @param target the service instance to copy to, must not be null
+     * @return true if both service instances belong to the same organization and space
+     */
+    public static boolean isSameSpace(ServiceInstance source, ServiceInstance target) {
+        return source.getOrganizationGuid() != null && source.getSpaceGuid() != null
+                && source.getOrganizationGuid().equals(target.getOrganizationGuid())
+                && source.getSpaceGuid().equals(target.getSpaceGuid());
+    }
+
+    /**
+     * Plans a migration of all open indices matching the patterns and starts it in the background.
+     *
+     * @param source the service instance to copy from, must belong to the space of the target
+     * @param target the service instance to copy to, must not be null
+     * @param indexPatterns the index patterns to copy, system indices are never copied
+     * @param requestsPerSecond the maximum number of documents copied per second, 0 for no limit
+     * @param batchSize the number of documents per scroll page and bulk request, 0 for the default
+     * @return the started migration
+     * @throws ServiceBrokerException if the source belongs to another space, one of the instances is not
+     * reachable or the indices can not be read
+     */
+    public Migration start(ServiceInstance source, ServiceInstance target, List<String> indexPatterns,
+                           double requestsPerSecond, int batchSize) throws ServiceBrokerException {
+        if (!isSameSpace(source, target)) {
+            throw new ServiceBrokerException(MessageFormat.format("Source instance ''{0}'' does not belong to the space of service instance ''{1}''.",
+                    source.getId(), target.getId()));
+        }
+
+        final RestHighLevelClient sourceClient = client(source);
+        final List<MigrationIndex> indices = new ArrayList<>();
+        try {
+            final Request catIndices = new Request("GET", "/_cat/indices/" + String.join(",", indexPatterns));
+            catIndices.addParameter("format", "json");
+            catIndices.addParameter("h", "index,pri");
+            catIndices.addParameter("expand_wildcards", "open");
+            for (JsonNode index : read(sourceClient.getLowLevelClient().performRequest(catIndices))) {
+                final String name = index.path("index").asText();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+
+                final long docs = read(sourceClient.getLowLevelClient().performRequest(new Request("GET", "/" + name + "/_count"))).path("count").asLong();
+                indices.add(new MigrationIndex(name, slices(index.path("pri").asInt(1), docs), docs));
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot read indices of source instance ''{0}''. {1}", source.getId(), e.getMessage()));
+        } finally {
+            close(sourceClient);
+        }
+
+        final Migration migration = new Migration(UUID.randomUUID().toString(), source.getId(), target.getId(), requestsPerSecond,
+                batchSize > 0 ? batchSize : properties.getBatchSize(), indices);
+        migration.setStatus(Migration.RUNNING);
+        migration.setStartedAt(System.currentTimeMillis());
+
+        final RestHighLevelClient targetClient = client(target);
+        try {
+            persist(targetClient.getLowLevelClient(), migration);
+        } catch (IOException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot store migration in target instance ''{0}''. {1}", target.getId(), e.getMessage()));
+        } finally {
+            close(targetClient);
+        }
+
+        running.put(migration.getId(), migration);
+        migrationExecutor.submit(() -> run(migration));
+
+        log.info(MessageFormat.format("Started migration ''{0}'' of {1} indices from ''{2}'' to ''{3}''.",
+                migration.getId(), indices.size(), source.getId(), target.getId()));
+        return copy(migration);
+    }
+
+    /**
+     * Returns the progress of a migration, live while it runs in this broker.
+     *
+     * @param target the target service instance, must not be null
+     * @param migrationId the id of the migration
+     * @return the migration, or null if the target instance does not know it
+     * @throws ServiceBrokerException if the target instance is not reachable
+     */
+    public Migration get(ServiceInstance target, String migrationId) throws ServiceBrokerException {
+        final Migration migration = running.get(migrationId);
+        if (migration != null && migration.getTargetInstanceId().equals(target.getId())) {
+            return copy(migration);
+        }
+
+        final RestHighLevelClient client = client(target);
+        try {
+            return load(client.getLowLevelClient(), migrationId);
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot read migration ''{0}''. {1}", migrationId, e.getMessage()));
+        } finally {
+            close(client);
+        }
+    }
+
+    /**
+     * Resumes a failed or interrupted migration from its last checkpoint. The migration is read
+     * from the target instance, whose bindings can write it, so its source and target are checked
+     * again as on {@link #start}.
+     *
+     * @param target the target service instance, must not be null
+     * @param migrationId the id of the migration
+     * @return the resumed migration, or null if the target instance does not know it
+     * @throws ServiceBrokerException if the target instance is not reachable
+     * @throws IllegalStateException if the migration is running or has succeeded
+     * @throws IllegalArgumentException if the migration names another target or a source outside the space of the target
+     */
+    public Migration resume(ServiceInstance target, String migrationId) throws ServiceBrokerException {
+        if (running.containsKey(migrationId)) {
+            throw new IllegalStateException(MessageFormat.format("Migration ''{0}'' is running.", migrationId));
+        }
+
+        final RestHighLevelClient client = client(target);
+        final Migration migration;
+        try {
+            migration = load(client.getLowLevelClient(), migrationId);
+            if (migration == null) {
+                return null;
+            }
+            if (Migration.SUCCEEDED.equals(migration.getStatus())) {
+                throw new IllegalStateException(MessageFormat.format("Migration ''{0}'' has succeeded.", migrationId));
+            }
+            checkSource(migration, target);
+
+            // Documents of interrupted slices are counted again when their slice is copied again
+            migration.setStatus(Migration.RUNNING);
+            migration.setError(null);
+            migration.setFinishedAt(0);
+            migration.getIndices().forEach(i -> i.setDocsMigrated(i.getDocsCheckpointed()));
+            persist(client.getLowLevelClient(), migration);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot resume migration ''{0}''. {1}", migrationId, e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        if (running.putIfAbsent(migrationId, migration) != null) {
+            throw new IllegalStateException(MessageFormat.format("Migration ''{0}'' is running.", migrationId));
+        }
+        migrationExecutor.submit(() -> run(migration));
+
+        log.info(MessageFormat.format("Resumed migration ''{0}'' from ''{1}'' to ''{2}''.",
+                migrationId, migration.getSourceInstanceId(), migration.getTargetInstanceId()));
+        return copy(migration);
+    }
+
+    private void run(Migration migration) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("migration.id", migration.getId());
+        attributes.put("migration.source_instance_id", migration.getSourceInstanceId());
+        attributes.put("osb.service_instance_id", migration.getTargetInstanceId());
+
+        try {
+            tracing.trace("migration", attributes, () -> {
+                migrate(migration);
+                return null;
+            });
+            log.info(MessageFormat.format("Finished migration ''{0}''.", migration.getId()));
+        } catch (ServiceBrokerException | RuntimeException e) {
+            log.error(MessageFormat.format("Migration ''{0}'' failed. {1}", migration.getId(), e.getMessage()));
+        } finally {
+            running.remove(migration.getId());
+        }
+    }
+
+    private void migrate(Migration migration) throws ServiceBrokerException {
+        final ServiceInstance targetInstance = instance(migration.getTargetInstanceId());
+        final RestHighLevelClient targetClient;
+        try {
+            targetClient = client(targetInstance);
+        } catch (ServiceBrokerException e) {
+            fail(migration, e.getMessage());
+            throw e;
+        }
+
+        final RestHighLevelClient sourceClient;
+        try {
+            checkSource(migration, targetInstance);
+            sourceClient = client(instance(migration.getSourceInstanceId()));
+        } catch (ServiceBrokerException | IllegalArgumentException e) {
+            fail(migration, e.getMessage());
+            try {
+                persist(targetClient.getLowLevelClient(), migration);
+            } catch (IOException persistFailure) {
+                log.error(MessageFormat.format("Cannot store failed migration ''{0}''. {1}", migration.getId(), persistFailure.getMessage()));
+            } finally {
+                close(targetClient);
+            }
+            throw new ServiceBrokerException(e.getMessage());
+        }
+
+        final RestClient source = sourceClient.getLowLevelClient();
+        final RestClient target = targetClient.getLowLevelClient();
+        try {
+            final Throttle throttle = new Throttle(migration.getRequestsPerSecond());
+            for (MigrationIndex index : migration.getIndices()) {
+                if (!Migration.SUCCEEDED.equals(index.getStatus())) {
+                    migrateIndex(source, target, migration, index, throttle);
+                }
+            }
+
+            synchronized (migration) {
+                migration.setStatus(Migration.SUCCEEDED);
+                migration.setFinishedAt(System.currentTimeMillis());
+            }
+            persist(target, migration);
+        } catch (IOException | ServiceBrokerException | RuntimeException e) {
+            fail(migration, e.getMessage());
+            try {
+                persist(target, migration);
+            } catch (IOException persistFailure) {
+                log.error(MessageFormat.format("Cannot store failed migration ''{0}''. {1}", migration.getId(), persistFailure.getMessage()));
+            }
+            throw new ServiceBrokerException(e.getMessage());
+        } finally {
+            close(sourceClient);
+            close(targetClient);
+        }
+    }
+
+    private void migrateIndex(RestClient source, RestClient target, Migration migration, MigrationIndex index,
+                              Throttle throttle) throws IOException, ServiceBrokerException {
+        synchronized (migration) {
+            index.setStatus(Migration.RUNNING);
+        }
+        createTargetIndex(source, target, migration, index);
+
+        final List<Future<?>> slices = new ArrayList<>();
+        for (int slice = 0; slice < index.getSlices(); slice++) {
+            if (index.getCompletedSlices().contains(slice)) {
+                continue;
+            }
+
+            final int sliceId = slice;
+            slices.add(sliceExecutor.submit(() -> {
+                final long docs = copySlice(source, target, migration, index, sliceId, throttle);
+                synchronized (migration) {
+                    index.getCompletedSlices().add(sliceId);
+                    index.setDocsCheckpointed(index.getDocsCheckpointed() + docs);
+                }
+                persist(target, migration);
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> slice : slices) {
+                slice.get();
+            }
+        } catch (ExecutionException e) {
+            slices.forEach(s -> s.cancel(true));
+            throw new ServiceBrokerException(MessageFormat.format("Cannot copy index ''{0}''. {1}", index.getName(), e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+            slices.forEach(s -> s.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException(MessageFormat.format("Copying index ''{0}'' was interrupted.", index.getName()));
+        }
+
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("index.number_of_replicas", index.getNumberOfReplicas() != null ? index.getNumberOfReplicas() : "1");
+        settings.put("index.refresh_interval", index.getRefreshInterval());
+        perform(target, "PUT", "/" + index.getName() + "/_settings", settings);
+
+        synchronized (migration) {
+            index.setStatus(Migration.SUCCEEDED);
+        }
+        persist(target, migration);
+    }
+
+    /**
+     * Creates the target index with the settings, mappings and aliases of the source index, unless
+     * a previous run already did. Replicas and refresh are disabled while the slices are copied.
+     */
+    private void createTargetIndex(RestClient source, RestClient target, Migration migration, MigrationIndex index) throws IOException {
+        final Response exists = target.performRequest(new Request("HEAD", "/" + index.getName()));
+        if (exists.getStatusLine().getStatusCode() == 200) {
+            return;
+        }
+
+        final Request getIndex = new Request("GET", "/" + index.getName());
+        getIndex.addParameter("flat_settings", "true");
+        final JsonNode sourceIndex = read(source.performRequest(getIndex)).path(index.getName());
+
+        final Map<String, Object> settings = new HashMap<>();
+        sourceIndex.path("settings").fields().forEachRemaining(setting -> {
+            if (INTERNAL_SETTINGS.stream().noneMatch(prefix -> setting.getKey().startsWith(prefix))) {
+                settings.put(setting.getKey(), objectMapper.convertValue(setting.getValue(), Object.class));
+            }
+        });
+
+        synchronized (migration) {
+            index.setNumberOfReplicas(sourceIndex.path("settings").path("index.number_of_replicas").asText("1"));
+            index.setRefreshInterval(sourceIndex.path("settings").path("index.refresh_interval").asText(null));
+        }
+        settings.put("index.number_of_replicas", "0");
+        settings.put("index.refresh_interval", "-1");
+
+        final Map<String, Object> body = new HashMap<>();
+        body.put("settings", settings);
+        body.put("mappings", objectMapper.convertValue(sourceIndex.path("mappings"), Map.class));
+        body.put("aliases", objectMapper.convertValue(sourceIndex.path("aliases"), Map.class));
+        perform(target, "PUT", "/" + index.getName(), body);
+    }
+
+    private long copySlice(RestClient source, RestClient target, Migration migration, MigrationIndex index, int slice,
+                           Throttle throttle) throws IOException, ServiceBrokerException, InterruptedException {
+        final String keepAlive = properties.getScrollKeepAlive().toMillis() + "ms";
+
+        final Map<String, Object> search = new HashMap<>();
+        search.put("size", migration.getBatchSize());
+        search.put("sort", Collections.singletonList("_doc"));
+        if (index.getSlices() > 1) {
+            final Map<String, Object> sliceSpec = new HashMap<>();
+            sliceSpec.put("id", slice);
+            sliceSpec.put("max", index.getSlices());
+            search.put("slice", sliceSpec);
+        }
+
+        final Request searchRequest = new Request("POST", "/" + index.getName() + "/_search");
+        searchRequest.addParameter("scroll", keepAlive);
+        searchRequest.setJsonEntity(objectMapper.writeValueAsString(search));
+        JsonNode page = read(source.performRequest(searchRequest));
+
+        String scrollId = null;
+        long docs = 0;
+        try {
+            while (true) {
+                scrollId = page.path("_scroll_id").asText(null);
+                final JsonNode hits = page.path("hits").path("hits");
+                if (hits.size() == 0) {
+                    return docs;
+                }
+
+                throttle.acquire(hits.size());
+                bulk(target, index.getName(), hits);
+                docs += hits.size();
+                synchronized (migration) {
+                    index.setDocsMigrated(index.getDocsMigrated() + hits.size());
+                }
+
+                final Map<String, Object> scroll = new HashMap<>();
+                scroll.put("scroll", keepAlive);
+                scroll.put("scroll_id", scrollId);
+                final Request scrollRequest = new Request("POST", "/_search/scroll");
+                scrollRequest.setJsonEntity(objectMapper.writeValueAsString(scroll));
+                page = read(source.performRequest(scrollRequest));
+            }
+        } finally {
+            if (scrollId != null) {
+                try {
+                    perform(source, "DELETE", "/_search/scroll", Collections.singletonMap("scroll_id", Collections.singletonList(scrollId)));
+                } catch (IOException e) {
+                    log.debug(MessageFormat.format("Cannot clear scroll of index ''{0}''. {1}", index.getName(), e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a page of hits with their ids and routing. Documents rejected because the write queue
+     * of the target is full are sent again with a growing backoff, any other failure fails the slice.
+     */
+    private void bulk(RestClient target, String index, JsonNode hits) throws IOException, ServiceBrokerException, InterruptedException {
+        List<String> pending = new ArrayList<>();
+        for (JsonNode hit : hits) {
+            if (!hit.has("_source")) {
+                throw new ServiceBrokerException(MessageFormat.format("Index ''{0}'' has no _source and can not be copied.", index));
+            }
+
+            final Map<String, Object> action = new HashMap<>();
+            action.put("_index", index);
+            action.put("_id", hit.path("_id").asText());
+            if (hit.has("_routing")) {
+                action.put("routing", hit.path("_routing").asText());
+            }
+            pending.add(objectMapper.writeValueAsString(Collections.singletonMap("index", action)) + "\n"
+                    + objectMapper.writeValueAsString(hit.path("_source")) + "\n");
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            final Request request = new Request("POST", "/_bulk");
+            request.setEntity(new NStringEntity(String.join("", pending), ContentType.create("application/x-ndjson")));
+
+            final List<String> rejected = new ArrayList<>();
+            try {
+                final JsonNode response = read(target.performRequest(request));
+                if (response.path("errors").asBoolean()) {
+                    final Iterator<String> operations = pending.iterator();
+                    for (JsonNode item : response.path("items")) {
+                        final String operation = operations.next();
+                        final JsonNode result = item.path("index");
+                        if (result.path("status").asInt() == 429) {
+                            rejected.add(operation);
+                        } else if (result.has("error")) {
+                            throw new ServiceBrokerException(MessageFormat.format("Cannot write document ''{0}'' to index ''{1}''. {2}",
+                                    result.path("_id").asText(), index, result.path("error").path("reason").asText()));
+                        }
+                    }
+                }
+            } catch (ResponseException e) {
+                if (e.getResponse().getStatusLine().getStatusCode() != 429) {
+                    throw e;
+                }
+                rejected.addAll(pending);
+            }
+
+            if (rejected.isEmpty()) {
+                return;
+            }
+            if (attempt >= BULK_RETRIES) {
+                throw new ServiceBrokerException(MessageFormat.format("Target rejected {0} documents of index ''{1}'' after {2} retries.",
+                        rejected.size(), index, BULK_RETRIES));
+            }
+
+            TimeUnit.MILLISECONDS.sleep(BULK_BACKOFF_MILLIS << attempt);
+            pending = rejected;
+        }
+    }
+
+    /**
+     * Splits an index into one slice per primary shard, or more if its shards hold more than
+     * {@link ElasticsearchProperties.Migration#getSliceDocs()} documents each.
+     */
+    private int slices(int primaryShards, long docs) {
+        final long docsPerShard = docs / Math.max(1, primaryShards);
+        final long slicesPerShard = Math.max(1, (docsPerShard + properties.getSliceDocs() - 1) / Math.max(1, properties.getSliceDocs()));
+        return (int) Math.min(MAX_SLICES, Math.max(1, primaryShards) * slicesPerShard);
+    }
+
+    /**
+     * Stores the migration with an external version, so a checkpoint written late by one slice
+     * never overwrites a newer one written by another.
+     */
+    private void persist(RestClient target, Migration migration) throws IOException {
+        final String body;
+        final long version;
+        synchronized (migration) {
+            version = migration.getVersion() + 1;
+            migration.setVersion(version);
+            body = objectMapper.writeValueAsString(migration);
+        }
+
+        final Request request = new Request("PUT", "/" + STATE_INDEX + "/_doc/" + migration.getId());
+        request.addParameter("version", Long.toString(version));
+        request.addParameter("version_type", "external");
+        request.setJsonEntity(body);
+        try {
+            target.performRequest(request);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() != 409) {
+                throw e;
+            }
+        }
+    }
+
+    private Migration load(RestClient target, String migrationId) throws IOException {
+        final Request request = new Request("GET", "/" + STATE_INDEX + "/_doc/" + migrationId);
+        final JsonNode document;
+        try {
+            document = read(target.performRequest(request));
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+
+        final Migration migration = objectMapper.treeToValue(document.path("_source"), Migration.class);
+        migration.setVersion(document.path("_version").asLong());
+        return migration;
+    }
+
+    private Migration copy(Migration migration) {
+        synchronized (migration) {
+            final Migration copy = objectMapper.convertValue(migration, Migration.class);
+            copy.setVersion(migration.getVersion());
+            return copy;
+        }
+    }
+
+    private void fail(Migration migration, String error) {
+        synchronized (migration) {
+            migration.setStatus(Migration.FAILED);
+            migration.setError(error);
+            migration.setFinishedAt(System.currentTimeMillis());
+            migration.getIndices().stream()
+                    .filter(i -> Migration.RUNNING.equals(i.getStatus()))
+                    .forEach(i -> i.setStatus(Migration.FAILED));
+        }
+    }
+
+    /**
+     * Rejects a migration whose target is not the given instance or whose source is outside the
+     * space of the target. The source is resolved from the repository, never from the migration.
+     */
+    private void checkSource(Migration migration, ServiceInstance target) throws ServiceBrokerException {
+        if (!target.getId().equals(migration.getTargetInstanceId())) {
+            throw new IllegalArgumentException(MessageFormat.format("Migration ''{0}'' does not belong to service instance ''{1}''.",
+                    migration.getId(), target.getId()));
+        }
+        if (!isSameSpace(instance(migration.getSourceInstanceId()), target)) {
+            throw new IllegalArgumentException(MessageFormat.format("Source instance ''{0}'' does not belong to the space of service instance ''{1}''.",
+                    migration.getSourceInstanceId(), target.getId()));
+        }
+    }
+
+    private ServiceInstance instance(String serviceInstanceId) throws ServiceBrokerException {
+        final ServiceInstance serviceInstance;
+        try {
+            serviceInstance = serviceInstanceCache.getServiceInstance(serviceInstanceId);
+        } catch (ServiceInstanceDoesNotExistException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Service instance ''{0}'' does not exist.", serviceInstanceId));
+        }
+        if (serviceInstance == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Service instance ''{0}'' does not exist.", serviceInstanceId));
+        }
+        return serviceInstance;
+    }
+
+    private RestHighLevelClient client(ServiceInstance serviceInstance) throws ServiceBrokerException {
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot connect to service instance ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+        return client;
+    }
+
+    private void perform(RestClient client, String method, String endpoint, Object body) throws IOException {
+        final Request request = new Request(method, endpoint);
+        request.setJsonEntity(objectMapper.writeValueAsString(body));
+        client.performRequest(request);
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content);
+        }
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sliceExecutor.shutdownNow();
+        migrationExecutor.shutdownNow();
+    }
+
+    /**
+     * Spaces out documents over all slices of a migration to stay below the requested rate.
+     */
+    private static class Throttle {
+        private final double docsPerNano;
+        private long next = System.nanoTime();
+
+        Throttle(double docsPerSecond) {
+            this.docsPerNano = docsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        }
+
+        void acquire(int docs) throws InterruptedException {
+            if (docsPerNano <= 0) {
+                return;
+            }
+
+            final long wait;
+            synchronized (this) {
+                final long now = System.nanoTime();
+                final long start = Math.max(now, next);
+                next = start + (long) (docs / docsPerNano);
+                wait = start - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
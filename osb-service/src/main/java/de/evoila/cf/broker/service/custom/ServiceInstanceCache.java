@@ -0,0 +1,132 @@
+package de.evoila.cf.broker.service.custom;
+
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.repository.ServiceInstanceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded read-through cache in front of {@link ServiceInstanceRepository} for the admin paths
+ * of the broker (client creation, backup). The platform service invalidates the affected entry
+ * after each create, update and delete, the deprovisioning cleanup once more after the delete.
+ * Each invalidation bumps the cache version, so a read which started before an invalidation never
+ * puts a stale service instance back into the cache. Writes outside the broker are picked up once
+ * the entry expired.
+ * <p>
+ * Cached service instances are shared between all callers and must not be modified. Read the
+ * service instance from the repository to change it.
+ */
+@Component
+public class ServiceInstanceCache {
+
+    private final ServiceInstanceRepository serviceInstanceRepository;
+
+    private final int maxSize;
+
+    private final long timeToLiveNanos;
+
+    private final Map<String, Entry> entries;
+
+    private long version;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    public ServiceInstanceCache(ServiceInstanceRepository serviceInstanceRepository, ElasticsearchProperties elasticsearchProperties,
+                                Optional<MeterRegistry> meterRegistry) {
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.maxSize = elasticsearchProperties.getCache().getMaxSize();
+        this.timeToLiveNanos = elasticsearchProperties.getCache().getTimeToLive().toNanos();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+
+        final MeterRegistry registry = meterRegistry.orElse(Metrics.globalRegistry);
+        this.hits = Counter.builder("elasticsearch.broker.service_instance_cache.requests")
+                .description("Service instance lookups answered from the cache, i.e. saved repository round-trips")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("elasticsearch.broker.service_instance_cache.requests")
+                .description("Service instance lookups read from the repository")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("elasticsearch.broker.service_instance_cache.hit_ratio", this, ServiceInstanceCache::hitRatio)
+                .register(registry);
+        Gauge.builder("elasticsearch.broker.service_instance_cache.size", this, ServiceInstanceCache::size)
+                .register(registry);
+    }
+
+    /**
+     * Returns the service instance, reading it from the repository if it is not cached. The
+     * returned instance is shared with other callers and must not be modified.
+     *
+     * @param serviceInstanceId the id of the service instance
+     * @return the service instance, or null if it does not exist
+     * @throws ServiceInstanceDoesNotExistException if the repository reports a missing service instance
+     */
+    public ServiceInstance getServiceInstance(String serviceInstanceId) throws ServiceInstanceDoesNotExistException {
+        final long version;
+
+        synchronized (this) {
+            final Entry entry = entries.get(serviceInstanceId);
+            if (entry != null && System.nanoTime() - entry.loaded < timeToLiveNanos) {
+                hits.increment();
+                return entry.serviceInstance;
+            }
+            version = this.version;
+        }
+
+        misses.increment();
+        final ServiceInstance serviceInstance = serviceInstanceRepository.getServiceInstance(serviceInstanceId);
+
+        synchronized (this) {
+            if (serviceInstance != null && this.version == version) {
+                entries.put(serviceInstanceId, new Entry(serviceInstance, System.nanoTime()));
+            }
+        }
+
+        return serviceInstance;
+    }
+
+    /**
+     * Drops the cached service instance. Called after the broker changed the service instance.
+     *
+     * @param serviceInstanceId the id of the service instance
+     */
+    public synchronized void invalidate(String serviceInstanceId) {
+        entries.remove(serviceInstanceId);
+        version++;
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        final double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private static class Entry {
+        private final ServiceInstance serviceInstance;
+        private final long loaded;
+
+        Entry(ServiceInstance serviceInstance, long loaded) {
+            this.serviceInstance = serviceInstance;
+            this.loaded = loaded;
+        }
+    }
+}
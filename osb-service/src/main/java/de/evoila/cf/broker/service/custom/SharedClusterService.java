@@ -0,0 +1,312 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.PlatformException;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.ServerAddress;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.broker.service.custom.model.ElasticsearchHost;
+import de.evoila.cf.security.credentials.CredentialStore;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Maps service instances of shared cluster plans onto a pooled cluster instead of a BOSH deployment.
+ * <p>
+ * Each tenant owns all indices starting with its index prefix. The broker creates a role limited
+ * to these indices and a tenant admin user with this role, which is stored as the super admin of
+ * the service instance, so every request the broker sends on behalf of the service instance is
+ * confined to the prefix. Bindings are API keys created by the tenant admin, which can never
+ * exceed its privileges. An index template gives new indices one primary shard by default,
+ * which requests naming <code>number_of_shards</code> override.
+ * <p>
+ * The shard quota of the plan is advisory: it is only checked when a binding is created. Existing
+ * bindings can create indices and shards beyond it, the role grants <code>all</code> on the prefix
+ * and API keys keep the privileges their owner had when they were created, so the broker can not
+ * take the privilege back later.
+ */
+@Service
+public class SharedClusterService {
+
+    public static final String SHARED_CLUSTER = "shared_cluster";
+    public static final String SHARD_QUOTA = "shard_quota";
+    public static final String INDEX_PREFIX = "index_prefix";
+
+    static final int DEFAULT_SHARD_QUOTA = 20;
+
+    private static final Logger log = LoggerFactory.getLogger(SharedClusterService.class);
+
+    private static final String TENANT_PREFIX = "tenant_";
+    private static final int TEMPLATE_ORDER = 100;
+    private static final int DELETE_BATCH_SIZE = 50;
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ElasticsearchHostRegistry hostRegistry;
+
+    private final CredentialStore credentialStore;
+
+    private final ElasticsearchProperties properties;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public SharedClusterService(ElasticsearchConnector elasticsearchConnector, ElasticsearchHostRegistry hostRegistry,
+                                CredentialStore credentialStore, ElasticsearchProperties properties) {
+        this.elasticsearchConnector = elasticsearchConnector;
+        this.hostRegistry = hostRegistry;
+        this.credentialStore = credentialStore;
+        this.properties = properties;
+    }
+
+    /**
+     * Checks whether service instances of the plan are placed on a shared cluster.
+     *
+     * @param plan the plan
+     * @return true if the plan names a shared cluster, false otherwise
+     */
+    public static boolean isSharedCluster(Plan plan) {
+        return plan.getMetadata() != null && plan.getMetadata().getCustomParameters() != null
+                && plan.getMetadata().getCustomParameters().get(SHARED_CLUSTER) instanceof String;
+    }
+
+    /**
+     * Returns the prefix of all indices owned by the service instance.
+     *
+     * @param serviceInstanceId the id of the service instance
+     * @return the index prefix
+     */
+    public static String indexPrefix(String serviceInstanceId) {
+        return serviceInstanceId.toLowerCase() + "-";
+    }
+
+    /**
+     * Creates the tenant of the service instance on the shared cluster of the plan.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param plan the shared cluster plan, must not be null
+     * @return the service instance with the hosts of the shared cluster
+     * @throws PlatformException if the shared cluster is not configured or rejects a request
+     */
+    public ServiceInstance provision(ServiceInstance serviceInstance, Plan plan) throws PlatformException {
+        final ElasticsearchProperties.SharedCluster cluster = cluster(plan);
+        if (!ElasticsearchUtilities.planContainsXPack(plan)) {
+            throw new PlatformException(MessageFormat.format("Shared cluster plan ''{0}'' requires X-Pack security.", plan.getName()));
+        }
+
+        final List<ServerAddress> hosts = hosts(cluster, plan);
+        final String tenant = TENANT_PREFIX + serviceInstance.getId();
+        final String prefix = indexPrefix(serviceInstance.getId());
+        final String password = new BigInteger(130, new SecureRandom()).toString(32);
+
+        final Map<String, Object> indexPrivileges = new HashMap<>();
+        indexPrivileges.put("names", Collections.singletonList(prefix + "*"));
+        indexPrivileges.put("privileges", Collections.singletonList("all"));
+        final Map<String, Object> role = new HashMap<>();
+        role.put("cluster", Arrays.asList("monitor", "manage_own_api_key"));
+        role.put("indices", Collections.singletonList(indexPrivileges));
+
+        final Map<String, Object> user = new HashMap<>();
+        user.put("password", password);
+        user.put("roles", Collections.singletonList(tenant));
+
+        final Map<String, Object> indexSettings = new HashMap<>();
+        indexSettings.put("index.number_of_shards", 1);
+        indexSettings.put("index.number_of_replicas", 1);
+        final Map<String, Object> template = new HashMap<>();
+        template.put("index_patterns", Collections.singletonList(prefix + "*"));
+        template.put("order", TEMPLATE_ORDER);
+        template.put("settings", indexSettings);
+
+        final RestHighLevelClient client = adminClient(cluster, hosts, plan);
+        try {
+            perform(client.getLowLevelClient(), "PUT", "/_security/role/" + tenant, role);
+            perform(client.getLowLevelClient(), "PUT", "/_security/user/" + tenant, user);
+            perform(client.getLowLevelClient(), "PUT", "/_template/" + tenant, template);
+        } catch (IOException | RuntimeException e) {
+            throw new PlatformException(MessageFormat.format("Cannot create tenant ''{0}'' on shared cluster. {1}", tenant, e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        credentialStore.createUser(serviceInstance, CredentialConstants.SUPER_ADMIN, tenant, password);
+
+        serviceInstance.setHosts(hosts);
+        hostRegistry.update(serviceInstance.getId(), hosts.stream()
+                .map(ElasticsearchHost::of)
+                .collect(Collectors.toList()));
+
+        log.info(MessageFormat.format("Created tenant ''{0}'' with index prefix ''{1}'' on shared cluster ''{2}''.",
+                tenant, prefix, plan.getMetadata().getCustomParameters().get(SHARED_CLUSTER)));
+        return serviceInstance;
+    }
+
+    /**
+     * Removes the tenant of the service instance with all its indices, its template, its API keys,
+     * its user and its role from the shared cluster. Missing parts are skipped.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param plan the shared cluster plan, must not be null
+     * @throws PlatformException if the shared cluster is not configured or rejects a request
+     */
+    public void deprovision(ServiceInstance serviceInstance, Plan plan) throws PlatformException {
+        final ElasticsearchProperties.SharedCluster cluster = cluster(plan);
+        final String tenant = TENANT_PREFIX + serviceInstance.getId();
+        final String prefix = indexPrefix(serviceInstance.getId());
+
+        final RestHighLevelClient client = adminClient(cluster, hosts(cluster, plan), plan);
+        try {
+            final RestClient lowLevelClient = client.getLowLevelClient();
+
+            // Wildcard deletes are rejected if action.destructive_requires_name is set, so indices are deleted by name
+            final List<String> indices = new ArrayList<>();
+            final Request catIndices = new Request("GET", "/_cat/indices/" + prefix + "*");
+            catIndices.addParameter("format", "json");
+            catIndices.addParameter("h", "index");
+            read(lowLevelClient.performRequest(catIndices)).forEach(i -> indices.add(i.path("index").asText()));
+            for (int i = 0; i < indices.size(); i += DELETE_BATCH_SIZE) {
+                perform(lowLevelClient, "DELETE", "/" + String.join(",", indices.subList(i, Math.min(i + DELETE_BATCH_SIZE, indices.size()))), null);
+            }
+
+            performIgnoringMissing(lowLevelClient, "DELETE", "/_template/" + tenant, null);
+            performIgnoringMissing(lowLevelClient, "DELETE", "/_security/api_key", Collections.singletonMap("username", tenant));
+            performIgnoringMissing(lowLevelClient, "DELETE", "/_security/user/" + tenant, null);
+            performIgnoringMissing(lowLevelClient, "DELETE", "/_security/role/" + tenant, null);
+
+            log.info(MessageFormat.format("Removed tenant ''{0}'' with {1} indices from shared cluster.", tenant, indices.size()));
+        } catch (IOException | RuntimeException e) {
+            throw new PlatformException(MessageFormat.format("Cannot remove tenant ''{0}'' from shared cluster. {1}", tenant, e.getMessage()));
+        } finally {
+            close(client);
+        }
+    }
+
+    /**
+     * Checks that the indices of the service instance do not use up the shard quota of the plan.
+     * This is an advisory check on bind only, it does not keep existing bindings from creating
+     * further shards.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param plan the shared cluster plan, must not be null
+     * @throws ServiceBrokerException if the quota is used up or the shards can not be counted
+     */
+    public void checkShardQuota(ServiceInstance serviceInstance, Plan plan) throws ServiceBrokerException {
+        final Object quotaRaw = plan.getMetadata().getCustomParameters().get(SHARD_QUOTA);
+        final int quota = quotaRaw instanceof Number ? ((Number) quotaRaw).intValue() : DEFAULT_SHARD_QUOTA;
+
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot count shards of service instance ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+
+        final int shards;
+        try {
+            final Request catShards = new Request("GET", "/_cat/shards/" + indexPrefix(serviceInstance.getId()) + "*");
+            catShards.addParameter("format", "json");
+            catShards.addParameter("h", "index");
+            shards = read(client.getLowLevelClient().performRequest(catShards)).size();
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot count shards of service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        if (shards >= quota) {
+            throw new ServiceBrokerException(MessageFormat.format("Service instance ''{0}'' uses {1} of {2} shards. Delete indices before binding again.",
+                    serviceInstance.getId(), shards, quota));
+        }
+    }
+
+    private ElasticsearchProperties.SharedCluster cluster(Plan plan) throws PlatformException {
+        final Object name = plan.getMetadata().getCustomParameters().get(SHARED_CLUSTER);
+        final ElasticsearchProperties.SharedCluster cluster = properties.getSharedClusters().get(name);
+        if (cluster == null || cluster.getHosts().isEmpty()) {
+            throw new PlatformException(MessageFormat.format("Shared cluster ''{0}'' of plan ''{1}'' is not configured.", name, plan.getName()));
+        }
+        return cluster;
+    }
+
+    private List<ServerAddress> hosts(ElasticsearchProperties.SharedCluster cluster, Plan plan) throws PlatformException {
+        final String name = plan.getMetadata().getEgressInstanceGroup();
+        final List<ServerAddress> hosts = new ArrayList<>();
+        for (String host : cluster.getHosts()) {
+            final int separator = host.lastIndexOf(':');
+            try {
+                hosts.add(new ServerAddress(name, host.substring(0, separator), Integer.parseInt(host.substring(separator + 1))));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new PlatformException(MessageFormat.format("Invalid shared cluster host ''{0}'', expected ip:port.", host));
+            }
+        }
+        return hosts;
+    }
+
+    private RestHighLevelClient adminClient(ElasticsearchProperties.SharedCluster cluster, List<ServerAddress> hosts, Plan plan) throws PlatformException {
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(cluster.getUsername(), cluster.getPassword()));
+
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(hosts, plan, credentialsProvider);
+        if (client == null) {
+            throw new PlatformException(MessageFormat.format("Cannot connect to shared cluster of plan ''{0}''. No available hosts.", plan.getName()));
+        }
+        return client;
+    }
+
+    private void perform(RestClient client, String method, String endpoint, Object body) throws IOException {
+        final Request request = new Request(method, endpoint);
+        if (body != null) {
+            request.setJsonEntity(objectMapper.writeValueAsString(body));
+        }
+        client.performRequest(request);
+    }
+
+    private void performIgnoringMissing(RestClient client, String method, String endpoint, Object body) throws IOException {
+        try {
+            perform(client, method, endpoint, body);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() != 404) {
+                throw e;
+            }
+        }
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content);
+        }
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+}
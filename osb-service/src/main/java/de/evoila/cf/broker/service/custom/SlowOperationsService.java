@@ -0,0 +1,223 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.service.custom.model.SlowOperation;
+import de.evoila.cf.broker.service.custom.model.SlowOperationsReport;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reports the slowest search and indexing operations of a service instance.
+ * <p>
+ * Slowlogs are written to the disks of the nodes and can not be read through the Elasticsearch
+ * API, so the report samples the running tasks of all nodes instead. Operations still running
+ * after the minimum running time are grouped by their request body, with all values replaced by
+ * <code>?</code>, so that queries only differing in their search terms end up in one entry.
+ */
+@Service
+public class SlowOperationsService {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowOperationsService.class);
+
+    private static final String TASKS_ENDPOINT = "/_tasks";
+    private static final String ACTIONS = "indices:data/read/search,indices:data/read/msearch,indices:data/write/bulk," +
+            "indices:data/write/update/byquery,indices:data/write/delete/byquery";
+    private static final String TASKS_FILTER = "nodes.*.tasks.*.action,nodes.*.tasks.*.description," +
+            "nodes.*.tasks.*.running_time_in_nanos";
+
+    private static final Pattern INDICES = Pattern.compile("indices\\[([^\\]]*)\\]");
+    private static final Pattern SOURCE = Pattern.compile("source\\[(.*)\\]", Pattern.DOTALL);
+    private static final TextNode PLACEHOLDER = TextNode.valueOf("?");
+
+    private static final int MAX_SHAPE_LENGTH = 2000;
+    private static final int MAX_INDICES = 20;
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public SlowOperationsService(ElasticsearchConnector elasticsearchConnector) {
+        this.elasticsearchConnector = elasticsearchConnector;
+    }
+
+    /**
+     * Samples the running tasks of the service instance and returns the slowest operations.
+     *
+     * @param serviceInstance the service instance, must not be null
+     * @param top the maximum number of operations to return
+     * @param samples the number of samples, taken one second apart
+     * @param minRunningTime the running time from which on a task counts as slow
+     * @return the report, ordered by the maximum running time
+     * @throws ServiceBrokerException if no host is reachable or the tasks can not be read
+     */
+    public SlowOperationsReport report(ServiceInstance serviceInstance, int top, int samples, Duration minRunningTime) throws ServiceBrokerException {
+        RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot read tasks of service instance ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+
+        final Map<String, ObservedTask> tasks = new HashMap<>();
+        try {
+            for (int i = 0; i < samples; i++) {
+                if (i > 0) {
+                    TimeUnit.SECONDS.sleep(1);
+                }
+                sample(client, minRunningTime, tasks);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new ServiceBrokerException(MessageFormat.format("Cannot read tasks of service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException(MessageFormat.format("Sampling tasks of service instance ''{0}'' was interrupted.", serviceInstance.getId()));
+        } finally {
+            close(client);
+        }
+
+        final Map<String, List<ObservedTask>> byShape = tasks.values().stream()
+                .collect(Collectors.groupingBy(t -> t.action + " " + t.shape));
+
+        final List<SlowOperation> operations = byShape.values().stream()
+                .map(SlowOperationsService::aggregate)
+                .sorted(Comparator.comparingLong(SlowOperation::getMaxRunningTimeMs).reversed())
+                .limit(top)
+                .collect(Collectors.toList());
+
+        return new SlowOperationsReport(serviceInstance.getId(), samples, System.currentTimeMillis(), operations);
+    }
+
+    private void sample(RestHighLevelClient client, Duration minRunningTime, Map<String, ObservedTask> tasks) throws IOException {
+        final Request request = new Request("GET", TASKS_ENDPOINT);
+        request.addParameter("detailed", "true");
+        request.addParameter("actions", ACTIONS);
+        request.addParameter("filter_path", TASKS_FILTER);
+        final Response response = client.getLowLevelClient().performRequest(request);
+
+        final JsonNode nodes;
+        try (InputStream content = response.getEntity().getContent()) {
+            nodes = objectMapper.readTree(content).path("nodes");
+        }
+
+        final long minRunningTimeNanos = minRunningTime.toNanos();
+        nodes.fields().forEachRemaining(node -> node.getValue().path("tasks").fields().forEachRemaining(task -> {
+            final long runningTimeNanos = task.getValue().path("running_time_in_nanos").asLong();
+            if (runningTimeNanos < minRunningTimeNanos) {
+                return;
+            }
+
+            final ObservedTask observed = tasks.computeIfAbsent(task.getKey(),
+                    id -> parse(task.getValue().path("action").asText(), task.getValue().path("description").asText()));
+            observed.runningTimeNanos = Math.max(observed.runningTimeNanos, runningTimeNanos);
+        }));
+    }
+
+    private ObservedTask parse(String action, String description) {
+        final Set<String> indices = new TreeSet<>();
+        final Matcher indicesMatcher = INDICES.matcher(description);
+        if (indicesMatcher.find() && !indicesMatcher.group(1).isEmpty()) {
+            for (String index : indicesMatcher.group(1).split(",")) {
+                indices.add(index.trim());
+            }
+        }
+
+        String shape = action;
+        final Matcher sourceMatcher = SOURCE.matcher(description);
+        if (sourceMatcher.find()) {
+            try {
+                shape = objectMapper.writeValueAsString(normalize(objectMapper.readTree(sourceMatcher.group(1))));
+            } catch (IOException e) {
+                log.debug(MessageFormat.format("Cannot parse source of task description. {0}", e.getMessage()));
+            }
+        }
+        if (shape.length() > MAX_SHAPE_LENGTH) {
+            shape = shape.substring(0, MAX_SHAPE_LENGTH) + "...";
+        }
+
+        return new ObservedTask(action, shape, indices);
+    }
+
+    /**
+     * Replaces all values of a request body by a placeholder. Arrays keep one element per
+     * distinct shape, so term lists of any length are normalized to the same shape.
+     */
+    private static JsonNode normalize(JsonNode node) {
+        if (node.isObject()) {
+            final ObjectNode normalized = JsonNodeFactory.instance.objectNode();
+            node.fields().forEachRemaining(field -> normalized.set(field.getKey(), normalize(field.getValue())));
+            return normalized;
+        }
+
+        if (node.isArray()) {
+            final Set<JsonNode> elements = new LinkedHashSet<>();
+            node.forEach(element -> elements.add(normalize(element)));
+            final ArrayNode normalized = JsonNodeFactory.instance.arrayNode();
+            elements.forEach(normalized::add);
+            return normalized;
+        }
+
+        return PLACEHOLDER;
+    }
+
+    private static SlowOperation aggregate(List<ObservedTask> tasks) {
+        final Set<String> indices = new TreeSet<>();
+        long max = 0;
+        long total = 0;
+        for (ObservedTask task : tasks) {
+            indices.addAll(task.indices);
+            max = Math.max(max, task.runningTimeNanos);
+            total += task.runningTimeNanos;
+        }
+
+        final ObservedTask first = tasks.get(0);
+        return new SlowOperation(first.action, first.shape, indices.stream().limit(MAX_INDICES).collect(Collectors.toList()),
+                tasks.size(), TimeUnit.NANOSECONDS.toMillis(max), TimeUnit.NANOSECONDS.toMillis(total));
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    private static class ObservedTask {
+        private final String action;
+        private final String shape;
+        private final Set<String> indices;
+        private long runningTimeNanos;
+
+        ObservedTask(String action, String shape, Set<String> indices) {
+            this.action = action;
+            this.shape = shape;
+            this.indices = indices;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package de.evoila.cf.broker.service.custom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.elasticsearch.connector.ElasticsearchConnector;
+import de.evoila.cf.broker.exception.PlatformException;
+import de.evoila.cf.broker.exception.ServiceInstanceDoesNotExistException;
+import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.credential.UsernamePasswordCredential;
+import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.security.credentials.CredentialStore;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisions a service instance as a clone of another one by restoring a snapshot from the S3
+ * repository of the source instance.
+ * <p>
+ * The source is checked before the deployment starts: it must exist in the organization and
+ * space of the new instance, have read-only S3 credentials and a successful snapshot in an S3
+ * repository. Only the read-only credentials are copied to the new instance, whose nodes get
+ * them as S3 client {@link #S3_CLIENT}. Bindings of the clone are superusers which could register
+ * further repositories with this client, so the credentials themselves have to keep the clone
+ * from writing to or cleaning up the backups of the source. Once the cluster is running, the
+ * repository is registered read-only and the snapshot is restored. Recovery concurrency and
+ * bandwidth are raised while the restore runs, provisioning finishes once all primary shards
+ * are started.
+ */
+@Service
+public class SnapshotCloneService {
+
+    public static final String CLONE = "clone";
+    public static final String SOURCE_INSTANCE_ID = "source_instance_id";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String REPOSITORY = "repository";
+    public static final String S3_CLIENT = "clone";
+
+    static final String CLONE_REPOSITORY = "clone-source";
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotCloneService.class);
+
+    private static final String S3 = "s3";
+    private static final String SUCCESS = "SUCCESS";
+    private static final String CONCURRENT_RECOVERIES = "cluster.routing.allocation.node_concurrent_recoveries";
+    private static final String MAX_BYTES_PER_SEC = "indices.recovery.max_bytes_per_sec";
+
+    private final ElasticsearchConnector elasticsearchConnector;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    private final CredentialStore credentialStore;
+
+    private final ElasticsearchProperties.Clone properties;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public SnapshotCloneService(ElasticsearchConnector elasticsearchConnector, ServiceInstanceCache serviceInstanceCache,
+                                CredentialStore credentialStore, ElasticsearchProperties properties) {
+        this.elasticsearchConnector = elasticsearchConnector;
+        this.serviceInstanceCache = serviceInstanceCache;
+        this.credentialStore = credentialStore;
+        this.properties = properties.getClone();
+    }
+
+    /**
+     * Checks whether the parameters of a create request ask for a clone.
+     *
+     * @param parameters the create parameters, may be null
+     * @return true if the parameters contain {@link #CLONE}, false otherwise
+     */
+    public static boolean isClone(Map<String, Object> parameters) {
+        return parameters != null && parameters.get(CLONE) != null;
+    }
+
+    /**
+     * Resolves the snapshot to restore from the source instance and copies the read-only S3
+     * credentials of the source to the new service instance. Must run before the deployment is rendered.
+     *
+     * @param serviceInstance the new service instance, must not be null
+     * @param parameters the create parameters containing {@link #CLONE}
+     * @return the snapshot to restore
+     * @throws PlatformException if the parameters are invalid, the source belongs to another space
+     *                           or has no usable snapshot
+     */
+    public Source prepare(ServiceInstance serviceInstance, Map<String, Object> parameters) throws PlatformException {
+        if (!(parameters.get(CLONE) instanceof Map)
+                || !(((Map<String, Object>) parameters.get(CLONE)).get(SOURCE_INSTANCE_ID) instanceof String)) {
+            throw new PlatformException(MessageFormat.format("Parameter ''{0}'' must contain ''{1}''.", CLONE, SOURCE_INSTANCE_ID));
+        }
+
+        final Map<String, Object> clone = (Map<String, Object>) parameters.get(CLONE);
+        final String sourceId = clone.get(SOURCE_INSTANCE_ID).toString();
+        final Object repositoryName = clone.get(REPOSITORY);
+        final Object snapshotName = clone.get(SNAPSHOT);
+
+        final ServiceInstance source;
+        try {
+            source = serviceInstanceCache.getServiceInstance(sourceId);
+        } catch (ServiceInstanceDoesNotExistException e) {
+            throw new PlatformException(MessageFormat.format("Source instance ''{0}'' does not exist.", sourceId));
+        }
+        if (source == null) {
+            throw new PlatformException(MessageFormat.format("Source instance ''{0}'' does not exist.", sourceId));
+        }
+
+        // The GUID of the source is no secret, a clone must not give access to data of another organization or space
+        if (source.getOrganizationGuid() == null || source.getSpaceGuid() == null
+                || !source.getOrganizationGuid().equals(serviceInstance.getOrganizationGuid())
+                || !source.getSpaceGuid().equals(serviceInstance.getSpaceGuid())) {
+            throw new PlatformException(MessageFormat.format("Source instance ''{0}'' does not belong to the space of the new service instance.", sourceId));
+        }
+
+        final UsernamePasswordCredential s3Credentials = credentialStore.getUser(source, CredentialConstants.S3_BACKUP_READ_ONLY_CREDENTIALS);
+        if (s3Credentials == null || s3Credentials.getUsername() == null) {
+            throw new PlatformException(MessageFormat.format("Source instance ''{0}'' has no read-only S3 backup credentials configured.", sourceId));
+        }
+
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(source);
+        if (client == null) {
+            throw new PlatformException(MessageFormat.format("Cannot read snapshots of source instance ''{0}''. No available hosts.", sourceId));
+        }
+
+        final Source resolved;
+        try {
+            final String repository = repository(client.getLowLevelClient(), repositoryName, sourceId);
+            final JsonNode repositorySettings = read(client.getLowLevelClient().performRequest(new Request("GET", "/_snapshot/" + repository)))
+                    .path(repository).path("settings");
+            final JsonNode snapshot = snapshot(client.getLowLevelClient(), repository, snapshotName, sourceId);
+
+            final Map<String, Object> settings = new HashMap<>(objectMapper.convertValue(repositorySettings, Map.class));
+            settings.put("client", S3_CLIENT);
+            settings.put("readonly", true);
+
+            // System indices stay with the new cluster, restoring .security would replace its users
+            final List<String> indices = new ArrayList<>();
+            snapshot.path("indices").forEach(i -> {
+                if (!i.asText().startsWith(".")) {
+                    indices.add(i.asText());
+                }
+            });
+
+            resolved = new Source(sourceId, snapshot.path("snapshot").asText(), settings, indices);
+        } catch (IOException | RuntimeException e) {
+            throw new PlatformException(MessageFormat.format("Cannot read snapshots of source instance ''{0}''. {1}", sourceId, e.getMessage()));
+        } finally {
+            close(client);
+        }
+
+        credentialStore.createUser(serviceInstance, CredentialConstants.S3_CLONE_CREDENTIALS, s3Credentials.getUsername(), s3Credentials.getPassword());
+
+        log.info(MessageFormat.format("Service instance ''{0}'' will be cloned from snapshot ''{1}'' of ''{2}'' with {3} indices.",
+                serviceInstance.getId(), resolved.snapshot, sourceId, resolved.indices.size()));
+        return resolved;
+    }
+
+    /**
+     * Registers the repository of the source read-only and restores the snapshot into the new
+     * cluster. Returns once all primary shards of the restored indices are started.
+     *
+     * @param serviceInstance the new, running service instance, must not be null
+     * @param source the snapshot to restore, as returned by {@link #prepare(ServiceInstance, Map)}
+     * @throws PlatformException if the restore fails or does not finish in time
+     */
+    public void restore(ServiceInstance serviceInstance, Source source) throws PlatformException {
+        final RestHighLevelClient client = elasticsearchConnector.createElasticClient(serviceInstance);
+        if (client == null) {
+            throw new PlatformException(MessageFormat.format("Cannot restore clone ''{0}''. No available hosts.", serviceInstance.getId()));
+        }
+
+        final RestClient lowLevelClient = client.getLowLevelClient();
+        try {
+            final Map<String, Object> repository = new HashMap<>();
+            repository.put("type", S3);
+            repository.put("settings", source.repositorySettings);
+            perform(lowLevelClient, "PUT", "/_snapshot/" + CLONE_REPOSITORY, repository);
+
+            if (source.indices.isEmpty()) {
+                log.info(MessageFormat.format("Snapshot ''{0}'' contains no indices to restore into ''{1}''.", source.snapshot, serviceInstance.getId()));
+                return;
+            }
+
+            final Map<String, Object> recovery = new HashMap<>();
+            recovery.put(CONCURRENT_RECOVERIES, properties.getConcurrentRecoveries());
+            recovery.put(MAX_BYTES_PER_SEC, properties.getMaxBytesPerSec());
+            perform(lowLevelClient, "PUT", "/_cluster/settings", Collections.singletonMap("transient", recovery));
+
+            try {
+                final Map<String, Object> restore = new HashMap<>();
+                restore.put("indices", String.join(",", source.indices));
+                restore.put("include_global_state", false);
+                restore.put("include_aliases", true);
+                perform(lowLevelClient, "POST", "/_snapshot/" + CLONE_REPOSITORY + "/" + source.snapshot + "/_restore", restore);
+
+                awaitPrimaries(lowLevelClient, serviceInstance, source);
+            } finally {
+                final Map<String, Object> reset = new HashMap<>();
+                reset.put(CONCURRENT_RECOVERIES, null);
+                reset.put(MAX_BYTES_PER_SEC, null);
+                try {
+                    perform(lowLevelClient, "PUT", "/_cluster/settings", Collections.singletonMap("transient", reset));
+                } catch (IOException e) {
+                    log.error(MessageFormat.format("Cannot reset recovery settings of ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new PlatformException(MessageFormat.format("Cannot restore clone ''{0}'' from snapshot ''{1}''. {2}",
+                    serviceInstance.getId(), source.snapshot, e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PlatformException(MessageFormat.format("Restoring clone ''{0}'' was interrupted.", serviceInstance.getId()));
+        } finally {
+            close(client);
+        }
+
+        log.info(MessageFormat.format("Restored {0} indices of snapshot ''{1}'' from ''{2}'' into ''{3}''.",
+                source.indices.size(), source.snapshot, source.sourceInstanceId, serviceInstance.getId()));
+    }
+
+    /**
+     * Waits until every restored index exists and is no longer red, i.e. all its primary shards
+     * are started. Replicas are recovered from the primaries afterwards, as on any new index.
+     */
+    private void awaitPrimaries(RestClient client, ServiceInstance serviceInstance, Source source) throws IOException, InterruptedException, PlatformException {
+        final long deadline = System.nanoTime() + properties.getTimeout().toNanos();
+        final Set<String> pending = new HashSet<>(source.indices);
+
+        while (true) {
+            final Request catIndices = new Request("GET", "/_cat/indices");
+            catIndices.addParameter("format", "json");
+            catIndices.addParameter("h", "index,health");
+            read(client.performRequest(catIndices)).forEach(i -> {
+                if (!"red".equals(i.path("health").asText())) {
+                    pending.remove(i.path("index").asText());
+                }
+            });
+
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                throw new PlatformException(MessageFormat.format("Restore into ''{0}'' did not finish within {1}, {2} of {3} indices are still red.",
+                        serviceInstance.getId(), properties.getTimeout(), pending.size(), source.indices.size()));
+            }
+
+            log.info(MessageFormat.format("Restoring into ''{0}'', {1} of {2} indices pending.", serviceInstance.getId(), pending.size(), source.indices.size()));
+            TimeUnit.MILLISECONDS.sleep(properties.getPollInterval().toMillis());
+        }
+    }
+
+    private String repository(RestClient client, Object repositoryName, String sourceId) throws IOException {
+        final JsonNode repositories = read(client.performRequest(new Request("GET", "/_snapshot")));
+
+        if (repositoryName != null) {
+            if (!S3.equals(repositories.path(repositoryName.toString()).path("type").asText())) {
+                throw new IllegalArgumentException(MessageFormat.format("Source instance ''{0}'' has no S3 repository ''{1}''.", sourceId, repositoryName));
+            }
+            return repositoryName.toString();
+        }
+
+        final List<String> s3Repositories = new ArrayList<>();
+        repositories.fields().forEachRemaining(r -> {
+            if (S3.equals(r.getValue().path("type").asText())) {
+                s3Repositories.add(r.getKey());
+            }
+        });
+        if (s3Repositories.size() != 1) {
+            throw new IllegalArgumentException(MessageFormat.format("Source instance ''{0}'' has {1} S3 repositories, set ''{2}''.",
+                    sourceId, s3Repositories.size(), REPOSITORY));
+        }
+        return s3Repositories.get(0);
+    }
+
+    private JsonNode snapshot(RestClient client, String repository, Object snapshotName, String sourceId) throws IOException {
+        final String snapshots = snapshotName != null ? snapshotName.toString() : "_all";
+        JsonNode latest = null;
+        for (JsonNode snapshot : read(client.performRequest(new Request("GET", "/_snapshot/" + repository + "/" + snapshots))).path("snapshots")) {
+            if (SUCCESS.equals(snapshot.path("state").asText())
+                    && (latest == null || snapshot.path("end_time_in_millis").asLong() > latest.path("end_time_in_millis").asLong())) {
+                latest = snapshot;
+            }
+        }
+
+        if (latest == null) {
+            throw new IllegalArgumentException(MessageFormat.format("Repository ''{0}'' of source instance ''{1}'' has no successful snapshot{2}.",
+                    repository, sourceId, snapshotName != null ? " '" + snapshotName + "'" : ""));
+        }
+        return latest;
+    }
+
+    private void perform(RestClient client, String method, String endpoint, Object body) throws IOException {
+        final Request request = new Request(method, endpoint);
+        request.setJsonEntity(objectMapper.writeValueAsString(body));
+        client.performRequest(request);
+    }
+
+    private JsonNode read(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content);
+        }
+    }
+
+    private void close(RestHighLevelClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    /**
+     * A snapshot of a source instance, resolved before the deployment of the clone starts.
+     */
+    public static class Source {
+        private final String sourceInstanceId;
+        private final String snapshot;
+        private final Map<String, Object> repositorySettings;
+        private final List<String> indices;
+
+        Source(String sourceInstanceId, String snapshot, Map<String, Object> repositorySettings, List<String> indices) {
+            this.sourceInstanceId = sourceInstanceId;
+            this.snapshot = snapshot;
+            this.repositorySettings = repositorySettings;
+            this.indices = indices;
+        }
+
+        public String getSourceInstanceId() {
+            return sourceInstanceId;
+        }
+
+        public String getSnapshot() {
+            return snapshot;
+        }
+    }
+}
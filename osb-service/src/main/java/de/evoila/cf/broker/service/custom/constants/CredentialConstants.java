@@ -49,4 +49,20 @@ public class CredentialConstants {
     public static String BACKUP_AGENT_USER = "backup";
 
     public static String S3_BACKUP_CREDENTIALS = "s3_backup_credentials";
+
+    /**
+     * Read-only S3 credentials for the backups of a service instance, handed to its clones.
+     */
+    public static String S3_BACKUP_READ_ONLY_CREDENTIALS = "s3_backup_read_only_credentials";
+
+    /**
+     * The read-only S3 credentials of the source instance a clone restores its snapshot from.
+     */
+    public static String S3_CLONE_CREDENTIALS = "s3_clone_credentials";
+
+    /**
+     * The certificate authority signing the client certificates of PKI bindings, certificate as
+     * username and private key as password.
+     */
+    public static String CLIENT_CA = "client_ca";
 }
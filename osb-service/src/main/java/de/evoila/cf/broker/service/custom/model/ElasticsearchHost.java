@@ -0,0 +1,99 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import de.evoila.cf.broker.model.catalog.ServerAddress;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static de.evoila.cf.cpi.bosh.BaseElasticsearchDeploymentManager.*;
+
+/**
+ * A host of a service instance together with its instance group, node roles and availability zone.
+ */
+public class ElasticsearchHost {
+
+    /**
+     * Instance groups a persisted address name is matched against. The single node group
+     * <code>elasticsearch</code> comes last, as deployment names may contain it as well.
+     */
+    private static final List<String> INSTANCE_GROUPS = Arrays.asList(GENERAL_NODES, MASTER_ELIGIBLE_NODES, DATA_NODES,
+            INGEST_NODES, MACHINE_LEARNING_NODES, COORDINATING_NODES, "elasticsearch");
+
+    private final ServerAddress address;
+
+    private final String instanceGroup;
+
+    private final Set<NodeRole> roles;
+
+    private final String az;
+
+    public ElasticsearchHost(ServerAddress address, String instanceGroup, String az) {
+        this.address = address;
+        this.instanceGroup = instanceGroup;
+        this.roles = Collections.unmodifiableSet(NodeRole.forInstanceGroup(instanceGroup));
+        this.az = az;
+    }
+
+    /**
+     * Creates a host from a persisted server address. BOSH does not guarantee the name of the
+     * address to be the bare instance group, so the instance group is the known group the name
+     * contains, like {@link de.evoila.cf.broker.util.ServiceInstanceUtils#filteredServerAddress}
+     * matches it. The availability zone is unknown for those.
+     *
+     * @param address the server address
+     * @return the host
+     */
+    public static ElasticsearchHost of(ServerAddress address) {
+        return new ElasticsearchHost(address, instanceGroup(address.getName()), null);
+    }
+
+    private static String instanceGroup(String name) {
+        if (name == null) {
+            return null;
+        }
+        return INSTANCE_GROUPS.stream()
+                .filter(name::contains)
+                .findFirst()
+                .orElse(name);
+    }
+
+    public static String key(ServerAddress address) {
+        return address.getName() + "/" + address.getIp() + ":" + address.getPort();
+    }
+
+    public String getKey() {
+        return key(address);
+    }
+
+    public ServerAddress getAddress() {
+        return address;
+    }
+
+    public String getInstanceGroup() {
+        return instanceGroup;
+    }
+
+    public Set<NodeRole> getRoles() {
+        return roles;
+    }
+
+    public boolean hasRole(NodeRole role) {
+        return roles.contains(role);
+    }
+
+    public String getAz() {
+        return az;
+    }
+
+    @Override
+    public String toString() {
+        return "ElasticsearchHost{" +
+                "address=" + address.getIp() + ":" + address.getPort() +
+                ", instanceGroup='" + instanceGroup + '\'' +
+                ", roles=" + roles +
+                ", az='" + az + '\'' +
+                '}';
+    }
+}
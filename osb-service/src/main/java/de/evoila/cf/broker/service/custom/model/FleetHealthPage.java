@@ -0,0 +1,54 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * One page of the fleet health snapshot.
+ */
+public class FleetHealthPage {
+
+    @JsonProperty("content")
+    private final List<InstanceHealth> content;
+
+    @JsonProperty("page")
+    private final int page;
+
+    @JsonProperty("size")
+    private final int size;
+
+    @JsonProperty("total_elements")
+    private final int totalElements;
+
+    @JsonProperty("updated_at")
+    private final long updatedAt;
+
+    public FleetHealthPage(List<InstanceHealth> content, int page, int size, int totalElements, long updatedAt) {
+        this.content = content;
+        this.page = page;
+        this.size = size;
+        this.totalElements = totalElements;
+        this.updatedAt = updatedAt;
+    }
+
+    public List<InstanceHealth> getContent() {
+        return content;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getTotalElements() {
+        return totalElements;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,120 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Health of a single service instance as seen by the last background poll.
+ */
+public class InstanceHealth {
+
+    public enum Status {
+        @JsonProperty("green") GREEN,
+        @JsonProperty("yellow") YELLOW,
+        @JsonProperty("red") RED,
+        @JsonProperty("unreachable") UNREACHABLE;
+
+        public static Status of(String status) {
+            return Status.valueOf(status.toUpperCase());
+        }
+    }
+
+    @JsonProperty("service_instance_id")
+    private final String serviceInstanceId;
+
+    @JsonProperty("plan_id")
+    private final String planId;
+
+    @JsonProperty("status")
+    private final Status status;
+
+    @JsonProperty("number_of_nodes")
+    private final int numberOfNodes;
+
+    @JsonProperty("unassigned_shards")
+    private final int unassignedShards;
+
+    @JsonProperty("max_disk_used_percent")
+    private final double maxDiskUsedPercent;
+
+    @JsonProperty("write_rejections")
+    private final long writeRejections;
+
+    @JsonProperty("rejecting_writes")
+    private final boolean rejectingWrites;
+
+    @JsonProperty("checked_at")
+    private final long checkedAt;
+
+    @JsonProperty("error")
+    private final String error;
+
+    public InstanceHealth(String serviceInstanceId, String planId, Status status, int numberOfNodes, int unassignedShards,
+                          double maxDiskUsedPercent, long writeRejections, boolean rejectingWrites, long checkedAt) {
+        this(serviceInstanceId, planId, status, numberOfNodes, unassignedShards, maxDiskUsedPercent, writeRejections,
+                rejectingWrites, checkedAt, null);
+    }
+
+    private InstanceHealth(String serviceInstanceId, String planId, Status status, int numberOfNodes, int unassignedShards,
+                           double maxDiskUsedPercent, long writeRejections, boolean rejectingWrites, long checkedAt, String error) {
+        this.serviceInstanceId = serviceInstanceId;
+        this.planId = planId;
+        this.status = status;
+        this.numberOfNodes = numberOfNodes;
+        this.unassignedShards = unassignedShards;
+        this.maxDiskUsedPercent = maxDiskUsedPercent;
+        this.writeRejections = writeRejections;
+        this.rejectingWrites = rejectingWrites;
+        this.checkedAt = checkedAt;
+        this.error = error;
+    }
+
+    public static InstanceHealth unreachable(String serviceInstanceId, String planId, long checkedAt, String error) {
+        return new InstanceHealth(serviceInstanceId, planId, Status.UNREACHABLE, 0, 0, 0, 0, false, checkedAt, error);
+    }
+
+    public String getServiceInstanceId() {
+        return serviceInstanceId;
+    }
+
+    public String getPlanId() {
+        return planId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    public int getUnassignedShards() {
+        return unassignedShards;
+    }
+
+    public double getMaxDiskUsedPercent() {
+        return maxDiskUsedPercent;
+    }
+
+    /**
+     * @return the write thread pool rejections summed over all nodes since their start
+     */
+    public long getWriteRejections() {
+        return writeRejections;
+    }
+
+    /**
+     * @return true if the write rejections grew since the previous poll
+     */
+    public boolean isRejectingWrites() {
+        return rejectingWrites;
+    }
+
+    public long getCheckedAt() {
+        return checkedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,160 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of indices from a source to a target service instance, stored in the target instance
+ * so it can be resumed after a failure or a restart of the broker.
+ */
+public class Migration {
+
+    public static final String PENDING = "pending";
+    public static final String RUNNING = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("source_instance_id")
+    private String sourceInstanceId;
+
+    @JsonProperty("target_instance_id")
+    private String targetInstanceId;
+
+    @JsonProperty("status")
+    private String status = PENDING;
+
+    @JsonProperty("requests_per_second")
+    private double requestsPerSecond;
+
+    @JsonProperty("batch_size")
+    private int batchSize;
+
+    @JsonProperty("started_at")
+    private long startedAt;
+
+    @JsonProperty("finished_at")
+    private long finishedAt;
+
+    @JsonProperty("error")
+    private String error;
+
+    @JsonProperty("indices")
+    private List<MigrationIndex> indices = new ArrayList<>();
+
+    @JsonIgnore
+    private long version;
+
+    public Migration() {
+    }
+
+    public Migration(String id, String sourceInstanceId, String targetInstanceId, double requestsPerSecond, int batchSize,
+                     List<MigrationIndex> indices) {
+        this.id = id;
+        this.sourceInstanceId = sourceInstanceId;
+        this.targetInstanceId = targetInstanceId;
+        this.requestsPerSecond = requestsPerSecond;
+        this.batchSize = batchSize;
+        this.indices = indices;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getSourceInstanceId() {
+        return sourceInstanceId;
+    }
+
+    public void setSourceInstanceId(String sourceInstanceId) {
+        this.sourceInstanceId = sourceInstanceId;
+    }
+
+    public String getTargetInstanceId() {
+        return targetInstanceId;
+    }
+
+    public void setTargetInstanceId(String targetInstanceId) {
+        this.targetInstanceId = targetInstanceId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * Maximum number of documents copied per second, 0 for no limit.
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<MigrationIndex> getIndices() {
+        return indices;
+    }
+
+    public void setIndices(List<MigrationIndex> indices) {
+        this.indices = indices;
+    }
+
+    /**
+     * The version of the stored document, increased on every checkpoint so a delayed write can
+     * never overwrite a later one.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
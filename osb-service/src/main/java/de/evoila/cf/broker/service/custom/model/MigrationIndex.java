@@ -0,0 +1,127 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of a single index of a {@link Migration}. Slices are the checkpoints: a completed
+ * slice is never copied again, an interrupted one is copied again from its start.
+ */
+public class MigrationIndex {
+
+    @JsonProperty("name")
+    private String name;
+
+    @JsonProperty("status")
+    private String status = Migration.PENDING;
+
+    @JsonProperty("slices")
+    private int slices;
+
+    @JsonProperty("completed_slices")
+    private List<Integer> completedSlices = new ArrayList<>();
+
+    @JsonProperty("docs_total")
+    private long docsTotal;
+
+    @JsonProperty("docs_migrated")
+    private long docsMigrated;
+
+    @JsonProperty("docs_checkpointed")
+    private long docsCheckpointed;
+
+    @JsonProperty("number_of_replicas")
+    private String numberOfReplicas;
+
+    @JsonProperty("refresh_interval")
+    private String refreshInterval;
+
+    public MigrationIndex() {
+    }
+
+    public MigrationIndex(String name, int slices, long docsTotal) {
+        this.name = name;
+        this.slices = slices;
+        this.docsTotal = docsTotal;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    public void setSlices(int slices) {
+        this.slices = slices;
+    }
+
+    public List<Integer> getCompletedSlices() {
+        return completedSlices;
+    }
+
+    public void setCompletedSlices(List<Integer> completedSlices) {
+        this.completedSlices = completedSlices;
+    }
+
+    public long getDocsTotal() {
+        return docsTotal;
+    }
+
+    public void setDocsTotal(long docsTotal) {
+        this.docsTotal = docsTotal;
+    }
+
+    public long getDocsMigrated() {
+        return docsMigrated;
+    }
+
+    public void setDocsMigrated(long docsMigrated) {
+        this.docsMigrated = docsMigrated;
+    }
+
+    public long getDocsCheckpointed() {
+        return docsCheckpointed;
+    }
+
+    public void setDocsCheckpointed(long docsCheckpointed) {
+        this.docsCheckpointed = docsCheckpointed;
+    }
+
+    /**
+     * The number of replicas of the source index, set on the target index once all slices are copied.
+     */
+    public String getNumberOfReplicas() {
+        return numberOfReplicas;
+    }
+
+    public void setNumberOfReplicas(String numberOfReplicas) {
+        this.numberOfReplicas = numberOfReplicas;
+    }
+
+    /**
+     * The refresh interval of the source index, or null for the default.
+     */
+    public String getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(String refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+}
@@ -0,0 +1,44 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static de.evoila.cf.cpi.bosh.BaseElasticsearchDeploymentManager.*;
+
+/**
+ * Roles of an Elasticsearch node, as derived from the instance group it is deployed in.
+ */
+public enum NodeRole {
+    MASTER, DATA, INGEST, MACHINE_LEARNING, COORDINATING;
+
+    /**
+     * Returns the roles of the nodes in the given instance group.
+     *
+     * @param instanceGroup the name of the instance group
+     * @return the roles, empty for unknown instance groups
+     */
+    public static Set<NodeRole> forInstanceGroup(String instanceGroup) {
+        if (instanceGroup == null) {
+            return Collections.emptySet();
+        }
+
+        switch (instanceGroup) {
+            case "elasticsearch":
+            case GENERAL_NODES:
+                return EnumSet.of(MASTER, DATA, INGEST);
+            case MASTER_ELIGIBLE_NODES:
+                return EnumSet.of(MASTER);
+            case DATA_NODES:
+                return EnumSet.of(DATA);
+            case INGEST_NODES:
+                return EnumSet.of(INGEST);
+            case MACHINE_LEARNING_NODES:
+                return EnumSet.of(MACHINE_LEARNING);
+            case COORDINATING_NODES:
+                return EnumSet.of(COORDINATING);
+            default:
+                return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Search or indexing operations of the same normalized shape, observed while running on a
+ * service instance.
+ */
+public class SlowOperation {
+
+    @JsonProperty("action")
+    private final String action;
+
+    @JsonProperty("shape")
+    private final String shape;
+
+    @JsonProperty("indices")
+    private final List<String> indices;
+
+    @JsonProperty("occurrences")
+    private final int occurrences;
+
+    @JsonProperty("max_running_time_ms")
+    private final long maxRunningTimeMs;
+
+    @JsonProperty("total_running_time_ms")
+    private final long totalRunningTimeMs;
+
+    public SlowOperation(String action, String shape, List<String> indices, int occurrences, long maxRunningTimeMs,
+                         long totalRunningTimeMs) {
+        this.action = action;
+        this.shape = shape;
+        this.indices = indices;
+        this.occurrences = occurrences;
+        this.maxRunningTimeMs = maxRunningTimeMs;
+        this.totalRunningTimeMs = totalRunningTimeMs;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * @return the request body with all values replaced by <code>?</code>, or the action for
+     * operations without a body
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    public List<String> getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return the number of distinct tasks of this shape observed
+     */
+    public int getOccurrences() {
+        return occurrences;
+    }
+
+    public long getMaxRunningTimeMs() {
+        return maxRunningTimeMs;
+    }
+
+    /**
+     * @return the running times of all observed tasks summed up, as seen when last sampled
+     */
+    public long getTotalRunningTimeMs() {
+        return totalRunningTimeMs;
+    }
+}
@@ -0,0 +1,46 @@
+package de.evoila.cf.broker.service.custom.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The slowest operations of a service instance, sampled from its running tasks.
+ */
+public class SlowOperationsReport {
+
+    @JsonProperty("service_instance_id")
+    private final String serviceInstanceId;
+
+    @JsonProperty("samples")
+    private final int samples;
+
+    @JsonProperty("sampled_at")
+    private final long sampledAt;
+
+    @JsonProperty("operations")
+    private final List<SlowOperation> operations;
+
+    public SlowOperationsReport(String serviceInstanceId, int samples, long sampledAt, List<SlowOperation> operations) {
+        this.serviceInstanceId = serviceInstanceId;
+        this.samples = samples;
+        this.sampledAt = sampledAt;
+        this.operations = operations;
+    }
+
+    public String getServiceInstanceId() {
+        return serviceInstanceId;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public long getSampledAt() {
+        return sampledAt;
+    }
+
+    public List<SlowOperation> getOperations() {
+        return operations;
+    }
+}
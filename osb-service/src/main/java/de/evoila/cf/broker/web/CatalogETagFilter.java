@@ -0,0 +1,129 @@
+package de.evoila.cf.broker.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Serves the catalog from a response serialized once per catalog version, with a strong ETag.
+ * Requests with a matching <code>If-None-Match</code> header are answered with 304. The cached
+ * response is dropped whenever the configuration, and with it the catalog, is refreshed.
+ */
+@Component
+public class CatalogETagFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogETagFilter.class);
+
+    private static final String CATALOG_PATH = "/v2/catalog";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private volatile CachedCatalog cachedCatalog;
+
+    private long version;
+
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public synchronized void invalidate() {
+        cachedCatalog = null;
+        version++;
+        log.info("Dropped cached catalog response after configuration refresh.");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.GET.matches(request.getMethod())
+                || !CATALOG_PATH.equals(request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        CachedCatalog catalog = cachedCatalog;
+
+        if (catalog == null) {
+            final long requestVersion = currentVersion();
+            final ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+            filterChain.doFilter(request, wrapper);
+
+            if (wrapper.getStatus() != HttpServletResponse.SC_OK) {
+                wrapper.copyBodyToResponse();
+                return;
+            }
+
+            catalog = new CachedCatalog(wrapper.getContentAsByteArray(), wrapper.getContentType());
+            store(catalog, requestVersion);
+            wrapper.resetBuffer();
+        }
+
+        response.setHeader(HttpHeaders.ETAG, catalog.etag);
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), catalog.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(catalog.contentType);
+        response.setContentLength(catalog.body.length);
+        response.getOutputStream().write(catalog.body);
+    }
+
+    private synchronized long currentVersion() {
+        return version;
+    }
+
+    private synchronized void store(CachedCatalog catalog, long requestVersion) {
+        // Do not cache a catalog rendered while a refresh was in progress
+        if (version == requestVersion) {
+            cachedCatalog = catalog;
+        }
+    }
+
+    /**
+     * Evaluates <code>If-None-Match</code> as RFC 7232, section 3.2 requires: each entry of the list is
+     * compared with the weak comparison, i.e. a <code>W/</code> prefix is ignored, and <code>*</code>
+     * matches any current representation.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals("*") || stripWeak(tag).equals(etag));
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+    }
+
+    private static class CachedCatalog {
+        private final byte[] body;
+        private final String contentType;
+        private final String etag;
+
+        CachedCatalog(byte[] body, String contentType) {
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.evoila.cf.broker.web;
+
+import de.evoila.cf.broker.service.custom.ElasticsearchTracing;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Opens a server span for every OSB request, continuing the trace of the platform if the request
+ * carries a trace context. All spans of the request, e.g. of bindings and Elasticsearch calls,
+ * become children of this span.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class TracingFilter extends OncePerRequestFilter {
+
+    private static final String OSB_PATH_PREFIX = "/v2/";
+
+    /**
+     * Ids in OSB paths are replaced, so span names stay low in cardinality.
+     */
+    private static final Pattern ID_SEGMENT = Pattern.compile("/(service_instances|service_bindings)/[^/]+");
+
+    private static final TextMapGetter<HttpServletRequest> GETTER = new TextMapGetter<HttpServletRequest>() {
+        @Override
+        public Iterable<String> keys(HttpServletRequest request) {
+            return Collections.list(request.getHeaderNames());
+        }
+
+        @Override
+        public String get(HttpServletRequest request, String key) {
+            return request != null ? request.getHeader(key) : null;
+        }
+    };
+
+    private final ElasticsearchTracing tracing;
+
+    public TracingFilter(ElasticsearchTracing tracing) {
+        this.tracing = tracing;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().substring(request.getContextPath().length()).startsWith(OSB_PATH_PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        final String path = request.getRequestURI().substring(request.getContextPath().length());
+        final String route = ID_SEGMENT.matcher(path).replaceAll("/$1/{id}");
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("http.method", request.getMethod());
+        attributes.put("http.route", route);
+        attributes.put("http.target", path);
+
+        final Context parent = tracing.extract(request, GETTER);
+        final Span span = tracing.start(request.getMethod() + " " + route, SpanKind.SERVER, parent, attributes);
+
+        try (Scope scope = span.makeCurrent()) {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            tracing.failed(span, e);
+            throw e;
+        } finally {
+            span.setAttribute("http.status_code", response.getStatus());
+            span.end();
+        }
+    }
+}
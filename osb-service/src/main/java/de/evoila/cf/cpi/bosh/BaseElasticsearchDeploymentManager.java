@@ -6,7 +6,12 @@ import de.evoila.cf.broker.model.catalog.plan.CustomInstanceGroupConfig;
 import de.evoila.cf.broker.model.catalog.plan.InstanceGroupConfig;
 import de.evoila.cf.broker.model.catalog.plan.Metadata;
 import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.model.credential.UsernamePasswordCredential;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
+import de.evoila.cf.broker.service.custom.ElasticsearchUtilities;
+import de.evoila.cf.broker.service.custom.SnapshotCloneService;
 import de.evoila.cf.broker.service.custom.constants.CredentialConstants;
+import de.evoila.cf.broker.service.custom.model.NodeRole;
 import de.evoila.cf.broker.util.MapUtils;
 import de.evoila.cf.cpi.bosh.deployment.DeploymentManager;
 import de.evoila.cf.cpi.bosh.deployment.manifest.InstanceGroup;
@@ -16,10 +21,15 @@ import de.evoila.cf.security.credentials.CredentialStore;
 import de.evoila.cf.security.credentials.DefaultCredentialConstants;
 import de.evoila.cf.security.credentials.credhub.CredhubClient;
 import org.assertj.core.util.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,17 +53,30 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
     public final static String MACHINE_LEARNING_NODES = "machine_learning_nodes";
     public final static String GENERAL_NODES = "general_nodes";
     public final static String BACKUP_AGENT_JOB_NAME = "backup-agent";
+    public final static String ZONE_ATTRIBUTE = "zone";
+
+    private static final Logger log = LoggerFactory.getLogger(BaseElasticsearchDeploymentManager.class);
 
     private final CredentialStore credentialStore;
 
-    BaseElasticsearchDeploymentManager(BoshProperties boshProperties, Environment env, CredentialStore credentialStore) {
+    private final ElasticsearchMetrics metrics;
+
+    BaseElasticsearchDeploymentManager(BoshProperties boshProperties, Environment env, CredentialStore credentialStore,
+                                       ElasticsearchMetrics metrics) {
         super(boshProperties, env);
         this.credentialStore = credentialStore;
+        this.metrics = metrics;
     }
 
     @Override
     protected void replaceParameters(ServiceInstance serviceInstance, Manifest manifest, Plan plan, Map<String, Object> customParameters,
                                      boolean isUpdate) {
+        metrics.record(ElasticsearchMetrics.MANIFEST, ElasticsearchMetrics.RENDER, plan.getId(), ElasticsearchMetrics.NONE,
+                () -> renderParameters(serviceInstance, manifest, plan, customParameters, isUpdate));
+    }
+
+    private void renderParameters(ServiceInstance serviceInstance, Manifest manifest, Plan plan, Map<String, Object> customParameters,
+                                  boolean isUpdate) {
         HashMap<String, Object> properties = new HashMap<>();
         properties.putAll(plan.getMetadata().getCustomParameters());
 
@@ -61,12 +84,20 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
             properties.putAll(customParameters);
 
         if(isUpdate) {
-            if(customParameters != null && !customParameters.isEmpty()) {
+            if(customParameters != null && customParameters.get("elasticsearch") instanceof Map) {
                 Map<String, Object> elasticsearch = (Map<String, Object>) customParameters.get("elasticsearch");
-                Map<String, Object> backup = (Map<String, Object>) elasticsearch.get("backup");
+                Map<String, Object> backup = elasticsearch.get("backup") instanceof Map ?
+                        (Map<String, Object>) elasticsearch.get("backup") : new HashMap<>();
+
+                // Read-only keys for the same bucket, which clones of this instance get instead of the keys below
+                if(backup.get("read_only_access_key") != null && backup.get("read_only_secret_key") != null) {
+                    metrics.record(ElasticsearchMetrics.MANIFEST, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), ElasticsearchMetrics.NONE,
+                            () -> credentialStore.createUser(serviceInstance, CredentialConstants.S3_BACKUP_READ_ONLY_CREDENTIALS, backup.get("read_only_access_key").toString(), backup.get("read_only_secret_key").toString()));
+                }
 
-                if(!backup.isEmpty()) {
-                    credentialStore.createUser(serviceInstance, CredentialConstants.S3_BACKUP_CREDENTIALS, backup.get("access_key").toString(), backup.get("secret_key").toString());
+                if(backup.get("access_key") != null) {
+                    metrics.record(ElasticsearchMetrics.MANIFEST, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), ElasticsearchMetrics.NONE,
+                            () -> credentialStore.createUser(serviceInstance, CredentialConstants.S3_BACKUP_CREDENTIALS, backup.get("access_key").toString(), backup.get("secret_key").toString()));
 
                     manifest.getInstanceGroups().forEach(instanceGroup -> {
                         final Map<String, Object> instanceGroupProperties = instanceGroup.getProperties();
@@ -79,17 +110,21 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
             }
 
             this.updateInstanceGroupConfiguration(manifest, plan);
+            this.renderClientCertificateAuthority(serviceInstance, manifest, plan);
         } else {
             this.extractPlugins(plan);
             this.updateInstanceGroupConfiguration(manifest, plan);
 
             // Add user to credential store
-            credentialStore.createUser(serviceInstance, CredentialConstants.SUPER_ADMIN, CredentialConstants.SUPER_ADMIN);
-            credentialStore.createUser(serviceInstance, CredentialConstants.KIBANA_USER, CredentialConstants. KIBANA_USER);
-            credentialStore.createUser(serviceInstance, CredentialConstants.LOGSTASH_USER, CredentialConstants.LOGSTASH_USER);
-            credentialStore.createUser(serviceInstance, CredentialConstants.DRAIN_MONITOR_USER, CredentialConstants.DRAIN_MONITOR_USER);
-            credentialStore.createUser(serviceInstance, DefaultCredentialConstants.BACKUP_AGENT_CREDENTIALS, CredentialConstants.BACKUP_AGENT_USER);
-            credentialStore.createUser(serviceInstance, DefaultCredentialConstants.BACKUP_CREDENTIALS, CredentialConstants.SUPER_ADMIN);
+            metrics.record(ElasticsearchMetrics.MANIFEST, ElasticsearchMetrics.CREDENTIAL_STORE, plan.getId(), ElasticsearchMetrics.NONE, () -> {
+                credentialStore.createUser(serviceInstance, CredentialConstants.SUPER_ADMIN, CredentialConstants.SUPER_ADMIN);
+                credentialStore.createUser(serviceInstance, CredentialConstants.KIBANA_USER, CredentialConstants. KIBANA_USER);
+                credentialStore.createUser(serviceInstance, CredentialConstants.LOGSTASH_USER, CredentialConstants.LOGSTASH_USER);
+                credentialStore.createUser(serviceInstance, CredentialConstants.DRAIN_MONITOR_USER, CredentialConstants.DRAIN_MONITOR_USER);
+                credentialStore.createUser(serviceInstance, DefaultCredentialConstants.BACKUP_AGENT_CREDENTIALS, CredentialConstants.BACKUP_AGENT_USER);
+                credentialStore.createUser(serviceInstance, DefaultCredentialConstants.BACKUP_CREDENTIALS, CredentialConstants.SUPER_ADMIN);
+            });
+            this.renderClientCertificateAuthority(serviceInstance, manifest, plan);
 
             if (credentialStore instanceof CredhubClient) {
                 manifest.getInstanceGroups().forEach(instanceGroup -> {
@@ -100,6 +135,12 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
                     MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.users.reserved.logstash_system.password", "((" + CredentialConstants.LOGSTASH_USER + ".password))");
                     MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.users.reserved.drain-monitor.password", "((" + CredentialConstants.DRAIN_MONITOR_USER + ".password))");
 
+                    // S3 client for the read-only repository of the source instance, registered once the clone is running
+                    if (SnapshotCloneService.isClone(customParameters)) {
+                        MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.backup.s3.client." + SnapshotCloneService.S3_CLIENT + ".access_key", "((" + CredentialConstants.S3_CLONE_CREDENTIALS + ".username))");
+                        MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.backup.s3.client." + SnapshotCloneService.S3_CLIENT + ".secret_key", "((" + CredentialConstants.S3_CLONE_CREDENTIALS + ".password))");
+                    }
+
                     // Add Backup Agent credentials to manifest
                     if (instanceGroup.getJob(BACKUP_AGENT_JOB_NAME).isPresent()) {
                         JobV2 backupAgentJob = instanceGroup.getJob(BACKUP_AGENT_JOB_NAME).get();
@@ -117,6 +158,13 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
                     MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.users.reserved.logstash_system.password", credentialStore.getPassword(serviceInstance, CredentialConstants.LOGSTASH_USER));
                     MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.users.reserved.drain-monitor.password", credentialStore.getPassword(serviceInstance, CredentialConstants.DRAIN_MONITOR_USER));
 
+                    // S3 client for the read-only repository of the source instance, registered once the clone is running
+                    if (SnapshotCloneService.isClone(customParameters)) {
+                        final UsernamePasswordCredential s3CloneCredentials = credentialStore.getUser(serviceInstance, CredentialConstants.S3_CLONE_CREDENTIALS);
+                        MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.backup.s3.client." + SnapshotCloneService.S3_CLIENT + ".access_key", s3CloneCredentials.getUsername());
+                        MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.backup.s3.client." + SnapshotCloneService.S3_CLIENT + ".secret_key", s3CloneCredentials.getPassword());
+                    }
+
                     // Add Backup Agent credentials to manifest
                     if (instanceGroup.getJob(BACKUP_AGENT_JOB_NAME).isPresent()) {
                         JobV2 backupAgentJob = instanceGroup.getJob(BACKUP_AGENT_JOB_NAME).get();
@@ -129,6 +177,80 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
         }
     }
 
+    /**
+     * Lets the nodes authenticate the client certificates of PKI bindings. The certificate
+     * authority is created by the platform service before the deployment. TLS client
+     * authentication stays optional, so password and API key bindings keep working.
+     * <p>
+     * Client certificates are verified in the TLS handshake before the PKI realm sees them, so the
+     * client certificate authority is appended to the PEM bundle of the HTTP SSL certificate
+     * authorities as well, after the server certificate authority it signs the node certificates with.
+     */
+    private void renderClientCertificateAuthority(ServiceInstance serviceInstance, Manifest manifest, Plan plan) {
+        if (!ElasticsearchUtilities.planContainsXPack(plan) || !ElasticsearchUtilities.isHttpsEnabled(plan)) {
+            return;
+        }
+
+        final String certificate;
+        if (credentialStore instanceof CredhubClient) {
+            certificate = "((" + CredentialConstants.CLIENT_CA + ".username))";
+        } else {
+            final UsernamePasswordCredential authority = credentialStore.getUser(serviceInstance, CredentialConstants.CLIENT_CA);
+            if (authority == null) {
+                return;
+            }
+            certificate = authority.getUsername();
+        }
+
+        manifest.getInstanceGroups().forEach(instanceGroup -> {
+            final Map<String, Object> instanceGroupProperties = instanceGroup.getProperties();
+            MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.security.http.ssl.client_authentication", "optional");
+            MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.security.authc.pki.certificate-authorities", certificate);
+
+            final Object httpAuthorities = nestedValue(instanceGroupProperties, "elasticsearch", "xpack", "security", "http", "ssl", "certificate-authorities");
+            if (httpAuthorities instanceof String && !((String) httpAuthorities).contains(certificate)) {
+                MapUtils.deepInsert(instanceGroupProperties, "elasticsearch.xpack.security.http.ssl.certificate-authorities",
+                        ((String) httpAuthorities).trim() + "\n" + certificate);
+            }
+        });
+    }
+
+    /**
+     * Removes the value at the given path of nested property maps, together with maps left empty by it.
+     */
+    private static void removeNestedValue(Map<String, Object> properties, String... path) {
+        if (properties == null) {
+            return;
+        }
+        if (path.length == 1) {
+            properties.remove(path[0]);
+            return;
+        }
+
+        final Object child = properties.get(path[0]);
+        if (child instanceof Map) {
+            final Map<String, Object> childProperties = (Map<String, Object>) child;
+            removeNestedValue(childProperties, Arrays.copyOfRange(path, 1, path.length));
+            if (childProperties.isEmpty()) {
+                properties.remove(path[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns the value at the given path of nested property maps, or null if any part of the path is missing.
+     */
+    private static Object nestedValue(Map<String, Object> properties, String... path) {
+        Object value = properties;
+        for (String key : path) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<String, Object>) value).get(key);
+        }
+        return value;
+    }
+
     private void extractPlugins(Plan plan) {
         final Object elasticsearchPropertiesRaw = plan.getMetadata().getProperties().get("elasticsearch");
         if (elasticsearchPropertiesRaw instanceof  Map) {
@@ -185,6 +307,51 @@ public abstract class BaseElasticsearchDeploymentManager extends DeploymentManag
                 }
             }
         }
+
+        updateZoneAwareness(manifest);
+    }
+
+    /**
+     * Renders the availability zone of the nodes as node attribute <code>zone</code> and enables
+     * shard allocation awareness for it, so a primary and its replicas are spread over the zones.
+     * <p>
+     * Manifest properties apply to all VMs of an instance group, so the zone is only rendered for
+     * instance groups placed in a single availability zone. Elasticsearch does not allocate shards
+     * to data nodes without the awareness attribute, so awareness is only enabled if every data
+     * holding instance group got its zone and the data nodes span more than one zone.
+     * <p>
+     * Updates re-render the existing manifest, so both properties are removed first wherever the
+     * conditions no longer hold, e.g. after an instance group was spread over further zones.
+     */
+    private void updateZoneAwareness(Manifest manifest) {
+        final Set<String> dataZones = Sets.newLinkedHashSet();
+        boolean aware = true;
+
+        for (InstanceGroup instanceGroup : manifest.getInstanceGroups()) {
+            removeNestedValue(instanceGroup.getProperties(), "elasticsearch", "node", "attr", ZONE_ATTRIBUTE);
+            removeNestedValue(instanceGroup.getProperties(), "elasticsearch", "cluster", "routing", "allocation", "awareness", "attributes");
+            if (instanceGroup.getInstances() == 0) {
+                continue;
+            }
+
+            final List<String> azs = instanceGroup.getAzs();
+            final boolean holdsData = NodeRole.forInstanceGroup(instanceGroup.getName()).contains(NodeRole.DATA);
+            if (azs != null && azs.size() == 1) {
+                MapUtils.deepInsert(instanceGroup.getProperties(), "elasticsearch.node.attr." + ZONE_ATTRIBUTE, azs.get(0));
+                if (holdsData) {
+                    dataZones.add(azs.get(0));
+                }
+            } else if (holdsData) {
+                log.warn(MessageFormat.format("Instance group ''{0}'' spans the availability zones {1}, shard allocation awareness is not enabled.",
+                        instanceGroup.getName(), azs));
+                aware = false;
+            }
+        }
+
+        if (aware && dataZones.size() > 1) {
+            manifest.getInstanceGroups().forEach(instanceGroup -> MapUtils.deepInsert(instanceGroup.getProperties(),
+                    "elasticsearch.cluster.routing.allocation.awareness.attributes", ZONE_ATTRIBUTE));
+        }
     }
 
     private void updateProvidesAndConsumes(InstanceGroup instanceGroup, InstanceGroupConfig instanceGroupConfig) {
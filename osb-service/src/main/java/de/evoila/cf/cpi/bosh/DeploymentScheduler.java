@@ -0,0 +1,139 @@
+package de.evoila.cf.cpi.bosh;
+
+import de.evoila.cf.broker.bean.ElasticsearchProperties;
+import de.evoila.cf.broker.exception.PlatformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of BOSH deployments running in parallel against the director. Waiting
+ * deployments are started by priority and, within the same priority, in arrival order.
+ */
+@Component
+public class DeploymentScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(DeploymentScheduler.class);
+
+    public enum Priority {
+        DELETE, UPDATE, CREATE
+    }
+
+    @FunctionalInterface
+    public interface DeploymentTask<T> {
+        T run() throws PlatformException;
+    }
+
+    private final int maxParallel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private int running;
+
+    public DeploymentScheduler(ElasticsearchProperties elasticsearchProperties) {
+        this.maxParallel = Math.max(1, elasticsearchProperties.getDeployment().getMaxParallel());
+    }
+
+    /**
+     * Runs the task as soon as a deployment slot is free.
+     *
+     * @param priority the priority of the deployment
+     * @param serviceInstanceId the id of the service instance, used for logging
+     * @param task the deployment
+     * @return the result of the task
+     * @throws PlatformException if the task fails or the thread is interrupted while waiting
+     */
+    public <T> T schedule(Priority priority, String serviceInstanceId, DeploymentTask<T> task) throws PlatformException {
+        final long start = System.nanoTime();
+        acquire(priority);
+
+        try {
+            final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (waited >= 1000) {
+                log.info(priority + " of service instance " + serviceInstanceId + " waited " + waited + " ms for a deployment slot.");
+            }
+
+            return task.run();
+        } finally {
+            release();
+        }
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(Priority priority) throws PlatformException {
+        final Ticket ticket = new Ticket(priority, sequence.incrementAndGet());
+
+        lock.lock();
+        try {
+            waiting.add(ticket);
+            while (running >= maxParallel || waiting.peek() != ticket) {
+                changed.await();
+            }
+            waiting.poll();
+            running++;
+            changed.signalAll();
+        } catch (InterruptedException e) {
+            waiting.remove(ticket);
+            changed.signalAll();
+            Thread.currentThread().interrupt();
+            throw new PlatformException("Interrupted while waiting for a deployment slot.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            running--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Ticket implements Comparable<Ticket> {
+        private final Priority priority;
+        private final long sequence;
+
+        Ticket(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -1,52 +1,408 @@
 package de.evoila.cf.cpi.bosh;
 
 import de.evoila.cf.broker.bean.BoshProperties;
+import de.evoila.cf.broker.exception.PlatformException;
+import de.evoila.cf.broker.exception.ServiceDefinitionDoesNotExistException;
+import de.evoila.cf.broker.exception.ServiceBrokerException;
 import de.evoila.cf.broker.model.DashboardClient;
 import de.evoila.cf.broker.model.ServiceInstance;
+import de.evoila.cf.broker.model.catalog.ServerAddress;
 import de.evoila.cf.broker.model.catalog.plan.Plan;
 import de.evoila.cf.broker.repository.PlatformRepository;
 import de.evoila.cf.broker.service.CatalogService;
 import de.evoila.cf.broker.service.availability.ServicePortAvailabilityVerifier;
+import de.evoila.cf.broker.service.custom.ClientCertificateAuthority;
+import de.evoila.cf.broker.service.custom.ElasticsearchDeprovisioningService;
+import de.evoila.cf.broker.service.custom.ElasticsearchHostRegistry;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
+import de.evoila.cf.broker.service.custom.ElasticsearchSettings;
+import de.evoila.cf.broker.service.custom.ElasticsearchSettingsService;
+import de.evoila.cf.broker.service.custom.ElasticsearchTracing;
+import de.evoila.cf.broker.service.custom.ElasticsearchUtilities;
+import de.evoila.cf.broker.service.custom.IndexMaintenanceService;
+import de.evoila.cf.broker.service.custom.MaintenancePolicy;
+import de.evoila.cf.broker.service.custom.ServiceInstanceCache;
+import de.evoila.cf.broker.service.custom.SharedClusterService;
+import de.evoila.cf.broker.service.custom.SnapshotCloneService;
+import de.evoila.cf.broker.service.custom.model.ElasticsearchHost;
 import de.evoila.cf.security.credentials.CredentialStore;
 import io.bosh.client.deployments.Deployment;
 import io.bosh.client.errands.ErrandSummary;
 import io.bosh.client.vms.Vm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import rx.Observable;
 
+import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @ConditionalOnBean(BoshProperties.class)
 public class ElasticsearchBoshPlatformService extends BoshPlatformService {
 
+    private static final Logger log = LoggerFactory.getLogger(ElasticsearchBoshPlatformService.class);
+
     private static final int defaultPort = 9200;
 
+    private static final String SLOWLOG = "slowlog";
+
+    private final CatalogService catalogService;
+
+    private final ElasticsearchSettingsService settingsService;
+
+    private final ElasticsearchHostRegistry hostRegistry;
+
+    private final DeploymentScheduler deploymentScheduler;
+
+    private final ElasticsearchDeprovisioningService deprovisioningService;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    private final ElasticsearchTracing tracing;
+
+    private final SharedClusterService sharedClusterService;
+
+    private final SnapshotCloneService snapshotCloneService;
+
+    private final IndexMaintenanceService maintenanceService;
+
+    private final ClientCertificateAuthority certificateAuthority;
+
     ElasticsearchBoshPlatformService(PlatformRepository repository, CatalogService catalogService,
                                      ServicePortAvailabilityVerifier availabilityVerifier,
                                      BoshProperties boshProperties, Optional<DashboardClient> dashboardClient,
-                                     Environment env, CredentialStore credentialStore) {
-        super(repository, catalogService, availabilityVerifier, boshProperties, dashboardClient, new ElasticsearchDeploymentManager(boshProperties, env, credentialStore));
+                                     Environment env, CredentialStore credentialStore,
+                                     ElasticsearchSettingsService settingsService, ElasticsearchHostRegistry hostRegistry,
+                                     DeploymentScheduler deploymentScheduler, ElasticsearchDeprovisioningService deprovisioningService,
+                                     ServiceInstanceCache serviceInstanceCache, ElasticsearchMetrics metrics,
+                                     ElasticsearchTracing tracing, SharedClusterService sharedClusterService,
+                                     SnapshotCloneService snapshotCloneService, IndexMaintenanceService maintenanceService,
+                                     ClientCertificateAuthority certificateAuthority) {
+        super(repository, catalogService, availabilityVerifier, boshProperties, dashboardClient,
+                new ElasticsearchDeploymentManager(boshProperties, env, credentialStore, metrics));
+        this.catalogService = catalogService;
+        this.settingsService = settingsService;
+        this.hostRegistry = hostRegistry;
+        this.deploymentScheduler = deploymentScheduler;
+        this.deprovisioningService = deprovisioningService;
+        this.serviceInstanceCache = serviceInstanceCache;
+        this.tracing = tracing;
+        this.sharedClusterService = sharedClusterService;
+        this.snapshotCloneService = snapshotCloneService;
+        this.maintenanceService = maintenanceService;
+        this.certificateAuthority = certificateAuthority;
+    }
+
+    /**
+     * Creates the service instance and invalidates its cached state afterwards, whether the create
+     * succeeded or not. The same applies to updates and deletes.
+     * <p>
+     * osb-core persists the service instance after the platform service returned, so a read in
+     * between caches the previous state again. This window is bounded by the time to live of the
+     * {@link ServiceInstanceCache}.
+     */
+    @Override
+    public ServiceInstance createInstance(ServiceInstance serviceInstance, Plan plan, Map<String, Object> customParameters) throws PlatformException {
+        try {
+            return create(serviceInstance, plan, customParameters);
+        } finally {
+            serviceInstanceCache.invalidate(serviceInstance.getId());
+        }
+    }
+
+    private ServiceInstance create(ServiceInstance serviceInstance, Plan plan, Map<String, Object> customParameters) throws PlatformException {
+        if (SharedClusterService.isSharedCluster(plan)) {
+            if (SnapshotCloneService.isClone(customParameters)) {
+                throw new PlatformException("Service instances on a shared cluster can not be cloned.");
+            }
+            return tracing.trace("shared create", attributes(serviceInstance, plan),
+                    () -> sharedClusterService.provision(serviceInstance, plan));
+        }
+
+        final Map<String, Object> maintenance = maintenancePolicy(customParameters);
+
+        // Resolve the snapshot first, so an unusable source fails the request before anything is deployed
+        final SnapshotCloneService.Source cloneSource = SnapshotCloneService.isClone(customParameters)
+                ? snapshotCloneService.prepare(serviceInstance, customParameters) : null;
+        prepareClientCertificateAuthority(serviceInstance, plan);
+
+        final ServiceInstance created = tracing.trace("bosh create", attributes(serviceInstance, plan), () ->
+                deploymentScheduler.schedule(DeploymentScheduler.Priority.CREATE, serviceInstance.getId(),
+                        () -> super.createInstance(serviceInstance, plan, customParameters)));
+        final ServiceInstance running = created != null ? created : serviceInstance;
+
+        // The restore runs outside the deployment scheduler, it can take hours and needs no BOSH director
+        if (cloneSource != null) {
+            final Map<String, String> attributes = attributes(serviceInstance, plan);
+            attributes.put("clone.source_instance_id", cloneSource.getSourceInstanceId());
+            attributes.put("clone.snapshot", cloneSource.getSnapshot());
+            tracing.trace("clone restore", attributes, () -> {
+                snapshotCloneService.restore(running, cloneSource);
+                return null;
+            });
+        }
+
+        applySlowlog(running, plan, customParameters);
+        if (maintenance != null) {
+            try {
+                maintenanceService.storePolicy(running, maintenance);
+            } catch (ServiceBrokerException e) {
+                log.error(MessageFormat.format("Cannot store maintenance policy of service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Applies the slowlog thresholds of the plan, overridden by those of the create request, to the
+     * new cluster. Index settings can not be rendered into the node configuration, so this has to
+     * wait until the cluster is running. A failure is logged, the instance remains usable.
+     */
+    private void applySlowlog(ServiceInstance serviceInstance, Plan plan, Map<String, Object> customParameters) {
+        final Map<String, Object> slowlog = new HashMap<>();
+        mergeSlowlog(slowlog, plan.getMetadata().getCustomParameters());
+        mergeSlowlog(slowlog, customParameters);
+
+        final ElasticsearchSettings settings = ElasticsearchSettings.classify(Collections.singletonMap(SLOWLOG, slowlog));
+        if (settings.getSlowlogSettings().isEmpty()) {
+            return;
+        }
+
+        try {
+            settingsService.applyDynamicSettings(serviceInstance, settings);
+        } catch (ServiceBrokerException e) {
+            log.error(MessageFormat.format("Cannot apply slowlog thresholds to service instance ''{0}''. {1}", serviceInstance.getId(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the validated <code>maintenance</code> parameter of a request, or null if it has none.
+     */
+    private static Map<String, Object> maintenancePolicy(Map<String, Object> customParameters) throws PlatformException {
+        if (customParameters == null || !customParameters.containsKey(MaintenancePolicy.MAINTENANCE)) {
+            return null;
+        }
+
+        if (!(customParameters.get(MaintenancePolicy.MAINTENANCE) instanceof Map)) {
+            throw new PlatformException("Parameter 'maintenance' must be an object.");
+        }
+
+        final Map<String, Object> maintenance = (Map<String, Object>) customParameters.get(MaintenancePolicy.MAINTENANCE);
+        try {
+            MaintenancePolicy.validate(maintenance);
+        } catch (ServiceBrokerException e) {
+            throw new PlatformException(e.getMessage());
+        }
+        return maintenance;
+    }
+
+    private static void mergeSlowlog(Map<String, Object> target, Map<String, Object> parameters) {
+        if (parameters == null || !(parameters.get(SLOWLOG) instanceof Map)) {
+            return;
+        }
+
+        ((Map<String, Object>) parameters.get(SLOWLOG)).forEach((type, thresholds) -> {
+            if (thresholds instanceof Map && target.get(type) instanceof Map) {
+                final Map<String, Object> merged = new HashMap<>((Map<String, Object>) target.get(type));
+                merged.putAll((Map<String, Object>) thresholds);
+                target.put(type, merged);
+            } else {
+                target.put(type, thresholds);
+            }
+        });
+    }
+
+    /**
+     * Applies dynamic cluster and index settings directly to the running cluster. A BOSH deployment
+     * is only triggered if the plan changes or static settings remain after the dynamic ones
+     * have been sorted out. Service instances on a shared cluster can not be updated, as their
+     * settings would apply to all tenants.
+     */
+    @Override
+    public ServiceInstance updateInstance(ServiceInstance serviceInstance, Plan plan, Map<String, Object> customParameters) throws PlatformException {
+        try {
+            return tracing.trace("bosh update", attributes(serviceInstance, plan),
+                    () -> update(serviceInstance, plan, customParameters));
+        } finally {
+            serviceInstanceCache.invalidate(serviceInstance.getId());
+        }
+    }
+
+    private ServiceInstance update(ServiceInstance serviceInstance, Plan plan, Map<String, Object> customParameters) throws PlatformException {
+        // A plan change between a shared and a dedicated plan would need a migration, the dedicated side has no deployment
+        if (SharedClusterService.isSharedCluster(plan) || SharedClusterService.isSharedCluster(currentPlan(serviceInstance))) {
+            if (!plan.getId().equals(serviceInstance.getPlanId()) || (customParameters != null && !customParameters.isEmpty())) {
+                throw new PlatformException(MessageFormat.format("Service instance ''{0}'' can not change its plan or settings, plans on a shared cluster can neither be updated nor changed to or from.",
+                        serviceInstance.getId()));
+            }
+            return serviceInstance;
+        }
+
+        final boolean planChanged = !plan.getId().equals(serviceInstance.getPlanId());
+
+        // The maintenance policy lives in the cluster and never needs a deployment
+        final Map<String, Object> maintenance = maintenancePolicy(customParameters);
+        final Map<String, Object> parameters = maintenance != null ? new HashMap<>(customParameters) : customParameters;
+        if (maintenance != null) {
+            try {
+                maintenanceService.storePolicy(serviceInstance, maintenance);
+            } catch (ServiceBrokerException e) {
+                throw new PlatformException(e.getMessage());
+            }
+
+            parameters.remove(MaintenancePolicy.MAINTENANCE);
+            if (parameters.isEmpty() && !planChanged) {
+                log.info(MessageFormat.format("Updated maintenance policy of service instance ''{0}''.", serviceInstance.getId()));
+                return serviceInstance;
+            }
+        }
+
+        final ElasticsearchSettings settings = ElasticsearchSettings.classify(parameters);
+
+        if (!settings.hasDynamicSettings() || planChanged) {
+            prepareClientCertificateAuthority(serviceInstance, plan);
+            return deploymentScheduler.schedule(DeploymentScheduler.Priority.UPDATE, serviceInstance.getId(),
+                    () -> super.updateInstance(serviceInstance, plan, parameters));
+        }
+
+        try {
+            settingsService.applyDynamicSettings(serviceInstance, settings);
+        } catch (ServiceBrokerException e) {
+            throw new PlatformException(e.getMessage());
+        }
+
+        if (!settings.hasStaticParameters()) {
+            log.info(MessageFormat.format("Updated service instance ''{0}'' without redeployment.", serviceInstance.getId()));
+            return serviceInstance;
+        }
+
+        prepareClientCertificateAuthority(serviceInstance, plan);
+        return deploymentScheduler.schedule(DeploymentScheduler.Priority.UPDATE, serviceInstance.getId(),
+                () -> super.updateInstance(serviceInstance, plan, settings.getStaticParameters()));
+    }
+
+    /**
+     * Creates the certificate authority of PKI bindings before a deployment, which renders it
+     * into the configuration of the nodes. Instances created before PKI bindings existed get it
+     * with their next deployment.
+     */
+    private void prepareClientCertificateAuthority(ServiceInstance serviceInstance, Plan plan) throws PlatformException {
+        if (!ElasticsearchUtilities.planContainsXPack(plan) || !ElasticsearchUtilities.isHttpsEnabled(plan)) {
+            return;
+        }
+
+        try {
+            certificateAuthority.ensureAuthority(serviceInstance);
+        } catch (ServiceBrokerException e) {
+            throw new PlatformException(e.getMessage());
+        }
+    }
+
+    private Plan currentPlan(ServiceInstance serviceInstance) throws PlatformException {
+        try {
+            return catalogService.getServiceDefinition(serviceInstance.getServiceDefinitionId()).getPlans().stream()
+                    .filter(p -> p.getId().equals(serviceInstance.getPlanId()))
+                    .findFirst()
+                    .orElseThrow(() -> new PlatformException(MessageFormat.format("Plan ''{0}'' of service instance ''{1}'' does not exist.",
+                            serviceInstance.getPlanId(), serviceInstance.getId())));
+        } catch (ServiceDefinitionDoesNotExistException e) {
+            throw new PlatformException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void deleteInstance(ServiceInstance serviceInstance, Plan plan) throws PlatformException {
+        try {
+            delete(serviceInstance, plan);
+        } finally {
+            serviceInstanceCache.invalidate(serviceInstance.getId());
+        }
+    }
+
+    private void delete(ServiceInstance serviceInstance, Plan plan) throws PlatformException {
+        if (SharedClusterService.isSharedCluster(plan)) {
+            tracing.trace("shared delete", attributes(serviceInstance, plan), () -> {
+                sharedClusterService.deprovision(serviceInstance, plan);
+                return null;
+            });
+            return;
+        }
+
+        tracing.trace("bosh delete", attributes(serviceInstance, plan), () ->
+                deploymentScheduler.schedule(DeploymentScheduler.Priority.DELETE, serviceInstance.getId(), () -> {
+                    super.deleteInstance(serviceInstance, plan);
+                    return null;
+                }));
     }
 
     protected void runDeleteErrands(ServiceInstance instance, Deployment deployment, Observable<List<ErrandSummary>> errands) {
     }
 
+    /**
+     * Updates the hosts of the service instance in place and indexes them by instance group,
+     * node role and availability zone in the {@link ElasticsearchHostRegistry}. The hosts of
+     * shared clusters are set on provisioning, as there are no VMs of the service instance.
+     */
     @Override
     protected void updateHosts(ServiceInstance serviceInstance, Plan plan, Deployment deployment) {
+        if (SharedClusterService.isSharedCluster(plan)) {
+            return;
+        }
+
+        tracing.trace("bosh update_hosts", attributes(serviceInstance, plan), () -> {
+            indexHosts(serviceInstance, plan);
+            return null;
+        });
+    }
+
+    private void indexHosts(ServiceInstance serviceInstance, Plan plan) {
         List<Vm> vms = super.getVms(serviceInstance);
         if (serviceInstance.getHosts() == null)
             serviceInstance.setHosts(new ArrayList<>());
-        serviceInstance.getHosts().clear();
 
-        vms.forEach(vm -> serviceInstance.getHosts().add(super.toServerAddress(vm, defaultPort, plan)));
+        final Map<String, ElasticsearchHost> hosts = new LinkedHashMap<>();
+        vms.forEach(vm -> {
+            ServerAddress address = super.toServerAddress(vm, defaultPort, plan);
+            hosts.put(ElasticsearchHost.key(address), new ElasticsearchHost(address, vm.getJobName(), vm.getAz()));
+        });
+
+        final Set<String> existing = serviceInstance.getHosts().stream()
+                .map(ElasticsearchHost::key)
+                .collect(Collectors.toSet());
+
+        serviceInstance.getHosts().removeIf(h -> !hosts.containsKey(ElasticsearchHost.key(h)));
+        hosts.forEach((key, host) -> {
+            if (!existing.contains(key))
+                serviceInstance.getHosts().add(host.getAddress());
+        });
+
+        hostRegistry.update(serviceInstance.getId(), new ArrayList<>(hosts.values()));
     }
 
+    /**
+     * Removes the credentials and cached state of the service instance. This runs after the
+     * deployment was deleted, so a failed delete never leaves a running cluster without credentials.
+     */
     @Override
     public void postDeleteInstance(ServiceInstance serviceInstance) {
+        deprovisioningService.cleanup(serviceInstance);
+    }
+
+    private static Map<String, String> attributes(ServiceInstance serviceInstance, Plan plan) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("osb.service_instance_id", serviceInstance.getId());
+        attributes.put("osb.plan_id", plan.getId());
+        return attributes;
     }
 }
@@ -1,6 +1,7 @@
 package de.evoila.cf.cpi.bosh;
 
 import de.evoila.cf.broker.bean.BoshProperties;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
 import de.evoila.cf.security.credentials.CredentialStore;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
@@ -12,7 +13,8 @@ import org.springframework.stereotype.Component;
 @Profile("!pcf")
 @Component
 public class ElasticsearchDeploymentManager extends BaseElasticsearchDeploymentManager {
-    ElasticsearchDeploymentManager(BoshProperties boshProperties, Environment env, CredentialStore credentialStore) {
-        super(boshProperties, env, credentialStore);
+    ElasticsearchDeploymentManager(BoshProperties boshProperties, Environment env, CredentialStore credentialStore,
+                                   ElasticsearchMetrics metrics) {
+        super(boshProperties, env, credentialStore, metrics);
     }
 }
@@ -0,0 +1,234 @@
+package de.evoila.cf.cpi.bosh;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.evoila.cf.broker.model.catalog.plan.CustomInstanceGroupConfig;
+import de.evoila.cf.broker.model.catalog.plan.Metadata;
+import de.evoila.cf.broker.util.MapUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static de.evoila.cf.cpi.bosh.BaseElasticsearchDeploymentManager.*;
+
+/**
+ * The parsing of the tile configuration as it was before the {@link PlanTopologyCompiler}, kept
+ * to validate the compiler against it. It appends an instance group config per node count and
+ * sets types on the first config of a group, the compiler merges configs by name, so both are
+ * compared by their effective values, i.e. the configs of a group folded in order.
+ */
+class LegacyPlanTopology {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private LegacyPlanTopology() {
+    }
+
+    /**
+     * Applies the tile configuration the way the broker did before the compiler and returns the
+     * differences to the metadata applied by the compiler.
+     *
+     * @param source the source metadata of the plan, it is not modified
+     * @param compiled the metadata applied by the compiler
+     * @return a description of each difference, empty if both are equivalent
+     */
+    static List<String> differences(Metadata source, Metadata compiled) {
+        final Metadata legacy = PlanTopologyCompiler.copy(source);
+        parseInstanceGroups(legacy);
+        parsePlugins(legacy);
+        legacy.setEgressInstanceGroup(firstWithNodes(legacy, COORDINATING_NODES, GENERAL_NODES));
+        legacy.setIngressInstanceGroup(firstWithNodes(legacy, INGEST_NODES, GENERAL_NODES));
+        setDatabaseProviders(legacy);
+        updateCaPath(legacy);
+
+        final List<String> differences = new ArrayList<>();
+        if (!Objects.equals(legacy.getEgressInstanceGroup(), compiled.getEgressInstanceGroup())) {
+            differences.add("egress instance group " + legacy.getEgressInstanceGroup() + " != " + compiled.getEgressInstanceGroup());
+        }
+        if (!Objects.equals(legacy.getIngressInstanceGroup(), compiled.getIngressInstanceGroup())) {
+            differences.add("ingress instance group " + legacy.getIngressInstanceGroup() + " != " + compiled.getIngressInstanceGroup());
+        }
+        if (!Objects.equals(legacy.getProperties(), compiled.getProperties())) {
+            differences.add("properties " + legacy.getProperties() + " != " + compiled.getProperties());
+        }
+
+        final Map<String, List<Object>> legacyGroups = effectiveGroups(legacy);
+        final Map<String, List<Object>> compiledGroups = effectiveGroups(compiled);
+        final Set<String> names = new LinkedHashSet<>(legacyGroups.keySet());
+        names.addAll(compiledGroups.keySet());
+        for (String name : names) {
+            if (!Objects.equals(legacyGroups.get(name), compiledGroups.get(name))) {
+                differences.add("instance group " + name + " " + legacyGroups.get(name) + " != " + compiledGroups.get(name));
+            }
+        }
+
+        return differences;
+    }
+
+    /**
+     * Folds the configs of each instance group in order, later values override earlier ones,
+     * into nodes, vm type, persistent disk type and provides.
+     */
+    private static Map<String, List<Object>> effectiveGroups(Metadata metadata) {
+        final Map<String, List<Object>> groups = new LinkedHashMap<>();
+        for (CustomInstanceGroupConfig config : metadata.getInstanceGroupConfig()) {
+            final List<Object> group = groups.computeIfAbsent(config.getName(), n -> {
+                final List<Object> values = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    values.add(null);
+                }
+                return values;
+            });
+            if (config.getNodes() != null)
+                group.set(0, config.getNodes());
+            if (config.getVmType() != null)
+                group.set(1, config.getVmType());
+            if (config.getPersistentDiskType() != null)
+                group.set(2, config.getPersistentDiskType());
+            if (config.getProvides() != null)
+                group.set(3, config.getProvides());
+        }
+        return groups;
+    }
+
+    private static void parseInstanceGroups(Metadata metadata) {
+        final Object nodesRaw = metadata.getCustomParameters().get("nodes");
+        if (!(nodesRaw instanceof String)) {
+            return;
+        }
+
+        final NodeInformation nodeInformation;
+        try {
+            nodeInformation = objectMapper.readValue((String) nodesRaw, NodeInformation.class);
+        } catch (IOException e) {
+            return;
+        }
+
+        final LinkedHashMap<String, Object> selectedOption = nodeInformation.getSelectedOption();
+        if (nodeInformation.getValue() == null || selectedOption == null) {
+            return;
+        }
+
+        if (nodeInformation.getValue().equals(PlanTopologyCompiler.DEDICATED_NODES)) {
+            selectedOption.forEach((key, value) -> {
+                if (value instanceof String && key.contains("_nodes")) {
+                    addNodeCount(metadata, key, Integer.parseInt((String) value));
+                }
+                if (value instanceof Integer && key.contains("_nodes")) {
+                    addNodeCount(metadata, key, (Integer) value);
+                }
+                setType(metadata, key, value);
+            });
+            addNodeCount(metadata, GENERAL_NODES, 0);
+        } else {
+            final Object nodeNumberRaw = selectedOption.get("node_number");
+            addNodeCount(metadata, nodeInformation.getValue(), nodeNumberRaw instanceof String ? Integer.parseInt((String) nodeNumberRaw) : 0);
+            setType(metadata, "node_persistentdisktype", selectedOption.get("node_persistentdisktype"));
+            setType(metadata, "node_vmtype", selectedOption.get("node_vmtype"));
+        }
+    }
+
+    private static void addNodeCount(Metadata metadata, String name, int nodes) {
+        final CustomInstanceGroupConfig config = new CustomInstanceGroupConfig();
+        config.setName(name);
+        config.setNodes(nodes);
+        metadata.getInstanceGroupConfig().add(config);
+    }
+
+    private static void setType(Metadata metadata, String key, Object value) {
+        if (!(value instanceof String)) {
+            return;
+        }
+
+        final boolean diskType = key.endsWith("_persistentdisktype");
+        if (!diskType && !key.endsWith("_vmtype")) {
+            return;
+        }
+
+        final String prefix = key.substring(0, key.lastIndexOf('_'));
+        final String name = "node".equals(prefix) ? GENERAL_NODES
+                : "coordinating".equals(prefix) ? COORDINATING_NODES
+                : "data".equals(prefix) ? DATA_NODES
+                : "master_eligible".equals(prefix) ? MASTER_ELIGIBLE_NODES
+                : "ingest".equals(prefix) ? INGEST_NODES : null;
+        final CustomInstanceGroupConfig config = first(metadata, name);
+        if (config != null) {
+            if (diskType)
+                config.setPersistentDiskType((String) value);
+            else
+                config.setVmType((String) value);
+        }
+    }
+
+    private static void parsePlugins(Metadata metadata) {
+        final Object pluginsRaw = metadata.getCustomParameters().get("plugins");
+        if (!(pluginsRaw instanceof String)) {
+            return;
+        }
+
+        final List<PluginInformation> plugins;
+        try {
+            plugins = objectMapper.readValue((String) pluginsRaw, new TypeReference<List<PluginInformation>>() {});
+        } catch (IOException e) {
+            return;
+        }
+
+        plugins.forEach(p -> {
+            if (p.getName() != null && !p.getName().isEmpty()) {
+                final String source = (p.getSource() == null || p.getSource().isEmpty()) ? p.getName() : p.getSource();
+                MapUtils.deepInsert(metadata.getProperties(), "elasticsearch.plugins." + p.getName(), source);
+            }
+        });
+    }
+
+    private static String firstWithNodes(Metadata metadata, String preferred, String fallback) {
+        for (String name : new String[] { preferred, fallback }) {
+            final boolean hasNodes = metadata.getInstanceGroupConfig().stream()
+                    .anyMatch(c -> name.equals(c.getName()) && c.getNodes() != null && c.getNodes() > 0);
+            if (hasNodes) {
+                return name;
+            }
+        }
+        return DATA_NODES;
+    }
+
+    private static void setDatabaseProviders(Metadata metadata) {
+        final CustomInstanceGroupConfig generalNodes = first(metadata, GENERAL_NODES);
+        if (generalNodes != null && generalNodes.getNodes() != null && generalNodes.getNodes() == 0) {
+            generalNodes.setProvides(provides(GENERAL_NODES));
+            final CustomInstanceGroupConfig masterEligibleNodes = first(metadata, MASTER_ELIGIBLE_NODES);
+            if (masterEligibleNodes != null) {
+                masterEligibleNodes.setProvides(provides(PlanTopologyCompiler.DISCOVERY_NODES));
+            }
+        }
+    }
+
+    private static LinkedHashMap<String, Object> provides(String as) {
+        final LinkedHashMap<String, Object> asGroup = new LinkedHashMap<>();
+        asGroup.put("as", as);
+        final LinkedHashMap<String, Object> database = new LinkedHashMap<>();
+        database.put("database", asGroup);
+        return database;
+    }
+
+    private static void updateCaPath(Metadata metadata) {
+        final Object caPath = metadata.getCustomParameters().get("capath");
+        if (caPath instanceof String) {
+            MapUtils.deepInsert(metadata.getProperties(), "elasticsearch.xpack.security.http.ssl.certificate-authorities", "((" + caPath + ".cert_pem))");
+            MapUtils.deepInsert(metadata.getProperties(), "elasticsearch.xpack.security.http.ssl.ca-key", "((" + caPath + ".private_key_pem))");
+        }
+    }
+
+    private static CustomInstanceGroupConfig first(Metadata metadata, String name) {
+        return metadata.getInstanceGroupConfig().stream()
+                .filter(c -> Objects.equals(name, c.getName()))
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -1,21 +1,25 @@
 package de.evoila.cf.cpi.bosh;
 
-import com.esotericsoftware.minlog.Log;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import de.evoila.cf.broker.bean.BoshProperties;
 import de.evoila.cf.broker.model.catalog.Catalog;
 import de.evoila.cf.broker.model.catalog.plan.CustomInstanceGroupConfig;
-import de.evoila.cf.broker.model.catalog.plan.Plan;
-import de.evoila.cf.broker.util.MapUtils;
+import de.evoila.cf.broker.model.catalog.plan.Metadata;
+import de.evoila.cf.broker.service.custom.ElasticsearchMetrics;
 import de.evoila.cf.security.credentials.CredentialStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Michael Hahn
@@ -24,274 +28,123 @@ import java.util.List;
 @Component
 public class PcfElasticsearchDeploymentManager extends BaseElasticsearchDeploymentManager {
 
-    PcfElasticsearchDeploymentManager(Catalog catalog, BoshProperties boshProperties, Environment env, CredentialStore credentialStore) {
-        super(boshProperties, env, credentialStore);
-
-        catalog.getServices().forEach(s -> s.getPlans().forEach(this::parseInstanceGroups));
-        catalog.getServices().forEach(s -> s.getPlans().forEach(this::parsePlugins));
-        catalog.getServices().forEach(s -> s.getPlans().forEach(this::determineAndSetEgressInstanceGroup));
-        catalog.getServices().forEach(s -> s.getPlans().forEach(this::determineAndSetIngressInstanceGroup));
-        catalog.getServices().forEach(s -> s.getPlans().forEach(this::setDatabaseProvidersAndConsumers));
-        catalog.getServices().forEach(s -> s.getPlans().forEach(this::updateCaCredhubPath));
-    }
+    private static final Logger log = LoggerFactory.getLogger(PcfElasticsearchDeploymentManager.class);
 
+    private final PlanTopologyCompiler planTopologyCompiler = new PlanTopologyCompiler();
 
-    private void parseInstanceGroups(Plan plan) {
-        Object nodesRaw = plan.getMetadata().getCustomParameters().get("nodes");
+    private final Catalog catalog;
 
-        if(nodesRaw instanceof String) {
-            NodeInformation nodeInformation = null;
-            try {
-                nodeInformation = new ObjectMapper().readValue((String)nodesRaw, NodeInformation.class);
-            } catch (IOException e) {
-                Log.error("Could not parse node information in custom parameters");
-            }
+    /**
+     * Compiled topologies by plan id, used to skip compiling plans whose configuration did not
+     * change on a refresh.
+     */
+    private volatile Map<String, CompiledPlan> compiledPlans = Collections.emptyMap();
 
-            if(nodeInformation != null) {
-                String value = nodeInformation.getValue();
-                LinkedHashMap<String, Object> selectedOption = nodeInformation.getSelectedOption();
+    PcfElasticsearchDeploymentManager(Catalog catalog, BoshProperties boshProperties, Environment env, CredentialStore credentialStore,
+                                      ElasticsearchMetrics metrics) {
+        super(boshProperties, env, credentialStore, metrics);
+        this.catalog = catalog;
 
-                if(value.equals("dedicate_nodes")) {
-                    handleMultipleInstanceGroups(selectedOption, plan);
-                } else {
-                    handleSingleInstanceGroup(value, selectedOption, plan);
-                }
-            }
-        }
+        compileCatalog();
     }
 
-    private void parsePlugins(Plan plan) {
-        Object pluginsRaw = plan.getMetadata().getCustomParameters().get("plugins");
-
-        if (pluginsRaw instanceof String) {
-            final String pluginsAsString = (String) pluginsRaw;
-            final ObjectMapper mapper = new ObjectMapper();
-
-            List<PluginInformation> pluginList = null;
-            try {
-                pluginList = mapper.readValue(pluginsAsString, new TypeReference<List<PluginInformation>>(){});
-            } catch (IOException e) {
-                Log.error("Could not parse plugin information in custom parameters");
-            }
-
-            if (pluginList != null) {
-                pluginList.forEach(p -> {
-                    final String pluginName = p.getName();
-                    if (pluginName != null && !pluginName.isEmpty()) {
-
-                        final String pluginSource = (p.getSource() == null || p.getSource().isEmpty()) ? pluginName : p.getSource();
-
-                        MapUtils.deepInsert(plan.getMetadata().getProperties(), "elasticsearch.plugins." + pluginName, pluginSource);
-                    }
-                });
-            }
-        }
+    /**
+     * Recompiles the catalog after a configuration refresh. Only plans whose tile configuration
+     * changed are compiled again, unchanged plans reuse their compiled topology.
+     */
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onRefresh() {
+        compileCatalog();
     }
 
-    private void handleSingleInstanceGroup(String nodeName, LinkedHashMap<String, Object> selectedOption, Plan plan) {
-        if(selectedOption != null) {
-            Object nodeNumberRaw = selectedOption.get("node_number");
-
-            int instances = 0;
-            if(nodeNumberRaw instanceof String) {
-                instances = Integer.parseInt((String) nodeNumberRaw);
-            }
-            updateNodeCount(nodeName, instances, plan);
-
-            Object persistentDiskType = selectedOption.get("node_persistentdisktype");
-            updatePersistentDiskType("node_persistentdisktype", persistentDiskType, plan);
-
-            Object vmType = selectedOption.get("node_vmtype");
-            updateVmType("node_vmtype", vmType, plan);
-        }
-    }
-
-    private void handleMultipleInstanceGroups(LinkedHashMap<String, Object> selectedOption, Plan plan) {
-        if(selectedOption != null) {
-
-            selectedOption.forEach((key, value) -> {
-                if (value instanceof String && key.contains("_nodes")) {
-                    int nodeCountAsInt = Integer.parseInt((String) value);
-                    updateNodeCount(key, nodeCountAsInt, plan);
+    /**
+     * Compiles the topology of every plan and sets the applied metadata on the plan with a single
+     * reference assignment, so readers of the catalog never see a partially applied plan. Plans
+     * that still carry the metadata applied by the last compilation, unchanged, were not rebound by
+     * the refresh and are fingerprinted from the source metadata they were applied from. If the
+     * refresh bound new values into the applied metadata in place, that metadata is the new source.
+     */
+    private synchronized void compileCatalog() {
+        final Map<String, CompiledPlan> previous = compiledPlans;
+        final Map<String, CompiledPlan> current = new HashMap<>();
+
+        catalog.getServices().forEach(s -> s.getPlans().forEach(plan -> {
+            final CompiledPlan compiledPlan = previous.get(plan.getId());
+            final boolean rebound = compiledPlan == null || plan.getMetadata() != compiledPlan.applied
+                    || !fingerprint(plan.getMetadata()).equals(compiledPlan.appliedFingerprint);
+            final Metadata source = rebound ? plan.getMetadata() : compiledPlan.source;
+            final String fingerprint = fingerprint(source);
+
+            if (compiledPlan != null && compiledPlan.fingerprint.equals(fingerprint)) {
+                if (rebound) {
+                    Metadata applied = planTopologyCompiler.apply(source, compiledPlan.topology);
+                    current.put(plan.getId(), new CompiledPlan(fingerprint, compiledPlan.topology, source, applied, fingerprint(applied)));
+                    plan.setMetadata(applied);
+                } else {
+                    current.put(plan.getId(), compiledPlan);
                 }
-
-                if (value instanceof Integer && key.contains("_nodes")) {
-                    int nodeCountAsInt = (Integer) value;
-                    updateNodeCount(key, nodeCountAsInt, plan);
+            } else {
+                PlanTopology topology = planTopologyCompiler.compile(plan, source);
+                Metadata applied = planTopologyCompiler.apply(source, topology);
+                current.put(plan.getId(), new CompiledPlan(fingerprint, topology, source, applied, fingerprint(applied)));
+                plan.setMetadata(applied);
+
+                List<String> differences = LegacyPlanTopology.differences(source, applied);
+                if (!differences.isEmpty()) {
+                    log.error("Compiled topology of plan " + plan.getId() + " differs from the previous parsing: " + String.join("; ", differences));
                 }
-
-                updatePersistentDiskType(key, value, plan);
-                updateVmType(key, value, plan);
-            });
-
-            updateNodeCount(GENERAL_NODES, 0, plan);
-        }
-
-    }
-
-    private void updateNodeCount(String nodeName, int count, Plan plan) {
-        CustomInstanceGroupConfig instanceGroupConfig = new CustomInstanceGroupConfig();
-        instanceGroupConfig.setName(nodeName);
-        instanceGroupConfig.setNodes(count);
-
-        plan.getMetadata().getInstanceGroupConfig().add(instanceGroupConfig);
-    }
-
-    private void updatePersistentDiskType(String key, Object diskType, Plan plan) {
-        if (diskType instanceof String) {
-            String diskTypeAsString = (String) diskType;
-
-            if (key.equals("node_persistentdisktype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(GENERAL_NODES))
-                        .findFirst().ifPresent(config -> config.setPersistentDiskType(diskTypeAsString));
             }
-            if (key.equals("coordinating_persistentdisktype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(COORDINATING_NODES))
-                        .findFirst().ifPresent(config -> config.setPersistentDiskType(diskTypeAsString));
-            }
-            if (key.equals("data_persistentdisktype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(DATA_NODES))
-                        .findFirst().ifPresent(config -> config.setPersistentDiskType(diskTypeAsString));
-            }
-            if (key.equals("master_eligible_persistentdisktype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(MASTER_ELIGIBLE_NODES))
-                        .findFirst().ifPresent(config -> config.setPersistentDiskType(diskTypeAsString));
-            }
-            if (key.equals("ingest_persistentdisktype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(INGEST_NODES))
-                        .findFirst().ifPresent(config -> config.setPersistentDiskType(diskTypeAsString));
-            }
-        }
-    }
+        }));
 
-    private void updateVmType(String key, Object vmType, Plan plan) {
-        if (vmType instanceof String) {
-            String vmTypeAsString = (String) vmType;
+        compiledPlans = Collections.unmodifiableMap(current);
 
-            if (key.equals("node_vmtype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(GENERAL_NODES))
-                        .findFirst().ifPresent(config -> config.setVmType(vmTypeAsString));
-            }
-            if (key.equals("coordinating_vmtype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(COORDINATING_NODES))
-                        .findFirst().ifPresent(config -> config.setVmType(vmTypeAsString));
-            }
-            if (key.equals("data_vmtype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(DATA_NODES))
-                        .findFirst().ifPresent(config -> config.setVmType(vmTypeAsString));
-            }
-            if (key.equals("master_eligible_vmtype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(MASTER_ELIGIBLE_NODES))
-                        .findFirst().ifPresent(config -> config.setVmType(vmTypeAsString));
-            }
-            if (key.equals("ingest_vmtype")) {
-                plan.getMetadata().getInstanceGroupConfig().stream()
-                        .filter(g -> g.getName().equals(INGEST_NODES))
-                        .findFirst().ifPresent(config -> config.setVmType(vmTypeAsString));
-            }
+        if (!previous.isEmpty()) {
+            long changed = current.values().stream()
+                    .filter(compiledPlan -> previous.values().stream().noneMatch(p -> p.topology == compiledPlan.topology))
+                    .count();
+            log.info("Recompiled " + changed + " changed plans, reused " + (current.size() - changed) + " unchanged plans.");
         }
     }
 
-    private void determineAndSetEgressInstanceGroup(Plan plan) {
-        CustomInstanceGroupConfig coordinatingNodes = plan.getMetadata().getInstanceGroupConfig()
-                .stream()
-                .filter(g -> g.getName().equals(COORDINATING_NODES) && g.getNodes() > 0)
-                .findFirst()
-                .orElse(null);
-
-        if (coordinatingNodes != null) {
-            plan.getMetadata().setEgressInstanceGroup(COORDINATING_NODES);
-            return;
+    /**
+     * Builds a fingerprint of everything the applied metadata is built from. The fingerprint is taken
+     * from the source metadata, i.e. the plan as bound from the catalog configuration, and includes
+     * the plan properties, which the applied metadata copies.
+     */
+    private String fingerprint(Metadata metadata) {
+        final Map<String, Object> customParameters = metadata.getCustomParameters();
+        final StringBuilder fingerprint = new StringBuilder()
+                .append(customParameters.get("nodes")).append('|')
+                .append(customParameters.get("plugins")).append('|')
+                .append(customParameters.get("capath")).append('|')
+                .append(metadata.getProperties()).append('|')
+                .append(metadata.getEgressInstanceGroup()).append('|')
+                .append(metadata.getIngressInstanceGroup());
+
+        for (CustomInstanceGroupConfig config : metadata.getInstanceGroupConfig()) {
+            fingerprint.append('|').append(config.getName())
+                    .append(':').append(config.getNodes())
+                    .append(':').append(config.getVmType())
+                    .append(':').append(config.getPersistentDiskType());
         }
 
-        CustomInstanceGroupConfig generalNodes = plan.getMetadata().getInstanceGroupConfig()
-                .stream()
-                .filter(g -> g.getName().equals(GENERAL_NODES) && g.getNodes() > 0)
-                .findFirst()
-                .orElse(null);
-
-        if (generalNodes != null) {
-            plan.getMetadata().setEgressInstanceGroup(GENERAL_NODES);
-            return;
-        }
-
-        plan.getMetadata().setEgressInstanceGroup(DATA_NODES);
+        return fingerprint.toString();
     }
 
-    private void determineAndSetIngressInstanceGroup(Plan plan) {
-        CustomInstanceGroupConfig coordinatingNodes = plan.getMetadata().getInstanceGroupConfig()
-                .stream()
-                .filter(g -> g.getName().equals(INGEST_NODES) && g.getNodes() > 0)
-                .findFirst()
-                .orElse(null);
-
-        if (coordinatingNodes != null) {
-            plan.getMetadata().setIngressInstanceGroup(INGEST_NODES);
-            return;
-        }
-
-        CustomInstanceGroupConfig generalNodes = plan.getMetadata().getInstanceGroupConfig()
-                .stream()
-                .filter(g -> g.getName().equals(GENERAL_NODES) && g.getNodes() > 0)
-                .findFirst()
-                .orElse(null);
-
-        if (generalNodes != null) {
-            plan.getMetadata().setIngressInstanceGroup(GENERAL_NODES);
-            return;
-        }
-
-        plan.getMetadata().setIngressInstanceGroup(DATA_NODES);
-
-    }
-
-    private void setDatabaseProvidersAndConsumers(Plan plan) {
-        final CustomInstanceGroupConfig generalNodes = plan.getMetadata().getInstanceGroupConfig()
-                .stream()
-                .filter(c -> c.getName().equals(GENERAL_NODES))
-                .findFirst()
-                .orElse(null);
-
-        if (generalNodes != null && generalNodes.getNodes() == 0) {
-            final CustomInstanceGroupConfig masterEligibleNodes = plan.getMetadata().getInstanceGroupConfig()
-                    .stream()
-                    .filter(c -> c.getName().equals(MASTER_ELIGIBLE_NODES))
-                    .findFirst()
-                    .orElse(null);
-
-            setProvidesForInstanceGroup(generalNodes, GENERAL_NODES);
-            setProvidesForInstanceGroup(masterEligibleNodes, "discovery_nodes");
-        }
-    }
-
-    private void setProvidesForInstanceGroup(CustomInstanceGroupConfig instanceGroupConfig, String as) {
-        if (instanceGroupConfig != null && as != null) {
-            final LinkedHashMap<String, Object> asGeneralNodes = new LinkedHashMap<>();
-            asGeneralNodes.put("as", as);
-
-            final LinkedHashMap<String, Object> database = new LinkedHashMap<>();
-            database.put("database", asGeneralNodes);
-
-            instanceGroupConfig.setProvides(database);
-        }
-    }
-
-    private void updateCaCredhubPath(Plan plan) {
-        Object caPath = plan.getMetadata().getCustomParameters().get("capath");
-
-        if (caPath instanceof String) {
-           final String caPathAsString = (String) caPath;
-           MapUtils.deepInsert(plan.getMetadata().getProperties(), "elasticsearch.xpack.security.http.ssl.certificate-authorities", "((" + caPathAsString + ".cert_pem))");
-           MapUtils.deepInsert(plan.getMetadata().getProperties(), "elasticsearch.xpack.security.http.ssl.ca-key", "((" + caPathAsString + ".private_key_pem))");
+    private static class CompiledPlan {
+        private final String fingerprint;
+        private final PlanTopology topology;
+        private final Metadata source;
+        private final Metadata applied;
+        private final String appliedFingerprint;
+
+        CompiledPlan(String fingerprint, PlanTopology topology, Metadata source, Metadata applied, String appliedFingerprint) {
+            this.fingerprint = fingerprint;
+            this.topology = topology;
+            this.source = source;
+            this.applied = applied;
+            this.appliedFingerprint = appliedFingerprint;
         }
     }
 }
@@ -0,0 +1,159 @@
+package de.evoila.cf.cpi.bosh;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable, name-indexed instance group topology of a plan, compiled from the tile
+ * configuration in the plan's custom parameters.
+ *
+ * @see PlanTopologyCompiler
+ */
+public class PlanTopology {
+
+    private final Map<String, InstanceGroup> instanceGroups;
+
+    private final Map<String, String> plugins;
+
+    private final String egressInstanceGroup;
+
+    private final String ingressInstanceGroup;
+
+    private final String caPath;
+
+    PlanTopology(Map<String, InstanceGroup> instanceGroups, Map<String, String> plugins,
+                 String egressInstanceGroup, String ingressInstanceGroup, String caPath) {
+        this.instanceGroups = Collections.unmodifiableMap(new LinkedHashMap<>(instanceGroups));
+        this.plugins = Collections.unmodifiableMap(new LinkedHashMap<>(plugins));
+        this.egressInstanceGroup = egressInstanceGroup;
+        this.ingressInstanceGroup = ingressInstanceGroup;
+        this.caPath = caPath;
+    }
+
+    public Map<String, InstanceGroup> getInstanceGroups() {
+        return instanceGroups;
+    }
+
+    public InstanceGroup getInstanceGroup(String name) {
+        return instanceGroups.get(name);
+    }
+
+    public Map<String, String> getPlugins() {
+        return plugins;
+    }
+
+    public String getEgressInstanceGroup() {
+        return egressInstanceGroup;
+    }
+
+    public String getIngressInstanceGroup() {
+        return ingressInstanceGroup;
+    }
+
+    public String getCaPath() {
+        return caPath;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PlanTopology that = (PlanTopology) o;
+        return instanceGroups.equals(that.instanceGroups) &&
+                plugins.equals(that.plugins) &&
+                Objects.equals(egressInstanceGroup, that.egressInstanceGroup) &&
+                Objects.equals(ingressInstanceGroup, that.ingressInstanceGroup) &&
+                Objects.equals(caPath, that.caPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(instanceGroups, plugins, egressInstanceGroup, ingressInstanceGroup, caPath);
+    }
+
+    @Override
+    public String toString() {
+        return "PlanTopology{" +
+                "instanceGroups=" + instanceGroups.values() +
+                ", egressInstanceGroup='" + egressInstanceGroup + '\'' +
+                ", ingressInstanceGroup='" + ingressInstanceGroup + '\'' +
+                '}';
+    }
+
+    /**
+     * A single instance group of a plan. Values which are not configured are null.
+     */
+    public static class InstanceGroup {
+
+        private final String name;
+
+        private final Integer nodes;
+
+        private final String vmType;
+
+        private final String persistentDiskType;
+
+        private final String providesAs;
+
+        InstanceGroup(String name, Integer nodes, String vmType, String persistentDiskType, String providesAs) {
+            this.name = name;
+            this.nodes = nodes;
+            this.vmType = vmType;
+            this.persistentDiskType = persistentDiskType;
+            this.providesAs = providesAs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Integer getNodes() {
+            return nodes;
+        }
+
+        public boolean hasNodes() {
+            return nodes != null && nodes > 0;
+        }
+
+        public String getVmType() {
+            return vmType;
+        }
+
+        public String getPersistentDiskType() {
+            return persistentDiskType;
+        }
+
+        public String getProvidesAs() {
+            return providesAs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            InstanceGroup that = (InstanceGroup) o;
+            return name.equals(that.name) &&
+                    Objects.equals(nodes, that.nodes) &&
+                    Objects.equals(vmType, that.vmType) &&
+                    Objects.equals(persistentDiskType, that.persistentDiskType) &&
+                    Objects.equals(providesAs, that.providesAs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, nodes, vmType, persistentDiskType, providesAs);
+        }
+
+        @Override
+        public String toString() {
+            return "InstanceGroup{" +
+                    "name='" + name + '\'' +
+                    ", nodes=" + nodes +
+                    ", vmType='" + vmType + '\'' +
+                    ", persistentDiskType='" + persistentDiskType + '\'' +
+                    '}';
+        }
+    }
+}
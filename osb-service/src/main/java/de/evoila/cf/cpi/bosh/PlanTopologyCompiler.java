@@ -0,0 +1,367 @@
+package de.evoila.cf.cpi.bosh;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import de.evoila.cf.broker.model.catalog.plan.CustomInstanceGroupConfig;
+import de.evoila.cf.broker.model.catalog.plan.Metadata;
+import de.evoila.cf.broker.model.catalog.plan.Plan;
+import de.evoila.cf.broker.util.MapUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.evoila.cf.cpi.bosh.BaseElasticsearchDeploymentManager.*;
+
+/**
+ * Compiles the tile configuration of a plan (<code>nodes</code>, <code>plugins</code> and
+ * <code>capath</code> custom parameters) into a {@link PlanTopology} in a single pass and
+ * applies it to a copy of the plan metadata.
+ */
+public class PlanTopologyCompiler {
+
+    private static final Logger log = LoggerFactory.getLogger(PlanTopologyCompiler.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectReader nodeInformationReader = objectMapper.readerFor(NodeInformation.class);
+    private static final ObjectReader pluginInformationReader = objectMapper.readerFor(new TypeReference<List<PluginInformation>>() {});
+
+    static final String DEDICATED_NODES = "dedicate_nodes";
+    static final String DISCOVERY_NODES = "discovery_nodes";
+    private static final String PERSISTENT_DISK_TYPE_SUFFIX = "_persistentdisktype";
+    private static final String VM_TYPE_SUFFIX = "_vmtype";
+
+    private static final Map<String, String> TILE_KEY_PREFIXES = new HashMap<>();
+
+    static {
+        TILE_KEY_PREFIXES.put("node", GENERAL_NODES);
+        TILE_KEY_PREFIXES.put("coordinating", COORDINATING_NODES);
+        TILE_KEY_PREFIXES.put("data", DATA_NODES);
+        TILE_KEY_PREFIXES.put("master_eligible", MASTER_ELIGIBLE_NODES);
+        TILE_KEY_PREFIXES.put("ingest", INGEST_NODES);
+    }
+
+    /**
+     * Compiles the topology of the given plan. Instance groups already configured in the plan
+     * metadata are taken as base and overlaid with the tile configuration.
+     *
+     * @param plan the plan, must not be null
+     * @return the compiled topology
+     */
+    public PlanTopology compile(Plan plan) {
+        return compile(plan, plan.getMetadata());
+    }
+
+    /**
+     * Compiles the topology of the given plan from the given metadata instead of the metadata
+     * currently set on the plan.
+     *
+     * @param plan the plan, must not be null
+     * @param metadata the source metadata of the plan, must not be null
+     * @return the compiled topology
+     */
+    public PlanTopology compile(Plan plan, Metadata metadata) {
+        final Map<String, Object> customParameters = metadata.getCustomParameters();
+        final Map<String, GroupBuilder> groups = new LinkedHashMap<>();
+
+        for (CustomInstanceGroupConfig config : metadata.getInstanceGroupConfig()) {
+            if (config.getName() != null && !groups.containsKey(config.getName())) {
+                GroupBuilder group = new GroupBuilder(config.getName());
+                group.nodes = config.getNodes();
+                group.vmType = config.getVmType();
+                group.persistentDiskType = config.getPersistentDiskType();
+                groups.put(group.name, group);
+            }
+        }
+
+        compileNodes(plan, customParameters.get("nodes"), groups);
+
+        final GroupBuilder generalNodes = groups.get(GENERAL_NODES);
+        if (generalNodes != null && generalNodes.nodes != null && generalNodes.nodes == 0) {
+            generalNodes.providesAs = GENERAL_NODES;
+
+            if (groups.containsKey(MASTER_ELIGIBLE_NODES)) {
+                groups.get(MASTER_ELIGIBLE_NODES).providesAs = DISCOVERY_NODES;
+            }
+        }
+
+        final Map<String, PlanTopology.InstanceGroup> instanceGroups = new LinkedHashMap<>();
+        groups.values().forEach(g -> instanceGroups.put(g.name, g.build()));
+
+        final Object caPath = customParameters.get("capath");
+
+        final PlanTopology topology = new PlanTopology(instanceGroups,
+                compilePlugins(plan, customParameters.get("plugins")),
+                firstWithNodes(instanceGroups, COORDINATING_NODES, GENERAL_NODES),
+                firstWithNodes(instanceGroups, INGEST_NODES, GENERAL_NODES),
+                caPath instanceof String ? (String) caPath : null);
+
+        validate(plan, topology);
+
+        return topology;
+    }
+
+    /**
+     * Writes the compiled topology into a copy of the plan metadata. The source metadata is left
+     * untouched, so it can be fingerprinted and applied again, and readers of the plan never see
+     * a partially applied topology once the copy is set on the plan.
+     *
+     * @param source the metadata as bound from the catalog configuration, must not be null
+     * @param topology the topology compiled for the plan
+     * @return the metadata with the topology applied
+     */
+    public Metadata apply(Metadata source, PlanTopology topology) {
+        final Metadata metadata = copy(source);
+
+        final Map<String, CustomInstanceGroupConfig> configs = new HashMap<>();
+        for (CustomInstanceGroupConfig config : metadata.getInstanceGroupConfig()) {
+            if (config.getName() != null) {
+                configs.putIfAbsent(config.getName(), config);
+            }
+        }
+
+        topology.getInstanceGroups().values().forEach(group -> {
+            CustomInstanceGroupConfig config = configs.get(group.getName());
+            if (config == null) {
+                config = new CustomInstanceGroupConfig();
+                config.setName(group.getName());
+                metadata.getInstanceGroupConfig().add(config);
+                configs.put(group.getName(), config);
+            }
+
+            if (group.getNodes() != null)
+                config.setNodes(group.getNodes());
+            if (group.getVmType() != null)
+                config.setVmType(group.getVmType());
+            if (group.getPersistentDiskType() != null)
+                config.setPersistentDiskType(group.getPersistentDiskType());
+            if (group.getProvidesAs() != null)
+                config.setProvides(provides(group.getProvidesAs()));
+        });
+
+        metadata.setEgressInstanceGroup(topology.getEgressInstanceGroup());
+        metadata.setIngressInstanceGroup(topology.getIngressInstanceGroup());
+
+        topology.getPlugins().forEach((name, pluginSource) ->
+                MapUtils.deepInsert(metadata.getProperties(), "elasticsearch.plugins." + name, pluginSource));
+
+        if (topology.getCaPath() != null) {
+            MapUtils.deepInsert(metadata.getProperties(), "elasticsearch.xpack.security.http.ssl.certificate-authorities", "((" + topology.getCaPath() + ".cert_pem))");
+            MapUtils.deepInsert(metadata.getProperties(), "elasticsearch.xpack.security.http.ssl.ca-key", "((" + topology.getCaPath() + ".private_key_pem))");
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Copies the metadata deep enough for {@link #apply(Metadata, PlanTopology)}. All fields are
+     * copied as they are, whether osb-core exposes them or not, then the parts the topology is
+     * written to are replaced by copies. The custom parameters are only read and stay shared.
+     */
+    static Metadata copy(Metadata source) {
+        final Metadata copy = BeanUtils.instantiateClass(source.getClass());
+        ReflectionUtils.shallowCopyFieldState(source, copy);
+        copy.setProperties(source.getProperties() != null ? copyMap(source.getProperties()) : new HashMap<>());
+
+        final List<CustomInstanceGroupConfig> configs = new ArrayList<>();
+        if (source.getInstanceGroupConfig() != null) {
+            for (CustomInstanceGroupConfig config : source.getInstanceGroupConfig()) {
+                final CustomInstanceGroupConfig configCopy = BeanUtils.instantiateClass(config.getClass());
+                ReflectionUtils.shallowCopyFieldState(config, configCopy);
+                configs.add(configCopy);
+            }
+        }
+        copy.setInstanceGroupConfig(configs);
+
+        return copy;
+    }
+
+    private static Map<String, Object> copyMap(Map<String, Object> source) {
+        final Map<String, Object> copy = new LinkedHashMap<>();
+        source.forEach((key, value) -> copy.put(key, copyValue(value)));
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            return copyMap((Map<String, Object>) value);
+        }
+        if (value instanceof List) {
+            final List<Object> copy = new ArrayList<>();
+            ((List<?>) value).forEach(element -> copy.add(copyValue(element)));
+            return copy;
+        }
+        return value;
+    }
+
+    private void compileNodes(Plan plan, Object nodesRaw, Map<String, GroupBuilder> groups) {
+        if (!(nodesRaw instanceof String)) {
+            return;
+        }
+
+        final NodeInformation nodeInformation;
+        try {
+            nodeInformation = nodeInformationReader.readValue((String) nodesRaw);
+        } catch (IOException e) {
+            log.error("Could not parse node information in custom parameters of plan " + plan.getName());
+            return;
+        }
+
+        final String value = nodeInformation.getValue();
+        final LinkedHashMap<String, Object> selectedOption = nodeInformation.getSelectedOption();
+        if (value == null || selectedOption == null) {
+            return;
+        }
+
+        final Map<String, String> vmTypes = new HashMap<>();
+        final Map<String, String> persistentDiskTypes = new HashMap<>();
+
+        if (value.equals(DEDICATED_NODES)) {
+            selectedOption.forEach((key, option) -> {
+                if (key.contains("_nodes")) {
+                    Integer nodes = toNodeCount(plan, key, option);
+                    if (nodes != null)
+                        group(groups, key).nodes = nodes;
+                }
+                collectType(key, option, vmTypes, persistentDiskTypes);
+            });
+
+            group(groups, GENERAL_NODES).nodes = 0;
+        } else {
+            Integer nodes = toNodeCount(plan, value, selectedOption.get("node_number"));
+            group(groups, value).nodes = nodes != null ? nodes : 0;
+
+            collectType("node" + PERSISTENT_DISK_TYPE_SUFFIX, selectedOption.get("node" + PERSISTENT_DISK_TYPE_SUFFIX), vmTypes, persistentDiskTypes);
+            collectType("node" + VM_TYPE_SUFFIX, selectedOption.get("node" + VM_TYPE_SUFFIX), vmTypes, persistentDiskTypes);
+        }
+
+        vmTypes.forEach((name, vmType) -> {
+            if (groups.containsKey(name))
+                groups.get(name).vmType = vmType;
+        });
+        persistentDiskTypes.forEach((name, diskType) -> {
+            if (groups.containsKey(name))
+                groups.get(name).persistentDiskType = diskType;
+        });
+    }
+
+    private Map<String, String> compilePlugins(Plan plan, Object pluginsRaw) {
+        final Map<String, String> plugins = new LinkedHashMap<>();
+
+        if (pluginsRaw instanceof String) {
+            final List<PluginInformation> pluginList;
+            try {
+                pluginList = pluginInformationReader.readValue((String) pluginsRaw);
+            } catch (IOException e) {
+                log.error("Could not parse plugin information in custom parameters of plan " + plan.getName());
+                return plugins;
+            }
+
+            pluginList.forEach(p -> {
+                final String pluginName = p.getName();
+                if (pluginName != null && !pluginName.isEmpty()) {
+                    final String pluginSource = (p.getSource() == null || p.getSource().isEmpty()) ? pluginName : p.getSource();
+                    plugins.put(pluginName, pluginSource);
+                }
+            });
+        }
+
+        return plugins;
+    }
+
+    private void validate(Plan plan, PlanTopology topology) {
+        topology.getInstanceGroups().values().forEach(group -> {
+            if (!INSTANCE_GROUPS.contains(group.getName())) {
+                log.warn("Plan " + plan.getName() + " configures unknown instance group " + group.getName());
+            }
+            if (group.getNodes() != null && group.getNodes() < 0) {
+                log.error("Plan " + plan.getName() + " configures a negative node count for instance group " + group.getName());
+            }
+        });
+
+        final PlanTopology.InstanceGroup egress = topology.getInstanceGroup(topology.getEgressInstanceGroup());
+        if (!topology.getInstanceGroups().isEmpty() && (egress == null || !egress.hasNodes())) {
+            log.warn("Plan " + plan.getName() + " has no nodes in its egress instance group " + topology.getEgressInstanceGroup());
+        }
+    }
+
+    private static Integer toNodeCount(Plan plan, String key, Object value) {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt((String) value);
+            } catch (NumberFormatException e) {
+                log.error("Could not parse node count " + value + " of " + key + " in plan " + plan.getName());
+            }
+        }
+
+        return null;
+    }
+
+    private static void collectType(String key, Object value, Map<String, String> vmTypes, Map<String, String> persistentDiskTypes) {
+        if (!(value instanceof String)) {
+            return;
+        }
+
+        if (key.endsWith(PERSISTENT_DISK_TYPE_SUFFIX)) {
+            String group = TILE_KEY_PREFIXES.get(key.substring(0, key.length() - PERSISTENT_DISK_TYPE_SUFFIX.length()));
+            if (group != null)
+                persistentDiskTypes.put(group, (String) value);
+        } else if (key.endsWith(VM_TYPE_SUFFIX)) {
+            String group = TILE_KEY_PREFIXES.get(key.substring(0, key.length() - VM_TYPE_SUFFIX.length()));
+            if (group != null)
+                vmTypes.put(group, (String) value);
+        }
+    }
+
+    private static String firstWithNodes(Map<String, PlanTopology.InstanceGroup> instanceGroups, String... names) {
+        for (String name : names) {
+            PlanTopology.InstanceGroup group = instanceGroups.get(name);
+            if (group != null && group.hasNodes()) {
+                return name;
+            }
+        }
+        return DATA_NODES;
+    }
+
+    private static GroupBuilder group(Map<String, GroupBuilder> groups, String name) {
+        return groups.computeIfAbsent(name, GroupBuilder::new);
+    }
+
+    private static LinkedHashMap<String, Object> provides(String as) {
+        final LinkedHashMap<String, Object> asMap = new LinkedHashMap<>();
+        asMap.put("as", as);
+
+        final LinkedHashMap<String, Object> database = new LinkedHashMap<>();
+        database.put("database", asMap);
+
+        return database;
+    }
+
+    private static class GroupBuilder {
+        private final String name;
+        private Integer nodes;
+        private String vmType;
+        private String persistentDiskType;
+        private String providesAs;
+
+        GroupBuilder(String name) {
+            this.name = name;
+        }
+
+        PlanTopology.InstanceGroup build() {
+            return new PlanTopology.InstanceGroup(name, nodes, vmType, persistentDiskType, providesAs);
+        }
+    }
+}